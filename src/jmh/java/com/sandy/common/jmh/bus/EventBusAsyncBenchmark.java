@@ -0,0 +1,91 @@
+package com.sandy.common.jmh.bus ;
+
+import java.util.concurrent.TimeUnit ;
+
+import org.openjdk.jmh.annotations.Benchmark ;
+import org.openjdk.jmh.annotations.BenchmarkMode ;
+import org.openjdk.jmh.annotations.Fork ;
+import org.openjdk.jmh.annotations.Level ;
+import org.openjdk.jmh.annotations.Measurement ;
+import org.openjdk.jmh.annotations.Mode ;
+import org.openjdk.jmh.annotations.OutputTimeUnit ;
+import org.openjdk.jmh.annotations.Param ;
+import org.openjdk.jmh.annotations.Scope ;
+import org.openjdk.jmh.annotations.Setup ;
+import org.openjdk.jmh.annotations.State ;
+import org.openjdk.jmh.annotations.TearDown ;
+import org.openjdk.jmh.annotations.Warmup ;
+
+import com.sandy.common.bus.AsyncDispatchPolicy ;
+import com.sandy.common.bus.AsyncDispatcher ;
+import com.sandy.common.bus.EventBus ;
+import com.sandy.common.bus.RingBufferDispatchPolicy ;
+import com.sandy.common.jmh.bus.EventBusPublishBenchmark.SinkSubscriber ;
+
+/**
+ * Benchmarks publishing to asynchronous subscribers. The subscriber queues
+ * are bounded with a blocking overflow policy, so the measured throughput is
+ * the sustained rate at which the subscribers keep up with the publisher.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class EventBusAsyncBenchmark {
+
+    private static final int EVENT = 1 ;
+    private static final int QUEUE_CAPACITY = 64 * 1024 ;
+
+    @Param( { "linked", "ring" } )
+    public String queueType ;
+
+    @Param( { "dedicated", "pooled" } )
+    public String dispatcherType ;
+
+    @Param( { "4" } )
+    public int numSubscribers ;
+
+    private EventBus bus = null ;
+    private AsyncDispatcher dispatcher = null ;
+    private final Object value = new Object() ;
+
+    @Setup( Level.Trial )
+    public void setUp() {
+
+        AsyncDispatchPolicy policy = null ;
+        if( queueType.equals( "ring" ) ) {
+            policy = new RingBufferDispatchPolicy( QUEUE_CAPACITY, AsyncDispatchPolicy.BLOCK ) ;
+        }
+        else {
+            policy = new AsyncDispatchPolicy( QUEUE_CAPACITY, AsyncDispatchPolicy.BLOCK ) ;
+        }
+
+        if( dispatcherType.equals( "pooled" ) ) {
+            dispatcher = AsyncDispatcher.sharedPool( 2 ) ;
+        }
+        else {
+            dispatcher = AsyncDispatcher.dedicatedThreads() ;
+        }
+
+        bus = new EventBus() ;
+        bus.setAsyncDispatcher( dispatcher ) ;
+        for( int i=0; i<numSubscribers; i++ ) {
+            bus.addSubscriberForEventTypes( new SinkSubscriber(), policy, EVENT ) ;
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() {
+        bus.clear() ;
+        dispatcher.shutdown() ;
+    }
+
+    @Benchmark
+    public void publishAsync() {
+        bus.publishEvent( EVENT, value ) ;
+    }
+}
@@ -0,0 +1,126 @@
+package com.sandy.common.jmh.bus ;
+
+import java.util.concurrent.TimeUnit ;
+
+import org.openjdk.jmh.annotations.Benchmark ;
+import org.openjdk.jmh.annotations.BenchmarkMode ;
+import org.openjdk.jmh.annotations.Fork ;
+import org.openjdk.jmh.annotations.Level ;
+import org.openjdk.jmh.annotations.Measurement ;
+import org.openjdk.jmh.annotations.Mode ;
+import org.openjdk.jmh.annotations.OutputTimeUnit ;
+import org.openjdk.jmh.annotations.Param ;
+import org.openjdk.jmh.annotations.Scope ;
+import org.openjdk.jmh.annotations.Setup ;
+import org.openjdk.jmh.annotations.State ;
+import org.openjdk.jmh.annotations.TearDown ;
+import org.openjdk.jmh.annotations.Threads ;
+import org.openjdk.jmh.annotations.Warmup ;
+
+import com.sandy.common.bus.Event ;
+import com.sandy.common.bus.EventBus ;
+import com.sandy.common.bus.EventSubscriber ;
+
+/**
+ * Benchmarks the synchronous publish path of the {@link EventBus} - a single
+ * specific subscriber, fan out to ALL_EVENTS subscribers, range heavy 
+ * subscription tables and multiple publishers contending on one bus. Run with
+ * the GC profiler (the default in the benchmark profile) to get the allocation
+ * rate per publish. The sample time mode reports the latency percentiles.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class EventBusPublishBenchmark {
+
+    private static final int SPECIFIC_EVENT = 1 ;
+    private static final int RANGE_WIDTH = 10 ;
+    private static final int RANGE_BASE = 100000 ;
+
+    /** A subscriber which does the least possible work with the event. */
+    public static class SinkSubscriber implements EventSubscriber {
+
+        public Object lastValue = null ;
+
+        public void handleEvent( Event event ) {
+            lastValue = event.getValue() ;
+        }
+    }
+
+    @Param( { "false", "true" } )
+    public boolean lockFreePublish ;
+
+    @Param( { "16" } )
+    public int numAllEventSubscribers ;
+
+    @Param( { "500" } )
+    public int numRanges ;
+
+    private EventBus bus = null ;
+    private final Object value = new Object() ;
+
+    @Setup( Level.Trial )
+    public void setUp() {
+
+        bus = new EventBus() ;
+        bus.setLockFreePublish( lockFreePublish ) ;
+        bus.addSubscriberForEventTypes( new SinkSubscriber(), false, SPECIFIC_EVENT ) ;
+
+        for( int i=0; i<numAllEventSubscribers; i++ ) {
+            bus.addSubscriberForEventTypes( new SinkSubscriber(), false ) ;
+        }
+
+        for( int i=0; i<numRanges; i++ ) {
+            int lower = RANGE_BASE + i*RANGE_WIDTH ;
+            bus.addSubscriberForEventRange( new SinkSubscriber(), false,
+                                            lower, lower + RANGE_WIDTH - 1 ) ;
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() {
+        bus.clear() ;
+    }
+
+    /** Cycles through the event ids covered by the registered ranges. */
+    @State( Scope.Thread )
+    public static class RangeCursor {
+
+        int next = 0 ;
+
+        int nextEventId( int numRanges ) {
+            next = ( next + 1 ) % ( numRanges * RANGE_WIDTH ) ;
+            return RANGE_BASE + next ;
+        }
+    }
+
+    /** Publish to one specific subscriber plus the ALL_EVENTS subscribers. */
+    @Benchmark
+    public void publishSpecific() {
+        bus.publishEvent( SPECIFIC_EVENT, value ) ;
+    }
+
+    /** Publish an event id which has only ALL_EVENTS subscribers. */
+    @Benchmark
+    public void publishAllEventsFanOut() {
+        bus.publishEvent( -1, value ) ;
+    }
+
+    /** Publish event ids resolved through the range registrations. */
+    @Benchmark
+    public void publishRange( RangeCursor cursor ) {
+        bus.publishEvent( cursor.nextEventId( numRanges ), value ) ;
+    }
+
+    /** Four publishers contending on the same bus. */
+    @Benchmark
+    @Threads( 4 )
+    public void publishContended() {
+        bus.publishEvent( SPECIFIC_EVENT, value ) ;
+    }
+}
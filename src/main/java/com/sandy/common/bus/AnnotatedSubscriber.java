@@ -0,0 +1,170 @@
+package com.sandy.common.bus ;
+
+import java.lang.invoke.MethodHandle ;
+import java.lang.invoke.MethodHandles ;
+import java.lang.invoke.MethodType ;
+import java.lang.reflect.Method ;
+import java.lang.reflect.Modifier ;
+import java.lang.reflect.UndeclaredThrowableException ;
+import java.util.ArrayList ;
+import java.util.List ;
+
+/**
+ * An {@link EventSubscriber} which routes the events to the {@link Subscribe}
+ * methods of a target object, based on the class of the event value.
+ * <p>
+ * The subscribe methods of a class are discovered once and bound as method
+ * handles. The handles applicable to a value class are in turn resolved 
+ * once per value class and cached in a {@link ClassValue}, so dispatching an
+ * event involves no reflection - only a class value lookup and direct 
+ * invocations of the handles.
+ * <p>
+ * Two annotated subscribers are equal if they wrap the same target, which
+ * lets the bus identify the registrations of a target.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class AnnotatedSubscriber implements EventSubscriber {
+
+    /** The erased type to which all the handles are adapted. */
+    private static final MethodType HANDLE_TYPE = 
+              MethodType.methodType( void.class, Object.class, Object.class ) ;
+
+    private static final MethodHandle[] NO_HANDLES = new MethodHandle[0] ;
+
+    /** The subscribe methods of each subscriber class. */
+    private static final ClassValue<SubscriberClass> SUBSCRIBER_CLASSES =
+        new ClassValue<SubscriberClass>() {
+            protected SubscriberClass computeValue( Class<?> type ) {
+                return new SubscriberClass( type ) ;
+            }
+        } ;
+
+    /** The subscribe methods of a class and their handles by value class. */
+    private static class SubscriberClass {
+
+        private final Class<?>[] parameterTypes ;
+        private final MethodHandle[] handles ;
+
+        private final ClassValue<MethodHandle[]> handlesByValueClass =
+            new ClassValue<MethodHandle[]>() {
+                protected MethodHandle[] computeValue( Class<?> valueClass ) {
+                    return resolveHandles( valueClass ) ;
+                }
+            } ;
+
+        SubscriberClass( Class<?> type ) {
+
+            List<Class<?>>     types   = new ArrayList<Class<?>>() ;
+            List<MethodHandle> handles = new ArrayList<MethodHandle>() ;
+            MethodHandles.Lookup lookup = MethodHandles.lookup() ;
+
+            for( Method method : type.getMethods() ) {
+                if( !method.isAnnotationPresent( Subscribe.class ) ) {
+                    continue ;
+                }
+                validate( method ) ;
+                try {
+                    // Public methods of non public classes, for example 
+                    // anonymous subscribers, need access checks suppressed
+                    method.setAccessible( true ) ;
+                    handles.add( lookup.unreflect( method ).asType( HANDLE_TYPE ) ) ;
+                    types.add( method.getParameterTypes()[0] ) ;
+                }
+                catch( IllegalAccessException e ) {
+                    throw new IllegalArgumentException( "Subscribe method " + 
+                                         method + " is not accessible.", e ) ;
+                }
+            }
+
+            this.parameterTypes = types.toArray( new Class<?>[types.size()] ) ;
+            this.handles = handles.toArray( new MethodHandle[handles.size()] ) ;
+        }
+
+        private static void validate( Method method ) {
+
+            Class<?>[] params = method.getParameterTypes() ;
+            if( Modifier.isStatic( method.getModifiers() ) ||
+                method.getReturnType() != void.class || 
+                params.length != 1 || params[0].isPrimitive() ) {
+
+                throw new IllegalArgumentException( "Subscribe method " + method + 
+                        " should be a non static void method with one " + 
+                        "non primitive parameter." ) ;
+            }
+        }
+
+        private MethodHandle[] resolveHandles( Class<?> valueClass ) {
+
+            List<MethodHandle> applicable = new ArrayList<MethodHandle>() ;
+            for( int i=0; i<parameterTypes.length; i++ ) {
+                if( parameterTypes[i].isAssignableFrom( valueClass ) ) {
+                    applicable.add( handles[i] ) ;
+                }
+            }
+            return applicable.isEmpty() ? NO_HANDLES : 
+                   applicable.toArray( new MethodHandle[applicable.size()] ) ;
+        }
+
+        boolean hasSubscribeMethods() {
+            return handles.length > 0 ;
+        }
+    }
+
+    private final Object target ;
+    private final SubscriberClass subscriberClass ;
+
+    /**
+     * @throws IllegalArgumentException If the target has no subscribe 
+     *         methods or a subscribe method has an invalid signature.
+     */
+    AnnotatedSubscriber( Object target ) {
+
+        this.target = target ;
+        this.subscriberClass = SUBSCRIBER_CLASSES.get( target.getClass() ) ;
+        if( !subscriberClass.hasSubscribeMethods() ) {
+            throw new IllegalArgumentException( target.getClass().getName() + 
+                                         " has no public @Subscribe methods." ) ;
+        }
+    }
+
+    public void handleEvent( final Event event ) {
+
+        Object value = event.getValue() ;
+        if( value == null ) {
+            return ;
+        }
+
+        MethodHandle[] handles = subscriberClass.handlesByValueClass.get( value.getClass() ) ;
+        for( MethodHandle handle : handles ) {
+            try {
+                handle.invokeExact( target, value ) ;
+            }
+            catch( RuntimeException | Error e ) {
+                throw e ;
+            }
+            catch( Throwable t ) {
+                throw new UndeclaredThrowableException( t ) ;
+            }
+        }
+    }
+
+    Object getTarget() {
+        return this.target ;
+    }
+
+    public boolean equals( final Object obj ) {
+        if( obj instanceof AnnotatedSubscriber ) {
+            return this.target.equals( ( ( AnnotatedSubscriber )obj ).target ) ;
+        }
+        return false ;
+    }
+
+    public int hashCode() {
+        return this.target.hashCode() ;
+    }
+
+    public String toString() {
+        return this.target.toString() ;
+    }
+}
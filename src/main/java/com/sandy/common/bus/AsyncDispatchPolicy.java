@@ -0,0 +1,82 @@
+package com.sandy.common.bus ;
+
+/**
+ * Describes how events are queued for an asynchronously dispatched
+ * subscriber. A policy specifies the capacity of the subscriber's queue and
+ * what happens when a publisher finds the queue full.
+ * <p>
+ * The overflow policies are:
+ * <ul>
+ *   <li>{@link #BLOCK} - The publisher waits till space frees up in the queue</li>
+ *   <li>{@link #DROP_NEWEST} - The event being published is dropped</li>
+ *   <li>{@link #DROP_OLDEST} - The oldest queued event is dropped to make
+ *       space for the event being published</li>
+ *   <li>{@link #CONFLATE} - At most one event per event type is kept in the
+ *       queue. A newer event replaces the queued event of the same type,
+ *       retaining its position in the queue. The capacity limits the number
+ *       of distinct event types queued, beyond which new types are dropped.</li>
+ * </ul>
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class AsyncDispatchPolicy {
+
+    public static final int BLOCK       = 0 ;
+    public static final int DROP_NEWEST = 1 ;
+    public static final int DROP_OLDEST = 2 ;
+    public static final int CONFLATE    = 3 ;
+
+    /** The unbounded policy used for plain asynchronous registrations. */
+    public static final AsyncDispatchPolicy UNBOUNDED =
+                           new AsyncDispatchPolicy( Integer.MAX_VALUE, BLOCK ) ;
+
+    private final int capacity ;
+    private final int overflowPolicy ;
+
+    public AsyncDispatchPolicy( int capacity, int overflowPolicy ) {
+
+        if( capacity <= 0 ) {
+            throw new IllegalArgumentException( "Capacity should be positive." ) ;
+        }
+        else if( overflowPolicy < BLOCK || overflowPolicy > CONFLATE ) {
+            throw new IllegalArgumentException( "Unknown overflow policy " +
+                                                overflowPolicy ) ;
+        }
+        this.capacity = capacity ;
+        this.overflowPolicy = overflowPolicy ;
+    }
+
+    public int getCapacity() {
+        return this.capacity ;
+    }
+
+    public int getOverflowPolicy() {
+        return this.overflowPolicy ;
+    }
+
+    /**
+     * The minimum interval between two deliveries to the subscriber, zero
+     * if deliveries are not rate limited.
+     */
+    long getMinDeliveryIntervalNanos() {
+        return 0 ;
+    }
+
+    /**
+     * Creates the proxy through which a subscriber registered with this 
+     * policy receives its events.
+     */
+    AsyncEventDispatchProxy createProxy( EventSubscriber subscriber,
+                                         AsyncDispatcher dispatcher ) {
+        return new AsyncEventDispatchProxy( subscriber, this, dispatcher ) ;
+    }
+
+    /** Creates the queue which implements this policy. */
+    DispatchQueue createQueue() {
+
+        if( overflowPolicy == CONFLATE ) {
+            return new ConflatingDispatchQueue( capacity, null ) ;
+        }
+        return new BoundedDispatchQueue( capacity, overflowPolicy ) ;
+    }
+}
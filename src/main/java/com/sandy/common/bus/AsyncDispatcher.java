@@ -0,0 +1,208 @@
+package com.sandy.common.bus ;
+
+import java.util.concurrent.Executor ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.ForkJoinPool ;
+import java.util.concurrent.RejectedExecutionException ;
+import java.util.concurrent.ThreadFactory ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+import org.apache.log4j.Logger ;
+
+/**
+ * The strategy with which an {@link EventBus} runs the dispatch of events to
+ * its asynchronous subscribers. The strategies available are:
+ * <ul>
+ *   <li>{@link #dedicatedThreads()} - Each asynchronous registration gets a
+ *       dedicated daemon thread. This is the default strategy.</li>
+ *   <li>{@link #sharedPool(int)} - Dispatches run on a fixed pool of threads
+ *       shared by all the asynchronous registrations.</li>
+ *   <li>{@link #forkJoinPool(int)} - Dispatches run on a FIFO ForkJoinPool.</li>
+ *   <li>{@link #executor(Executor)} - Dispatches run on an application
+ *       supplied executor.</li>
+ *   <li>{@link #virtualThreads()} - Each asynchronous registration gets a
+ *       dedicated virtual thread. Needs JDK 21 or later.</li>
+ * </ul>
+ * In the pooled strategies, at most one pool thread works on a registration
+ * at any time, hence each subscriber still receives its events serially and
+ * in the order they were queued. The number of threads is governed by the
+ * pool and not by the number of subscribers.
+ * <p>
+ * Note that in the pooled strategies, a subscriber registered with a
+ * {@link AsyncDispatchPolicy#BLOCK} policy should not be published to from
+ * the pool threads, since a full queue would then block the very threads
+ * which are supposed to drain it.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public abstract class AsyncDispatcher {
+
+    public static final Logger logger = Logger.getLogger( AsyncDispatcher.class ) ;
+
+    /** The maximum number of events a pooled dispatch drains in one go. */
+    static final int MAX_EVENTS_PER_DRAIN = 64 ;
+
+    /** Starts dispatching events to the given proxy. */
+    abstract void start( AsyncEventDispatchProxy proxy ) ;
+
+    /** Notifies that an event has been queued in the given proxy. */
+    abstract void signal( AsyncEventDispatchProxy proxy ) ;
+
+    /** Stops dispatching events to the given proxy. */
+    abstract void stop( AsyncEventDispatchProxy proxy ) ;
+
+    /**
+     * Releases the threads owned by this dispatcher. Should be called only
+     * after all the subscribers using this dispatcher have been removed.
+     */
+    public void shutdown() {
+    }
+
+    public static AsyncDispatcher dedicatedThreads() {
+        return new ThreadPerSubscriberDispatcher( new DaemonThreadFactory() ) ;
+    }
+
+    public static AsyncDispatcher sharedPool( int numThreads ) {
+        return new PooledDispatcher(
+                Executors.newFixedThreadPool( numThreads, new DaemonThreadFactory() ),
+                true ) ;
+    }
+
+    public static AsyncDispatcher forkJoinPool( int parallelism ) {
+        return new PooledDispatcher(
+                new ForkJoinPool( parallelism,
+                                  ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                                  null, true ),
+                true ) ;
+    }
+
+    /**
+     * Returns a dispatcher which runs the dispatches on the given executor.
+     * The executor is owned by the application and is not shut down by
+     * {@link #shutdown()}.
+     */
+    public static AsyncDispatcher executor( Executor executor ) {
+        return new PooledDispatcher( executor, false ) ;
+    }
+
+    /**
+     * Returns a dispatcher which runs each asynchronous registration on its
+     * own virtual thread.
+     *
+     * @throws UnsupportedOperationException if the runtime doesn't support
+     *         virtual threads.
+     */
+    public static AsyncDispatcher virtualThreads() {
+
+        // Looked up reflectively since this library is built for runtimes
+        // which predate virtual threads.
+        try {
+            Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null ) ;
+            Class<?> builderClass = Class.forName( "java.lang.Thread$Builder" ) ;
+            ThreadFactory factory = ( ThreadFactory )builderClass.getMethod( "factory" )
+                                                                 .invoke( builder ) ;
+            return new ThreadPerSubscriberDispatcher( factory ) ;
+        }
+        catch( Exception e ) {
+            throw new UnsupportedOperationException(
+                           "Virtual threads are not supported by this runtime.", e ) ;
+        }
+    }
+
+    /** Creates daemon threads named after the event bus dispatch. */
+    static class DaemonThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger threadCount = new AtomicInteger() ;
+
+        public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable ) ;
+            thread.setName( "EventBus-Dispatch-" + threadCount.incrementAndGet() ) ;
+            thread.setDaemon( true ) ;
+            return thread ;
+        }
+    }
+
+    /**
+     * Runs each proxy on a thread of its own, which blocks on the proxy's
+     * queue for events.
+     */
+    static class ThreadPerSubscriberDispatcher extends AsyncDispatcher {
+
+        private final ThreadFactory threadFactory ;
+
+        ThreadPerSubscriberDispatcher( ThreadFactory threadFactory ) {
+            this.threadFactory = threadFactory ;
+        }
+
+        void start( AsyncEventDispatchProxy proxy ) {
+            Thread thread = threadFactory.newThread( proxy ) ;
+            proxy.setDispatchThread( thread ) ;
+            thread.start() ;
+        }
+
+        void signal( AsyncEventDispatchProxy proxy ) {
+            // The dispatch thread is blocked on the queue and wakes up by itself
+        }
+
+        void stop( AsyncEventDispatchProxy proxy ) {
+            Thread thread = proxy.getDispatchThread() ;
+            if( thread != null ) {
+                thread.interrupt() ;
+            }
+        }
+    }
+
+    /**
+     * Runs the dispatches on an executor. A drain task is submitted for a
+     * proxy when an event is queued and the proxy is not already scheduled.
+     * The task drains a bounded number of events and resubmits itself if
+     * more are pending, so that one busy subscriber can't starve the others.
+     */
+    static class PooledDispatcher extends AsyncDispatcher {
+
+        private final Executor executor ;
+        private final boolean ownsExecutor ;
+
+        PooledDispatcher( Executor executor, boolean ownsExecutor ) {
+            this.executor = executor ;
+            this.ownsExecutor = ownsExecutor ;
+        }
+
+        void start( AsyncEventDispatchProxy proxy ) {
+        }
+
+        void signal( final AsyncEventDispatchProxy proxy ) {
+
+            if( proxy.markScheduled() ) {
+                try {
+                    executor.execute( new Runnable() {
+                        public void run() {
+                            proxy.drain( MAX_EVENTS_PER_DRAIN ) ;
+                            proxy.clearScheduled() ;
+                            if( proxy.hasPendingEvents() ) {
+                                signal( proxy ) ;
+                            }
+                        }
+                    } ) ;
+                }
+                catch( RejectedExecutionException e ) {
+                    proxy.clearScheduled() ;
+                    logger.error( "Dispatch executor rejected the drain of " + 
+                                  proxy.getSubscriber(), e ) ;
+                }
+            }
+        }
+
+        void stop( AsyncEventDispatchProxy proxy ) {
+            // The drain of a stopped proxy discards its queued events
+            signal( proxy ) ;
+        }
+
+        public void shutdown() {
+            if( ownsExecutor ) {
+                ( ( ExecutorService )executor ).shutdown() ;
+            }
+        }
+    }
+}
@@ -1,68 +1,476 @@
 package com.sandy.common.bus;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.List ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.ScheduledExecutorService ;
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicBoolean ;
+import java.util.concurrent.atomic.LongAdder ;
 
 import org.apache.log4j.Logger;
 
 /**
  * An implementation of {@link EventSubscriber}, which wraps around concrete
  * implementations of subscribers and dispatches events to them in an
- * asynchronous fashion.
+ * asynchronous fashion. The threads on which the events are dispatched are
+ * provided by the {@link AsyncDispatcher} of the bus.
+ * <p>
+ * If the wrapped subscriber is a {@link BatchEventSubscriber}, the queued 
+ * events are handed over in chunks instead of one at a time.
+ * <p>
+ * If the dispatch policy limits the rate of deliveries, the proxy waits 
+ * between two deliveries, letting the events conflate in the meanwhile. A 
+ * delivery is a drain of the pending events.
  *
  * @author Sandeep Deb [deb.sandeep@gmail.com]
  */
-class AsyncEventDispatchProxy implements EventSubscriber, Runnable {
+class AsyncEventDispatchProxy implements BatchEventSubscriber, Runnable {
 
     public static final Logger logger = Logger.getLogger( AsyncEventDispatchProxy.class ) ;
 
     private EventSubscriber subscriber = null ;
+    private AsyncDispatcher dispatcher = null ;
     private Thread dispatchThread = null ;
-    private boolean stop = false ;
+    private volatile boolean stop = false ;
 
-    /** The unbounded queue in which events are stored before dispatching. */
-    private final LinkedBlockingQueue<Event> eventQueue = 
-                                              new LinkedBlockingQueue<Event>() ;
+    /** 
+     * Set once the queue of the stopped proxy has been discarded, after which
+     * no dispatch polls the queue. Guarded by the discard lock, which keeps 
+     * the discards of the events queued late to a single consumer.
+     */
+    private boolean discarded = false ;
+    private final Object discardLock = new Object() ;
+
+    /** Set while a pooled dispatcher has a drain of this proxy scheduled. */
+    private final AtomicBoolean scheduled = new AtomicBoolean() ;
+
+    /**
+     * The queue in which events are stored before dispatching. The capacity
+     * and overflow behavior of the queue is governed by the dispatch policy
+     * with which the subscriber was registered.
+     */
+    private final DispatchQueue eventQueue ;
+
+    /** Non null if the subscriber accepts events in batches. */
+    private final BatchEventSubscriber batchSubscriber ;
+
+    /** The reusable chunk in which events are drained for batch dispatch. */
+    private final List<Event> batch ;
+    private final List<Event> unmodifiableBatch ;
+
+    /** Re-signals the rate limited proxies of pooled dispatchers. */
+    private static class ThrottleTimer {
+        static final ScheduledExecutorService INSTANCE = 
+                Executors.newSingleThreadScheduledExecutor( 
+                                    new AsyncDispatcher.DaemonThreadFactory() ) ;
+    }
+
+    /** The minimum interval between deliveries, zero if not rate limited. */
+    private final long minDeliveryIntervalNanos ;
+
+    /** The earliest nano time of the next delivery, if rate limited. */
+    private volatile long nextDeliveryTime = System.nanoTime() ;
+
+    /** Set while a delayed signal is scheduled with the throttle timer. */
+    private final AtomicBoolean delayedSignalPending = new AtomicBoolean() ;
+
+    /** The number of events handed over to this proxy while running. */
+    private final LongAdder numReceivedEvents = new LongAdder() ;
+
+    /**
+     * The number of events dispatched to the subscriber. Written only by the
+     * thread draining the proxy, of which there is at most one at a time.
+     */
+    private volatile long numDeliveredEvents = 0 ;
+
+    /** The metrics of the subscriber, null if the bus metrics are disabled. */
+    private volatile SubscriberMetrics metrics = null ;
 
     public AsyncEventDispatchProxy( final EventSubscriber subscriber ) {
-        
+        this( subscriber, AsyncDispatchPolicy.UNBOUNDED,
+              AsyncDispatcher.dedicatedThreads() ) ;
+    }
+
+    public AsyncEventDispatchProxy( final EventSubscriber subscriber,
+                                    final AsyncDispatchPolicy policy,
+                                    final AsyncDispatcher dispatcher ) {
+
         this.subscriber = subscriber ;
-        this.dispatchThread = new Thread( this ) ;
-        this.dispatchThread.setDaemon( true ) ;
-        this.dispatchThread.start() ;
+        this.dispatcher = dispatcher ;
+        this.eventQueue = policy.createQueue() ;
+        this.eventQueue.setSubscriber( subscriber ) ;
+        this.minDeliveryIntervalNanos = policy.getMinDeliveryIntervalNanos() ;
+
+        if( subscriber instanceof BatchEventSubscriber ) {
+            this.batchSubscriber = ( BatchEventSubscriber )subscriber ;
+            this.batch = new ArrayList<Event>( AsyncDispatcher.MAX_EVENTS_PER_DRAIN ) ;
+            this.unmodifiableBatch = Collections.unmodifiableList( this.batch ) ;
+        }
+        else {
+            this.batchSubscriber = null ;
+            this.batch = null ;
+            this.unmodifiableBatch = null ;
+        }
+        this.dispatcher.start( this ) ;
+    }
+
+    /**
+     * Creates a proxy which has no queue of its own and is not started with
+     * the dispatcher. Used by the proxies which route the events to other 
+     * proxies.
+     */
+    AsyncEventDispatchProxy( final EventSubscriber subscriber,
+                             final AsyncDispatcher dispatcher ) {
+
+        this.subscriber = subscriber ;
+        this.dispatcher = dispatcher ;
+        this.eventQueue = null ;
+        this.minDeliveryIntervalNanos = 0 ;
+        this.batchSubscriber = null ;
+        this.batch = null ;
+        this.unmodifiableBatch = null ;
     }
 
+    /** The dispatch loop used when the proxy has a thread of its own. */
     public void run() {
         while( !this.stop ) {
-            Event evt = null ;
             try {
-                evt = this.eventQueue.take() ;
-                this.subscriber.handleEvent( evt ) ;
+                awaitDeliveryPermit() ;
+                Event evt = this.eventQueue.take() ;
+                if( this.batchSubscriber != null ) {
+                    this.batch.add( evt ) ;
+                    this.eventQueue.drainTo( this.batch, 
+                                   AsyncDispatcher.MAX_EVENTS_PER_DRAIN - 1 ) ;
+                    dispatchBatch() ;
+                }
+                else {
+                    dispatch( evt ) ;
+                    drain( AsyncDispatcher.MAX_EVENTS_PER_DRAIN ) ;
+                }
+                deliveryCompleted() ;
             }
             catch( InterruptedException ie ) {
                 // IE can be generated either for a graceful shutdown or by
-                // a burst of cosmic rays. In the former case, the stop 
-                // flag would be set to true and this loop will gracefully 
+                // a burst of cosmic rays. In the former case, the stop
+                // flag would be set to true and this loop will gracefully
                 // terminate. In case of cosmic rays, we gobble up the exception
                 // without a burp and let the loop continue.
             }
-            catch ( Throwable e ) {
-                logger.error( "Dispatch failed for event " + evt, e ) ;
+        }
+        discardQueuedEvents() ;
+    }
+
+    /**
+     * Dispatches up to the given number of queued events without blocking.
+     * Used by the pooled dispatchers, which guarantee that at most one thread
+     * drains a proxy at any time.
+     */
+    void drain( int maxEvents ) {
+
+        if( this.stop ) {
+            discardQueuedEvents() ;
+            return ;
+        }
+        else if( isThrottled() ) {
+            scheduleDelayedSignal() ;
+            return ;
+        }
+
+        if( this.batchSubscriber != null ) {
+            if( !this.stop && this.eventQueue.drainTo( this.batch, maxEvents ) > 0 ) {
+                dispatchBatch() ;
+                deliveryCompleted() ;
+            }
+            return ;
+        }
+
+        int numDispatched = 0 ;
+        for( ; numDispatched<maxEvents && !this.stop; numDispatched++ ) {
+            Event evt = this.eventQueue.poll() ;
+            if( evt == null ) {
+                break ;
+            }
+            dispatch( evt ) ;
+        }
+        if( numDispatched > 0 ) {
+            deliveryCompleted() ;
+        }
+    }
+
+    private boolean isThrottled() {
+        return this.minDeliveryIntervalNanos > 0 && 
+               this.nextDeliveryTime - System.nanoTime() > 0 ;
+    }
+
+    private void awaitDeliveryPermit() throws InterruptedException {
+        if( this.minDeliveryIntervalNanos > 0 ) {
+            long delay = this.nextDeliveryTime - System.nanoTime() ;
+            if( delay > 0 ) {
+                TimeUnit.NANOSECONDS.sleep( delay ) ;
+            }
+        }
+    }
+
+    private void deliveryCompleted() {
+        if( this.minDeliveryIntervalNanos > 0 ) {
+            this.nextDeliveryTime = System.nanoTime() + this.minDeliveryIntervalNanos ;
+        }
+    }
+
+    /** Signals the dispatcher once the next delivery is permitted. */
+    private void scheduleDelayedSignal() {
+
+        if( this.delayedSignalPending.compareAndSet( false, true ) ) {
+            long delay = this.nextDeliveryTime - System.nanoTime() ;
+            ThrottleTimer.INSTANCE.schedule( new Runnable() {
+                public void run() {
+                    delayedSignalPending.set( false ) ;
+                    if( !stop ) {
+                        dispatcher.signal( AsyncEventDispatchProxy.this ) ;
+                    }
+                }
+            }, delay, TimeUnit.NANOSECONDS ) ;
+        }
+    }
+
+    private void dispatch( Event evt ) {
+
+        SubscriberMetrics metrics = this.metrics ;
+        long startTime = 0 ;
+        if( metrics != null ) {
+            recordQueueWait( metrics, evt ) ;
+            startTime = System.nanoTime() ;
+        }
+
+        try {
+            this.subscriber.handleEvent( evt ) ;
+            if( metrics != null ) {
+                metrics.recordHandled( 1, System.nanoTime() - startTime ) ;
+            }
+            delivered( evt, null ) ;
+        }
+        catch ( Throwable e ) {
+            if( metrics != null ) {
+                metrics.recordFailure( 1, System.nanoTime() - startTime ) ;
             }
+            logger.error( "Dispatch failed for event " + evt, e ) ;
+            delivered( evt, e ) ;
+        }
+        finally {
+            this.numDeliveredEvents++ ;
+            this.eventQueue.release() ;
         }
-        this.eventQueue.clear() ;
+    }
+
+    private void dispatchBatch() {
+
+        SubscriberMetrics metrics = this.metrics ;
+        long startTime = 0 ;
+        if( metrics != null ) {
+            for( Event evt : this.batch ) {
+                recordQueueWait( metrics, evt ) ;
+            }
+            startTime = System.nanoTime() ;
+        }
+
+        try {
+            this.batchSubscriber.handleEvents( this.unmodifiableBatch ) ;
+            if( metrics != null ) {
+                metrics.recordHandled( batch.size(), System.nanoTime() - startTime ) ;
+            }
+            for( Event evt : this.batch ) {
+                delivered( evt, null ) ;
+            }
+        }
+        catch ( Throwable e ) {
+            if( metrics != null ) {
+                metrics.recordFailure( batch.size(), System.nanoTime() - startTime ) ;
+            }
+            logger.error( "Dispatch failed for a batch of " + batch.size() + 
+                          " events", e ) ;
+            for( Event evt : this.batch ) {
+                delivered( evt, e ) ;
+            }
+        }
+        finally {
+            this.numDeliveredEvents += batch.size() ;
+            this.batch.clear() ;
+            this.eventQueue.release() ;
+        }
+    }
+
+    /** Completes the delivery of a tracked event to the subscriber. */
+    private void delivered( Event evt, Throwable failure ) {
+        DeliveryTracker tracker = evt.getTracker() ;
+        if( tracker != null ) {
+            tracker.delivered( this.subscriber, failure ) ;
+        }
+    }
+
+    /**
+     * Discards the events left in the queue once the proxy is stopped. Runs
+     * on the thread which drains the proxy, so that the trackers of the 
+     * discarded events can be completed.
+     */
+    private void discardQueuedEvents() {
+        synchronized( this.discardLock ) {
+            Event evt = null ;
+            while( ( evt = this.eventQueue.poll() ) != null ) {
+                this.eventQueue.eventDiscarded( evt ) ;
+            }
+            this.eventQueue.release() ;
+            this.eventQueue.clear() ;
+            this.discarded = true ;
+        }
+    }
+
+    /**
+     * Discards the events queued by a publisher which found the proxy 
+     * running but queued its event only after the proxy was stopped. If the
+     * queue hasn't been discarded yet, the dispatch discards these events.
+     * Otherwise no dispatch is left to pick them up, and they are discarded
+     * by the publisher.
+     */
+    private void discardLateEvents() {
+        synchronized( this.discardLock ) {
+            if( this.discarded ) {
+                discardQueuedEvents() ;
+            }
+        }
+    }
+
+    private void recordQueueWait( SubscriberMetrics metrics, Event evt ) {
+        metrics.recordQueueWait( System.nanoTime() - evt.getEventNanoTime() ) ;
     }
 
     public void handleEvent( final Event event ) {
-        this.eventQueue.add( event ) ;
+        // A publisher holding an older dispatch table can still hand over
+        // events after this proxy has been stopped. Such events are ignored
+        // so that a blocking policy doesn't block the publisher forever.
+        if( !this.stop ) {
+            this.numReceivedEvents.increment() ;
+            if( this.eventQueue.enqueue( event ) ) {
+                this.dispatcher.signal( this ) ;
+            }
+            if( this.stop ) {
+                discardLateEvents() ;
+            }
+        }
+        else {
+            this.eventQueue.eventDiscarded( event ) ;
+        }
+    }
+
+    /**
+     * Queues a batch of events. The dispatcher is signalled as the events
+     * are queued, so that a blocking queue smaller than the batch is drained
+     * while the batch is being queued.
+     */
+    public void handleEvents( final List<Event> events ) {
+        for( Event event : events ) {
+            handleEvent( event ) ;
+        }
+    }
+
+    /**
+     * Queues an event with the given attributes. Used by the bus to publish
+     * to proxies whose queue copies the events, without allocating an event.
+     */
+    void handleEvent( final int eventType, final String topic, 
+                      final Object value, final long eventTime ) {
+        if( !this.stop ) {
+            this.numReceivedEvents.increment() ;
+            if( this.eventQueue.enqueue( eventType, topic, value, eventTime ) ) {
+                this.dispatcher.signal( this ) ;
+            }
+            if( this.stop ) {
+                discardLateEvents() ;
+            }
+        }
+    }
+
+    /** Returns true if events published to this proxy are copied. */
+    boolean copiesEvents() {
+        return this.eventQueue.copiesEvents() ;
+    }
+
+    void setMetrics( SubscriberMetrics metrics ) {
+        this.metrics = metrics ;
     }
 
     public EventSubscriber getSubscriber() {
         return this.subscriber ;
     }
 
+    /** Returns the number of events waiting to be dispatched. */
+    public int getQueueDepth() {
+        return this.eventQueue.size() ;
+    }
+
+    /**
+     * Returns the number of events which were dropped or conflated due to
+     * the overflow policy of this proxy.
+     */
+    public long getNumDroppedEvents() {
+        return this.eventQueue.getNumDroppedEvents() ;
+    }
+
+    /**
+     * Returns the number of events received which are neither delivered nor
+     * dropped, including the events being dispatched at the moment. Unlike
+     * the queue depth, this becomes zero only once the subscriber is done 
+     * with the events received so far.
+     */
+    long getNumPendingEvents() {
+        // The received count is read last so that a concurrent dispatch can
+        // only make the result larger than the actual, never smaller.
+        long numDelivered = this.numDeliveredEvents ;
+        long numDropped = this.eventQueue.getNumDroppedEvents() ;
+        return this.numReceivedEvents.sum() - numDelivered - numDropped ;
+    }
+
+    /**
+     * Returns true if events are pending and can be delivered right away. If
+     * the pending events are held back by the rate limit, a delayed signal
+     * is scheduled for them and false is returned. Events pending in a 
+     * stopped proxy are reported so that they get discarded.
+     */
+    boolean hasPendingEvents() {
+        if( this.eventQueue.size() == 0 ) {
+            return false ;
+        }
+        else if( this.stop ) {
+            // The events left behind are discarded by the next drain
+            return true ;
+        }
+        else if( isThrottled() ) {
+            scheduleDelayedSignal() ;
+            return false ;
+        }
+        return true ;
+    }
+
+    boolean markScheduled() {
+        return this.scheduled.compareAndSet( false, true ) ;
+    }
+
+    void clearScheduled() {
+        this.scheduled.set( false ) ;
+    }
+
+    void setDispatchThread( Thread thread ) {
+        this.dispatchThread = thread ;
+    }
+
+    Thread getDispatchThread() {
+        return this.dispatchThread ;
+    }
+
     public void stop() {
         this.stop = true ;
-        this.dispatchThread.interrupt() ;
+        this.dispatcher.stop( this ) ;
     }
 
     public boolean equals( final Object obj ) {
@@ -0,0 +1,27 @@
+package com.sandy.common.bus ;
+
+import java.util.List ;
+
+/**
+ * A variant of {@link EventSubscriber} which can accept events in batches.
+ * The event bus delivers the events of {@link EventBus#publishEvents(int, java.util.Collection)}
+ * to synchronous batch subscribers in a single call. Asynchronous batch 
+ * subscribers receive whatever events have accumulated in their queue, up to
+ * a bounded chunk size, in a single call.
+ * <p>
+ * Single events are still delivered through {@link #handleEvent(Event)}.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public interface BatchEventSubscriber extends EventSubscriber {
+
+    /**
+     * Handles a batch of events, in the order they were published. The list
+     * is owned by the event bus, is not modifiable and is valid only for the
+     * duration of this call - subscribers should copy the events they need
+     * to retain.
+     *
+     * @param events The events being delivered, never null or empty.
+     */
+    void handleEvents( final List<Event> events ) ;
+}
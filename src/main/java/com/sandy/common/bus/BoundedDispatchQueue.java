@@ -0,0 +1,73 @@
+package com.sandy.common.bus ;
+
+import java.util.List ;
+import java.util.concurrent.LinkedBlockingQueue ;
+
+/**
+ * A FIFO {@link DispatchQueue} of fixed capacity which either blocks the
+ * publisher, drops the newest or drops the oldest event on overflow.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class BoundedDispatchQueue extends DispatchQueue {
+
+    private final LinkedBlockingQueue<Event> eventQueue ;
+    private final int overflowPolicy ;
+
+    BoundedDispatchQueue( int capacity, int overflowPolicy ) {
+        this.eventQueue = new LinkedBlockingQueue<Event>( capacity ) ;
+        this.overflowPolicy = overflowPolicy ;
+    }
+
+    boolean enqueue( Event event ) {
+
+        switch( overflowPolicy ) {
+            case AsyncDispatchPolicy.BLOCK:
+                try {
+                    eventQueue.put( event ) ;
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt() ;
+                    eventDropped( event ) ;
+                    return false ;
+                }
+                return true ;
+
+            case AsyncDispatchPolicy.DROP_NEWEST:
+                if( !eventQueue.offer( event ) ) {
+                    eventDropped( event ) ;
+                    return false ;
+                }
+                return true ;
+
+            default:
+                while( !eventQueue.offer( event ) ) {
+                    Event oldest = eventQueue.poll() ;
+                    if( oldest != null ) {
+                        eventDropped( oldest ) ;
+                    }
+                }
+                return true ;
+        }
+    }
+
+    Event take() throws InterruptedException {
+        return eventQueue.take() ;
+    }
+
+    Event poll() {
+        return eventQueue.poll() ;
+    }
+
+    int drainTo( List<Event> batch, int maxEvents ) {
+        return eventQueue.drainTo( batch, maxEvents ) ;
+    }
+
+    int size() {
+        return eventQueue.size() ;
+    }
+
+    void clear() {
+        eventQueue.clear() ;
+    }
+}
@@ -0,0 +1,64 @@
+package com.sandy.common.bus ;
+
+/**
+ * An {@link AsyncDispatchPolicy} which keeps only the newest event per key
+ * between deliveries to the subscriber. By default the key is the event type,
+ * or the topic for topic events. A newer event replaces the pending event of
+ * the same key, retaining its position in the queue.
+ * <p>
+ * Optionally, the deliveries can be limited to a maximum number per second.
+ * Each delivery hands over all the pending events, one per key, and the 
+ * events arriving till the next delivery conflate. This suits subscribers 
+ * which render the latest state, for example UI status displays fed by high
+ * frequency producers.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class ConflatingDispatchPolicy extends AsyncDispatchPolicy {
+
+    private final EventKeyExtractor keyExtractor ;
+    private final int maxDeliveriesPerSecond ;
+
+    /**
+     * @param capacity The maximum number of distinct keys pending delivery.
+     *        Events of new keys beyond this are dropped.
+     *
+     * @param keyExtractor Extracts the conflation key from the events, null
+     *        to conflate by event type.
+     */
+    public ConflatingDispatchPolicy( int capacity, EventKeyExtractor keyExtractor ) {
+        this( capacity, keyExtractor, 0 ) ;
+    }
+
+    /**
+     * @param maxDeliveriesPerSecond The maximum number of deliveries per 
+     *        second, 0 for no limit.
+     */
+    public ConflatingDispatchPolicy( int capacity, EventKeyExtractor keyExtractor,
+                                     int maxDeliveriesPerSecond ) {
+
+        super( capacity, CONFLATE ) ;
+        if( maxDeliveriesPerSecond < 0 ) {
+            throw new IllegalArgumentException( "Delivery rate can't be negative." ) ;
+        }
+        this.keyExtractor = keyExtractor ;
+        this.maxDeliveriesPerSecond = maxDeliveriesPerSecond ;
+    }
+
+    public EventKeyExtractor getKeyExtractor() {
+        return this.keyExtractor ;
+    }
+
+    public int getMaxDeliveriesPerSecond() {
+        return this.maxDeliveriesPerSecond ;
+    }
+
+    long getMinDeliveryIntervalNanos() {
+        return ( maxDeliveriesPerSecond == 0 ) ? 0 : 
+               1000000000L / maxDeliveriesPerSecond ;
+    }
+
+    DispatchQueue createQueue() {
+        return new ConflatingDispatchQueue( getCapacity(), keyExtractor ) ;
+    }
+}
@@ -0,0 +1,78 @@
+package com.sandy.common.bus ;
+
+import java.util.Iterator ;
+import java.util.LinkedHashMap ;
+import java.util.Map ;
+
+/**
+ * A {@link DispatchQueue} which holds at most one event per key. An event 
+ * replaces the queued event of the same key, retaining the position of the
+ * replaced event in the queue. The capacity limits the number of distinct
+ * keys which can be queued at a time. Unless a key extractor is given, the
+ * key is the event type, or the topic for topic events.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class ConflatingDispatchQueue extends DispatchQueue {
+
+    private final Map<Object, Event> pendingEvents =
+                                          new LinkedHashMap<Object, Event>() ;
+    private final int capacity ;
+    private final EventKeyExtractor keyExtractor ;
+
+    ConflatingDispatchQueue( int capacity, EventKeyExtractor keyExtractor ) {
+        this.capacity = capacity ;
+        this.keyExtractor = keyExtractor ;
+    }
+
+    synchronized boolean enqueue( Event event ) {
+
+        Object key = null ;
+        if( keyExtractor != null ) {
+            key = keyExtractor.getKey( event ) ;
+        }
+        else {
+            key = ( event.getTopic() != null ) ? event.getTopic() : 
+                                                 event.getEventType() ;
+        }
+        if( pendingEvents.containsKey( key ) ) {
+            eventDropped( pendingEvents.put( key, event ) ) ;
+        }
+        else if( pendingEvents.size() >= capacity ) {
+            eventDropped( event ) ;
+            return false ;
+        }
+        else {
+            pendingEvents.put( key, event ) ;
+            notifyAll() ;
+        }
+        return true ;
+    }
+
+    synchronized Event take() throws InterruptedException {
+
+        while( pendingEvents.isEmpty() ) {
+            wait() ;
+        }
+        return poll() ;
+    }
+
+    synchronized Event poll() {
+
+        if( pendingEvents.isEmpty() ) {
+            return null ;
+        }
+        Iterator<Event> iter = pendingEvents.values().iterator() ;
+        Event event = iter.next() ;
+        iter.remove() ;
+        return event ;
+    }
+
+    synchronized int size() {
+        return pendingEvents.size() ;
+    }
+
+    synchronized void clear() {
+        pendingEvents.clear() ;
+    }
+}
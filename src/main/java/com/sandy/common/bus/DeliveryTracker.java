@@ -0,0 +1,75 @@
+package com.sandy.common.bus ;
+
+import java.util.LinkedHashMap ;
+import java.util.Map ;
+import java.util.concurrent.CompletableFuture ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+/**
+ * Tracks the processing of an event published through 
+ * {@link EventBus#publishEventAsync(int, Object)} and completes its future
+ * once every subscriber the event was dispatched to is done with it. The
+ * tracker travels with the event through the dispatch queues.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+final class DeliveryTracker {
+
+    /** The failure reported for an event which a dispatch queue dropped. */
+    static final String DROPPED_MESSAGE = "The event was dropped before dispatch." ;
+
+    private final CompletableFuture<Void> future = new CompletableFuture<Void>() ;
+    private final AtomicInteger numPending ;
+    private final Map<EventSubscriber, Throwable> failures = 
+                                 new LinkedHashMap<EventSubscriber, Throwable>() ;
+    private final Event event ;
+
+    DeliveryTracker( Event event, int numSubscribers ) {
+        this.event = event ;
+        this.numPending = new AtomicInteger( numSubscribers ) ;
+        if( numSubscribers == 0 ) {
+            future.complete( null ) ;
+        }
+    }
+
+    CompletableFuture<Void> getFuture() {
+        return this.future ;
+    }
+
+    /**
+     * Records that the subscriber is done with the event, with the given
+     * failure or null if the subscriber processed the event successfully.
+     */
+    void delivered( EventSubscriber subscriber, Throwable failure ) {
+
+        if( failure != null ) {
+            synchronized( failures ) {
+                failures.put( SubscriberMerger.unwrap( subscriber ), failure ) ;
+            }
+        }
+        if( numPending.decrementAndGet() == 0 ) {
+            complete() ;
+        }
+    }
+
+    /** Records that the event was dropped by the queue of the subscriber. */
+    void dropped( EventSubscriber subscriber ) {
+        delivered( subscriber, new IllegalStateException( DROPPED_MESSAGE ) ) ;
+    }
+
+    private void complete() {
+
+        Map<EventSubscriber, Throwable> failed = null ;
+        synchronized( failures ) {
+            failed = failures.isEmpty() ? null :
+                     new LinkedHashMap<EventSubscriber, Throwable>( failures ) ;
+        }
+        if( failed == null ) {
+            future.complete( null ) ;
+        }
+        else {
+            future.completeExceptionally( 
+                      new EventDeliveryException( event, failed ) ) ;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.sandy.common.bus ;
+
+import java.util.List ;
+import java.util.concurrent.atomic.AtomicLong ;
+
+/**
+ * The queue in which an {@link AsyncEventDispatchProxy} holds the events
+ * awaiting dispatch. Concrete implementations apply the capacity and overflow
+ * semantics of an {@link AsyncDispatchPolicy}.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+abstract class DispatchQueue {
+
+    private final AtomicLong numDroppedEvents = new AtomicLong() ;
+
+    /** The subscriber of the owning proxy, to which drops are attributed. */
+    private EventSubscriber subscriber = null ;
+
+    void setSubscriber( EventSubscriber subscriber ) {
+        this.subscriber = subscriber ;
+    }
+
+    EventSubscriber getSubscriber() {
+        return this.subscriber ;
+    }
+
+    /**
+     * Adds the event to the queue, applying the overflow policy if the queue
+     * is full. Returns false if the event being added was dropped.
+     */
+    abstract boolean enqueue( Event event ) ;
+
+    /**
+     * Adds an event with the given attributes to the queue. Queues which copy
+     * the events into storage of their own override this to spare the 
+     * publisher from allocating an event.
+     */
+    boolean enqueue( int eventType, String topic, Object value, 
+                     long eventTime ) {
+        return enqueue( new Event( eventType, topic, value, eventTime ) ) ;
+    }
+
+    /**
+     * Returns true if this queue copies the attributes of the queued events,
+     * in which case the publisher need not allocate an event for it.
+     */
+    boolean copiesEvents() {
+        return false ;
+    }
+
+    /** Waits for and removes the next event to be dispatched. */
+    abstract Event take() throws InterruptedException ;
+
+    /** Removes the next event to be dispatched, null if the queue is empty. */
+    abstract Event poll() ;
+
+    /**
+     * Moves up to the given number of queued events into the batch, without
+     * blocking. Returns the number of events moved.
+     */
+    int drainTo( List<Event> batch, int maxEvents ) {
+
+        int numDrained = 0 ;
+        while( numDrained < maxEvents ) {
+            Event event = poll() ;
+            if( event == null ) {
+                break ;
+            }
+            batch.add( event ) ;
+            numDrained++ ;
+        }
+        return numDrained ;
+    }
+
+    /**
+     * Signals that the events removed from this queue so far have been 
+     * dispatched. Queues which reuse their event storage hold on to the 
+     * removed events till this is called.
+     */
+    void release() {
+    }
+
+    /** Returns the number of events awaiting dispatch. */
+    abstract int size() ;
+
+    abstract void clear() ;
+
+    /** Returns the number of events dropped or conflated by this queue. */
+    long getNumDroppedEvents() {
+        return this.numDroppedEvents.get() ;
+    }
+
+    protected void eventDropped() {
+        this.numDroppedEvents.incrementAndGet() ;
+    }
+
+    /**
+     * Counts the given event as dropped. If the event is tracked for 
+     * completion, its tracker is told that the subscriber won't process it.
+     */
+    protected void eventDropped( Event event ) {
+        eventDropped() ;
+        eventDiscarded( event ) ;
+    }
+
+    /** 
+     * Tells the tracker of the event, if any, that the subscriber won't 
+     * process the event.
+     */
+    void eventDiscarded( Event event ) {
+        DeliveryTracker tracker = event.getTracker() ;
+        if( tracker != null ) {
+            tracker.dropped( subscriber ) ;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.sandy.common.bus ;
+
+import java.util.Collections ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+import com.sandy.common.bus.EventBus.EventRange ;
+
+/**
+ * An immutable snapshot of the subscriber registrations of an {@link EventBus}.
+ * A new table is built every time the registrations change and is then
+ * published to the publishing threads through a volatile reference. Since a
+ * table is never modified once built, publishers can read it without any
+ * locking.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class DispatchTable {
+
+    static final EventSubscriber[] NO_SUBSCRIBERS = new EventSubscriber[0] ;
+
+    static final DispatchTable EMPTY = new DispatchTable(
+                         IntSubscriberMap.EMPTY,
+                         new EventRangeIndex(
+                                 Collections.<EventRange, List<EventSubscriber>>emptyMap(),
+                                 NO_SUBSCRIBERS ),
+                         TopicTrie.EMPTY ) ;
+
+    /** The number of range resolved event ids cached, a power of two. */
+    private static final int RESOLVED_CACHE_SIZE = 4096 ;
+
+    /** An event id resolved through the range index. */
+    private static final class ResolvedEvent {
+
+        final int eventId ;
+        final EventSubscriber[] subscribers ;
+
+        ResolvedEvent( int eventId, EventSubscriber[] subscribers ) {
+            this.eventId = eventId ;
+            this.subscribers = subscribers ;
+        }
+    }
+
+    /**
+     * Merged subscribers (specific, ALL_EVENTS and range) for every event id
+     * which has at least one specific registration.
+     */
+    private final IntSubscriberMap eventSubscribers ;
+
+    /** Interval index resolving the event ids without specific registrations. */
+    private final EventRangeIndex rangeIndex ;
+
+    /** Trie resolving the topics to the subscribers of the matching patterns. */
+    private final TopicTrie topicTrie ;
+
+    /**
+     * Direct mapped cache of the event ids resolved through the range index,
+     * a colliding id simply replaces the cached one. The cache lives and dies
+     * with this table and is hence implicitly invalidated when the 
+     * registrations change. 
+     * <p>
+     * The slots are written without synchronization. This is safe since the
+     * entries are immutable - a reader sees either a complete entry or a 
+     * stale one, in which case it resolves the id again.
+     */
+    private final ResolvedEvent[] resolvedEventCache =
+                                     new ResolvedEvent[ RESOLVED_CACHE_SIZE ] ;
+
+    DispatchTable( IntSubscriberMap eventSubscribers,
+                   EventRangeIndex rangeIndex,
+                   TopicTrie topicTrie ) {
+
+        this.eventSubscribers = eventSubscribers ;
+        this.rangeIndex       = rangeIndex ;
+        this.topicTrie        = topicTrie ;
+    }
+
+    /**
+     * Builds a dispatch table from the given registrations.
+     *
+     * @param eventSubscriberMap The specific registrations, including the
+     *        ALL_EVENTS registrations keyed against {@link EventBus#ALL_EVENTS}
+     *
+     * @param rangeSubscriberMap The range registrations.
+     * 
+     * @param topicSubscriberMap The topic registrations, keyed by pattern.
+     */
+    static DispatchTable build(
+                 Map<Integer, List<EventSubscriber>> eventSubscriberMap,
+                 Map<EventRange, List<EventSubscriber>> rangeSubscriberMap,
+                 Map<String, List<EventSubscriber>> topicSubscriberMap ) {
+
+        EventSubscriber[] allEventSubscribers = NO_SUBSCRIBERS ;
+        if( eventSubscriberMap.containsKey( EventBus.ALL_EVENTS ) ) {
+            allEventSubscribers = new SubscriberMerger()
+                               .addAll( eventSubscriberMap.get( EventBus.ALL_EVENTS ) )
+                               .toArray() ;
+        }
+
+        EventRangeIndex rangeIndex = null ;
+        rangeIndex = new EventRangeIndex( rangeSubscriberMap, allEventSubscribers ) ;
+
+        Map<Integer, EventSubscriber[]> eventSubscribers = null ;
+        eventSubscribers = new HashMap<Integer, EventSubscriber[]>() ;
+
+        for( Map.Entry<Integer, List<EventSubscriber>> entry :
+             eventSubscriberMap.entrySet() ) {
+
+            int eventId = entry.getKey() ;
+            if( eventId == EventBus.ALL_EVENTS || entry.getValue().isEmpty() ) {
+                continue ;
+            }
+
+            eventSubscribers.put( eventId, new SubscriberMerger()
+                                     .addAll( entry.getValue() )
+                                     .addAll( rangeIndex.getSubscribers( eventId ) )
+                                     .toArray() ) ;
+        }
+
+        return new DispatchTable( new IntSubscriberMap( eventSubscribers ), 
+                                  rangeIndex,
+                                  new TopicTrie( topicSubscriberMap ) ) ;
+    }
+
+    /**
+     * Returns the subscribers of the patterns matching the given topic. The
+     * returned array is shared and must not be modified by the caller.
+     */
+    EventSubscriber[] getSubscribers( String topic ) {
+        return topicTrie.getSubscribers( topic ) ;
+    }
+
+    /**
+     * Returns the subscribers which should receive the given event id. The
+     * returned array is shared and must not be modified by the caller.
+     */
+    EventSubscriber[] getSubscribers( int eventId ) {
+
+        EventSubscriber[] subscribers = eventSubscribers.get( eventId ) ;
+        if( subscribers != null ) {
+            return subscribers ;
+        }
+        else if( rangeIndex.isEmpty() ) {
+            return rangeIndex.getSubscribers( eventId ) ;
+        }
+
+        int slot = IntSubscriberMap.hash( eventId ) & ( RESOLVED_CACHE_SIZE - 1 ) ;
+        ResolvedEvent resolved = resolvedEventCache[slot] ;
+        if( resolved == null || resolved.eventId != eventId ) {
+            resolved = new ResolvedEvent( eventId, rangeIndex.getSubscribers( eventId ) ) ;
+            resolvedEventCache[slot] = resolved ;
+        }
+        return resolved.subscribers ;
+    }
+}
@@ -3,6 +3,17 @@ import org.apache.log4j.Logger;
 
 /**
  * A class encapsulating the event information.
+ * <p>
+ * Events are immutable for the subscribers. The only exception is the events
+ * delivered to subscribers registered with a {@link RingBufferDispatchPolicy},
+ * which are reusable slots of a ring buffer and are valid only for the 
+ * duration of the {@link EventSubscriber#handleEvent(Event)} call. The same
+ * holds for the events delivered to a {@link ReusableEventSubscriber}, which 
+ * are pooled carriers reused by the publishing thread. Subscribers which need
+ * to retain such events should {@link #copy()} them.
+ * <p>
+ * Besides the wall clock time, an event carries the {@link System#nanoTime()}
+ * at which it was created, for measuring latencies within the process.
  *
  * @author Sandeep Deb [deb.sandeep@gmail.com]
  */
@@ -10,20 +21,98 @@ public class Event {
 
     public static final Logger logger = Logger.getLogger( Event.class ) ;
 
-    private final int eventType ;
-    private final Object value ;
-    private final long eventTime ;
+    private int eventType ;
+    private String topic ;
+    private Object value ;
+    private long eventTime ;
+    private long eventNanoTime ;
+
+    /** Tracks the processing of an asynchronously published event. */
+    private DeliveryTracker tracker ;
 
     public Event( final int eventType, final Object value ) {
+        this( eventType, value, System.currentTimeMillis() ) ;
+    }
+
+    /**
+     * Creates an event published on a topic. The event type of topic events
+     * is {@link EventBus#TOPIC_EVENT}.
+     */
+    public Event( final String topic, final Object value ) {
+        this( EventBus.TOPIC_EVENT, topic, value, System.currentTimeMillis() ) ;
+    }
+
+    Event( final int eventType, final Object value, final long eventTime ) {
+        this( eventType, null, value, eventTime ) ;
+    }
+
+    Event( final int eventType, final String topic, final Object value, 
+           final long eventTime ) {
+        set( eventType, topic, value, eventTime ) ;
+    }
+
+    /** Creates an empty event, used as a reusable slot of a ring buffer. */
+    Event() {
+    }
+
+    /** 
+     * Overwrites the attributes of a reusable event, stamping it with the 
+     * current nano time.
+     */
+    void set( final int eventType, final String topic, final Object value, 
+              final long eventTime ) {
+        set( eventType, topic, value, eventTime, System.nanoTime() ) ;
+    }
+
+    private void set( final int eventType, final String topic, 
+                      final Object value, final long eventTime, 
+                      final long eventNanoTime ) {
         this.eventType = eventType ;
+        this.topic = topic ;
         this.value = value ;
-        this.eventTime = System.currentTimeMillis() ;
+        this.eventTime = eventTime ;
+        this.eventNanoTime = eventNanoTime ;
+        this.tracker = null ;
+    }
+
+    /**
+     * Drops the references held by a reusable event once it is released, so
+     * that the values are not retained. Cheaper than set, as the clocks are 
+     * not read.
+     */
+    void clear() {
+        this.topic = null ;
+        this.value = null ;
+        this.tracker = null ;
+    }
+
+    DeliveryTracker getTracker() {
+        return this.tracker ;
+    }
+
+    void setTracker( final DeliveryTracker tracker ) {
+        this.tracker = tracker ;
+    }
+
+    /**
+     * Returns an event with the same attributes, including the timestamps,
+     * which is not reused by the bus. The copy is not tracked for completion.
+     */
+    public Event copy() {
+        Event copy = new Event() ;
+        copy.set( eventType, topic, value, eventTime, eventNanoTime ) ;
+        return copy ;
     }
 
     public int getEventType() {
         return this.eventType ;
     }
 
+    /** Returns the topic of the event, null if published with an event type. */
+    public String getTopic() {
+        return this.topic ;
+    }
+
     public Object getValue() {
         return this.value ;
     }
@@ -31,4 +120,13 @@ public class Event {
     public long getEventTime() {
         return this.eventTime ;
     }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the event was created.
+     * Meaningful only for comparison with other nano times of this process,
+     * for example to measure how long the event took to reach a subscriber.
+     */
+    public long getEventNanoTime() {
+        return this.eventNanoTime ;
+    }
 }
@@ -1,11 +1,21 @@
 package com.sandy.common.bus;
 
+import java.io.IOException ;
+import java.time.Duration ;
 import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.Collections ;
 import java.util.HashMap ;
+import java.util.IdentityHashMap ;
 import java.util.Iterator ;
 import java.util.List ;
 import java.util.Map ;
 import java.util.Map.Entry ;
+import java.util.Set ;
+import java.util.concurrent.CompletableFuture ;
+
+import javax.management.JMException ;
 
 import org.apache.log4j.Logger ;
 
@@ -16,6 +26,21 @@ import org.apache.log4j.Logger ;
  * 
  * Note that this class is intentionally not made a singleton. It is up to the
  * using application to scope the instance(s) as appropriate. 
+ * 
+ * Registration changes rebuild an immutable dispatch table, which the 
+ * publishers read without locking or rebuilding subscriber lists. By default
+ * publishes are still serialized with respect to each other, so that 
+ * synchronous subscribers are never invoked concurrently. Applications which
+ * have thread safe subscribers can switch to lock free publishing by calling
+ * {@link #setLockFreePublish(boolean)}.
+ * <p>
+ * Besides integer event types and ranges, subscribers can register for
+ * hierarchical topics such as <code>orders.equity.filled</code>, using the
+ * <code>*</code> and <code>#</code> wildcards. See 
+ * {@link #addSubscriberForTopics(EventSubscriber, boolean, String...)}.
+ * <p>
+ * Dispatch metrics - publish counts, handler and queue wait times - can be
+ * collected by calling {@link #setMetricsEnabled(boolean)}. 
  *
  * @author Sandeep Deb [deb.sandeep@gmail.com]
  */
@@ -25,7 +50,10 @@ public class EventBus {
     
     public static final int ALL_EVENTS = 0xCAFEBABE ;
     
-    private static class EventRange {
+    /** The event type of the events published on a topic. */
+    public static final int TOPIC_EVENT = 0xCAFED00D ;
+    
+    static class EventRange {
         
         private int lowerBoundEventId ;
         private int upperBoundEventId ;
@@ -40,13 +68,34 @@ public class EventBus {
                    ( eventId <= upperBoundEventId ) ;
         }
         
+        int getLowerBound() {
+            return this.lowerBoundEventId ;
+        }
+        
+        int getUpperBound() {
+            return this.upperBoundEventId ;
+        }
+        
         @Override
         public boolean equals( Object o ) {
             
+            if( !( o instanceof EventRange ) ) {
+                return false ;
+            }
             EventRange r = ( EventRange )o ;
             return ( r.lowerBoundEventId == lowerBoundEventId ) &&
                     ( r.upperBoundEventId == upperBoundEventId ) ;
         }
+        
+        @Override
+        public int hashCode() {
+            return 31 * lowerBoundEventId + upperBoundEventId ;
+        }
+        
+        @Override
+        public String toString() {
+            return "[" + lowerBoundEventId + ", " + upperBoundEventId + "]" ;
+        }
     }
 
     private Map<Integer, List<EventSubscriber>> eventSubscriberMap =
@@ -55,8 +104,34 @@ public class EventBus {
     private Map<EventRange, List<EventSubscriber>> eventRangeSubscriberMap = 
              new HashMap<EventBus.EventRange, List<EventSubscriber>>() ;
     
+    private Map<String, List<EventSubscriber>> topicSubscriberMap = 
+             new HashMap<String, List<EventSubscriber>>() ;
+    
+    /** Immutable snapshot of the registrations, rebuilt on every change. */
+    private volatile DispatchTable dispatchTable = DispatchTable.EMPTY ;
+    
+    private volatile boolean lockFreePublish = false ;
+    
+    /** Provides the threads for the subsequent asynchronous registrations. */
+    private AsyncDispatcher asyncDispatcher = AsyncDispatcher.dedicatedThreads() ;
+    
+    private final Object publishLock = new Object() ;
+    
+    /** The journal of the published events, null if not journaled. */
+    private volatile EventJournal journal = null ;
     
-    private boolean isSubscriberPresent( List<EventSubscriber> subscribers, 
+    /** Set once the bus is shut down, after which publishes are rejected. */
+    private volatile boolean shutdown = false ;
+    
+    /** The dispatch metrics, null if metrics collection is disabled. */
+    private volatile EventBusMetrics metrics = null ;
+    
+    /** The asynchronous proxies referred to by the current registrations. */
+    private Set<AsyncEventDispatchProxy> activeProxies = 
+            Collections.newSetFromMap( 
+                    new IdentityHashMap<AsyncEventDispatchProxy, Boolean>() ) ;
+    
+    static boolean isSubscriberPresent( List<EventSubscriber> subscribers, 
                                          EventSubscriber subscriber ) {
         
         for( EventSubscriber aSubscriberInList : subscribers ) {
@@ -74,8 +149,9 @@ public class EventBus {
         return false ;
     }
     
-    private void addSubscriberToEventMap( 
-            EventSubscriber subscriber, boolean asyncDispatch, int event ) {
+    private void addSubscriberToEventMap( EventSubscriber subscriber, 
+                                          EventSubscriber registrant, 
+                                          int event ) {
      
          List<EventSubscriber> subscribers = null ;
          
@@ -84,40 +160,82 @@ public class EventBus {
              subscribers = new ArrayList<EventSubscriber>() ;
              eventSubscriberMap.put( event, subscribers ) ;
          }
-         
-         if( !isSubscriberPresent( subscribers, subscriber ) ) {
-             if( asyncDispatch ) {
-                 subscribers.add( new AsyncEventDispatchProxy( subscriber ) ) ;
-             }
-             else {
-                 subscribers.add( subscriber ) ;
-             }
-         }
+         addSubscriberToList( subscribers, subscriber, registrant ) ;
      }
     
+    /**
+     * Adds the registrant to the list if the subscriber is not already
+     * present in it. The registrant is either the subscriber itself or the 
+     * asynchronous proxy wrapping the subscriber.
+     */
+    private void addSubscriberToList( List<EventSubscriber> subscribers,
+                                      EventSubscriber subscriber, 
+                                      EventSubscriber registrant ) {
+        
+        if( !isSubscriberPresent( subscribers, subscriber ) ) {
+            subscribers.add( registrant ) ;
+        }
+    }
+    
+    /**
+     * Returns the registrant to be placed in the subscriber lists for a 
+     * registration. A single asynchronous proxy is shared by all the event 
+     * types of a registration.
+     */
+    private EventSubscriber createRegistrant( EventSubscriber subscriber,
+                                              AsyncDispatchPolicy policy ) {
+        if( policy == null ) {
+            return subscriber ;
+        }
+        AsyncEventDispatchProxy proxy = null ;
+        proxy = policy.createProxy( subscriber, asyncDispatcher ) ;
+        if( metrics != null ) {
+            proxy.setMetrics( metrics.metricsFor( subscriber ) ) ;
+        }
+        return proxy ;
+    }
+    
     private void removeSubscriberFromEventMap(
                                        EventSubscriber subscriber, int event ) {
         
-        List<EventSubscriber> subscribers   = null ;
-        EventSubscriber       regSubscriber = null ;
-        AsyncEventDispatchProxy asyncProxy  = null ;
-        
-        subscribers = eventSubscriberMap.get( event ) ;
+        List<EventSubscriber> subscribers = eventSubscriberMap.get( event ) ;
         if( subscribers != null ) {
-            for( Iterator<EventSubscriber> esIter = subscribers.iterator(); 
-                 esIter.hasNext(); ) {
-                
-                regSubscriber = esIter.next() ;
-                if( regSubscriber.equals( subscriber ) ) {
-                    esIter.remove() ;
-                    if( regSubscriber instanceof AsyncEventDispatchProxy ) {
-                        asyncProxy = ( AsyncEventDispatchProxy )regSubscriber ;
-                        asyncProxy.stop() ;
-                    }
+            removeSubscriberFromList( subscribers, subscriber ) ;
+        }
+    }
+    
+    /**
+     * Removes the subscriber from all the range registrations. If an event 
+     * id is specified, only the ranges containing the event id are affected.
+     */
+    private void removeSubscriberFromRangeMap( EventSubscriber subscriber, 
+                                               Integer eventId ) {
+        
+        for( Iterator<Entry<EventRange, List<EventSubscriber>>> entryIter = 
+                         eventRangeSubscriberMap.entrySet().iterator() ; 
+             entryIter.hasNext() ; ) {
+            
+            Entry<EventRange, List<EventSubscriber>> entry = entryIter.next() ;
+            if( eventId == null || entry.getKey().containsEventId( eventId ) ) {
+                removeSubscriberFromList( entry.getValue(), subscriber ) ;
+                if( entry.getValue().isEmpty() ) {
+                    entryIter.remove() ;
                 }
             }
         }
     }
+    
+    private void removeSubscriberFromList( List<EventSubscriber> subscribers,
+                                           EventSubscriber subscriber ) {
+        
+        for( Iterator<EventSubscriber> esIter = subscribers.iterator(); 
+             esIter.hasNext(); ) {
+            
+            if( esIter.next().equals( subscriber ) ) {
+                esIter.remove() ;
+            }
+        }
+    }
 
     /**
      * Returns a list of all registered events for the given subscriber. Note 
@@ -153,35 +271,163 @@ public class EventBus {
         return registeredEventRanges ;
     }
     
-    public synchronized List<EventSubscriber> getSubscribersForEvent( int event ) {
+    /** Returns the topic patterns for which the subscriber is registered. */
+    public synchronized List<String> getRegisteredTopicsForSubscriber(
+                                                EventSubscriber subscriber ) {
         
-        List<EventSubscriber> subscribers = new ArrayList<EventSubscriber>() ;
-        if( eventSubscriberMap.containsKey( event ) ) {
-            subscribers.addAll( eventSubscriberMap.get( event ) ) ;
+        List<String> registeredTopics = new ArrayList<String>() ;
+        for( Map.Entry<String, List<EventSubscriber>> entry : 
+             topicSubscriberMap.entrySet() ) {
+            
+            if( isSubscriberPresent( entry.getValue(), subscriber ) ) {
+                registeredTopics.add( entry.getKey() ) ;
+            }
         }
+        return registeredTopics ;
+    }
+    
+    /**
+     * Returns the subscribers which will be notified when the given event is
+     * published. The returned list is a copy and can be freely modified by the
+     * caller.
+     */
+    public List<EventSubscriber> getSubscribersForEvent( int event ) {
+        return new ArrayList<EventSubscriber>( 
+                       Arrays.asList( dispatchTable.getSubscribers( event ) ) ) ;
+    }
+    
+    /**
+     * Returns the subscribers which will be notified when an event is 
+     * published on the given topic. The returned list is a copy and can be
+     * freely modified by the caller.
+     */
+    public List<EventSubscriber> getSubscribersForTopic( String topic ) {
+        return new ArrayList<EventSubscriber>( 
+                       Arrays.asList( dispatchTable.getSubscribers( topic ) ) ) ;
+    }
+    
+    /**
+     * Rebuilds the dispatch table from the current registrations and publishes
+     * it for the subsequent publishes. Should be called with the bus monitor 
+     * held, after every change to the registrations.
+     */
+    private void rebuildDispatchTable() {
+        this.dispatchTable = DispatchTable.build( eventSubscriberMap, 
+                                                  eventRangeSubscriberMap,
+                                                  topicSubscriberMap ) ;
+        stopOrphanedProxies() ;
+    }
+    
+    /**
+     * Stops the asynchronous proxies which are no longer referred to by any
+     * registration. A proxy is shared across the event types of a 
+     * registration and hence can be stopped only when it has been removed
+     * from all of them.
+     */
+    private void stopOrphanedProxies() {
         
-        List<EventSubscriber> allEventSubscribers = eventSubscriberMap.get( ALL_EVENTS ) ;
-        if( allEventSubscribers != null ) {
-            for( EventSubscriber anAllEvtSubscriber : allEventSubscribers ) {
-                if( !isSubscriberPresent( subscribers, anAllEvtSubscriber ) ) {
-                    subscribers.add( anAllEvtSubscriber ) ;
-                }
+        Set<AsyncEventDispatchProxy> proxies = null ;
+        proxies = Collections.newSetFromMap( 
+                      new IdentityHashMap<AsyncEventDispatchProxy, Boolean>() ) ;
+        
+        collectProxies( eventSubscriberMap.values(), proxies ) ;
+        collectProxies( eventRangeSubscriberMap.values(), proxies ) ;
+        collectProxies( topicSubscriberMap.values(), proxies ) ;
+        
+        for( AsyncEventDispatchProxy proxy : activeProxies ) {
+            if( !proxies.contains( proxy ) ) {
+                proxy.stop() ;
             }
         }
+        activeProxies = proxies ;
+    }
+    
+    private void collectProxies( Iterable<List<EventSubscriber>> subscriberLists,
+                                 Set<AsyncEventDispatchProxy> proxies ) {
         
-        for( Map.Entry<EventRange, List<EventSubscriber>> entry : 
-            eventRangeSubscriberMap.entrySet() ) {
-            
-            if( entry.getKey().containsEventId( event ) ) {
-                for( EventSubscriber aRangeSubscriber : entry.getValue() ) {
-                    if( !isSubscriberPresent( subscribers, aRangeSubscriber ) ) {
-                        subscribers.add( aRangeSubscriber ) ;
-                    }
+        for( List<EventSubscriber> subscribers : subscriberLists ) {
+            for( EventSubscriber subscriber : subscribers ) {
+                if( subscriber instanceof AsyncEventDispatchProxy ) {
+                    proxies.add( ( AsyncEventDispatchProxy )subscriber ) ;
                 }
             }
         }
+    }
+    
+    /**
+     * Switches between serialized and lock free publishing. In the default 
+     * serialized mode, at most one publish is in progress at any time. In 
+     * the lock free mode, concurrent publishers do not wait on each other and
+     * hence synchronous subscribers can be invoked concurrently from multiple
+     * publishing threads.
+     */
+    public void setLockFreePublish( boolean lockFreePublish ) {
+        this.lockFreePublish = lockFreePublish ;
+    }
+    
+    public boolean isLockFreePublish() {
+        return this.lockFreePublish ;
+    }
+    
+    /**
+     * Sets the strategy providing the threads on which events are dispatched
+     * to asynchronous subscribers. The dispatcher applies to the asynchronous
+     * registrations made after this call; existing registrations continue 
+     * with the dispatcher they were registered with. By default, each 
+     * asynchronous registration gets a dedicated daemon thread.
+     * 
+     * @see AsyncDispatcher
+     */
+    public synchronized void setAsyncDispatcher( AsyncDispatcher dispatcher ) {
+        this.asyncDispatcher = dispatcher ;
+    }
+    
+    /**
+     * Enables or disables the collection of dispatch metrics. Enabling the 
+     * metrics starts a fresh set of metrics; disabling them discards the 
+     * collected metrics and unregisters their MBean, if registered. Metrics
+     * enabled afterwards have to be registered afresh. When disabled, the 
+     * publishing overhead is a single null check per publish and subscriber.
+     * 
+     * @see EventBusMetrics
+     */
+    public synchronized void setMetricsEnabled( boolean enabled ) {
+        
+        if( enabled == ( this.metrics != null ) ) {
+            return ;
+        }
         
-        return subscribers ;
+        EventBusMetrics oldMetrics = this.metrics ;
+        EventBusMetrics newMetrics = enabled ? new EventBusMetrics() : null ;
+        for( AsyncEventDispatchProxy proxy : activeProxies ) {
+            proxy.setMetrics( enabled ? 
+                              newMetrics.metricsFor( proxy.getSubscriber() ) : 
+                              null ) ;
+        }
+        this.metrics = newMetrics ;
+        
+        if( oldMetrics != null ) {
+            try {
+                // A registered MBean would otherwise report frozen values
+                oldMetrics.unregisterMBean() ;
+            }
+            catch( JMException e ) {
+                logger.warn( "Could not unregister the metrics MBean", e ) ;
+            }
+        }
+    }
+    
+    public boolean isMetricsEnabled() {
+        return this.metrics != null ;
+    }
+    
+    /**
+     * Returns the live dispatch metrics of this bus, or null if the metrics
+     * are not enabled. Use {@link EventBusMetrics#snapshot()} for a copy 
+     * which doesn't change with the subsequent publishes.
+     */
+    public EventBusMetrics getMetrics() {
+        return this.metrics ;
     }
     
     /**
@@ -204,31 +450,189 @@ public class EventBus {
                                             final boolean asyncDispatch,
                                             final int... eventTypes ) {
 
+        addSubscriberForEventTypes( subscriber, 
+                                    asyncDispatch ? AsyncDispatchPolicy.UNBOUNDED : null, 
+                                    eventTypes ) ;
+    }
+    
+    /**
+     * Register a subscriber with a variable number of interested event types,
+     * specifying the queueing policy of the subscriber.
+     *
+     * @param subscriber The subscriber instance to register.
+     * 
+     * @param asyncPolicy The capacity and overflow policy of the queue which
+     *        holds the events for asynchronous dispatch to this subscriber. 
+     *        If null, the events are dispatched synchronously.
+     *
+     * @param eventTypes The interested event types for which this subscriber
+     *        will be notified by the bus. If the event types is null,
+     *        this subscriber will be notified on all the events.
+     */
+    public synchronized void addSubscriberForEventTypes( 
+                                            final EventSubscriber subscriber,
+                                            final AsyncDispatchPolicy asyncPolicy,
+                                            final int... eventTypes ) {
+        
+        EventSubscriber registrant = createRegistrant( subscriber, asyncPolicy ) ;
+        
         if( eventTypes == null || eventTypes.length == 0 ) {
-            addSubscriberToEventMap( subscriber, asyncDispatch, ALL_EVENTS ) ;
+            addSubscriberToEventMap( subscriber, registrant, ALL_EVENTS ) ;
         }
         else {
             for( final int type : eventTypes ) {
-                addSubscriberToEventMap( subscriber, asyncDispatch, type ) ;
+                addSubscriberToEventMap( subscriber, registrant, type ) ;
             }
         }
+        rebuildDispatchTable() ;
     }
     
+    /**
+     * Register a subscriber for all the event ids lying in the given range,
+     * both bounds inclusive. Range registrations are resolved through an 
+     * interval index, so the cost of publishing grows logarithmically with 
+     * the number of registered ranges.
+     *
+     * @param subscriber The subscriber instance to register.
+     * 
+     * @param asyncDispatch A boolean flag indicating if the subscriber prefers
+     *        to receive the events in the same thread as the publisher or
+     *        asynchronously.
+     *
+     * @param lowerRangeEventId The lower bound of the range, inclusive.
+     * 
+     * @param upperRangeEventId The upper bound of the range, inclusive.
+     */
     public synchronized void addSubscriberForEventRange( 
                                             final EventSubscriber subscriber,
                                             final boolean asyncDispatch,
                                             final int lowerRangeEventId,
                                             final int upperRangeEventId ) {
         
+        addSubscriberForEventRange( subscriber, 
+                                    asyncDispatch ? AsyncDispatchPolicy.UNBOUNDED : null, 
+                                    lowerRangeEventId, upperRangeEventId ) ;
+    }
+    
+    /**
+     * Register a subscriber for all the event ids lying in the given range,
+     * specifying the queueing policy of the subscriber. If the policy is 
+     * null, the events are dispatched synchronously.
+     */
+    public synchronized void addSubscriberForEventRange( 
+                                            final EventSubscriber subscriber,
+                                            final AsyncDispatchPolicy asyncPolicy,
+                                            final int lowerRangeEventId,
+                                            final int upperRangeEventId ) {
+        
         EventRange range = new EventRange( lowerRangeEventId, upperRangeEventId ) ;
-        if( eventRangeSubscriberMap.containsKey( range ) ) {
-            eventRangeSubscriberMap.get( range ).add( subscriber ) ;
-        }
-        else {
-            List<EventSubscriber> subscribers = new ArrayList<EventSubscriber>() ;
-            subscribers.add( subscriber ) ;
+        List<EventSubscriber> subscribers = eventRangeSubscriberMap.get( range ) ;
+        if( subscribers == null ) {
+            subscribers = new ArrayList<EventSubscriber>() ;
             eventRangeSubscriberMap.put( range, subscribers ) ;
         }
+        addSubscriberToList( subscribers, subscriber, 
+                             createRegistrant( subscriber, asyncPolicy ) ) ;
+        rebuildDispatchTable() ;
+    }
+    
+    /**
+     * Returns a subscriber which dispatches the events to the {@link Subscribe}
+     * methods of the given target, based on the class of the event value.
+     * The returned subscriber can be used with any of the registration 
+     * methods. Subscribers returned for the same target are equal, hence the
+     * target can be de-registered through a subscriber obtained afresh.
+     * <p>
+     * The subscribe methods of a class are discovered once and bound as
+     * method handles, so dispatching involves no reflection.
+     * 
+     * @throws IllegalArgumentException If the target has no public subscribe
+     *         methods or a subscribe method has an invalid signature.
+     */
+    public static EventSubscriber asSubscriber( final Object target ) {
+        return new AnnotatedSubscriber( target ) ;
+    }
+    
+    /**
+     * Registers the {@link Subscribe} methods of the target for the given
+     * event types. This is a shorthand for registering 
+     * {@link #asSubscriber(Object)} with 
+     * {@link #addSubscriberForEventTypes(EventSubscriber, boolean, int...)}.
+     */
+    public synchronized void addAnnotatedSubscriber( final Object target,
+                                                     final boolean asyncDispatch,
+                                                     final int... eventTypes ) {
+        addSubscriberForEventTypes( asSubscriber( target ), asyncDispatch, 
+                                    eventTypes ) ;
+    }
+    
+    /**
+     * Removes the registrations of the target for the given event types, or
+     * all the registrations of the target if no types are given.
+     */
+    public synchronized void removeAnnotatedSubscriber( final Object target,
+                                                        final int... eventTypes ) {
+        removeSubscriber( asSubscriber( target ), eventTypes ) ;
+    }
+    
+    /**
+     * Register a subscriber for events published on topics matching any of
+     * the given patterns. Topics are hierarchical names with dot separated 
+     * segments. A pattern segment can be a <code>*</code>, which matches 
+     * exactly one segment, or a <code>#</code>, which matches zero or more 
+     * segments. For example <code>orders.*.filled</code> matches 
+     * <code>orders.equity.filled</code> and <code>orders.#</code> matches all
+     * the topics starting with <code>orders</code>.
+     * <p>
+     * Topic subscribers are notified only of the events published through
+     * {@link #publishEvent(String, Object)}, with an event type of
+     * {@link #TOPIC_EVENT}.
+     *
+     * @param subscriber The subscriber instance to register.
+     * 
+     * @param asyncDispatch A boolean flag indicating if the subscriber prefers
+     *        to receive the events in the same thread as the publisher or
+     *        asynchronously.
+     *
+     * @param topicPatterns The topic patterns of interest.
+     * 
+     * @throws IllegalArgumentException If a pattern has an empty segment or
+     *         a wildcard which is not a complete segment.
+     */
+    public synchronized void addSubscriberForTopics( 
+                                            final EventSubscriber subscriber,
+                                            final boolean asyncDispatch,
+                                            final String... topicPatterns ) {
+        
+        addSubscriberForTopics( subscriber, 
+                                asyncDispatch ? AsyncDispatchPolicy.UNBOUNDED : null, 
+                                topicPatterns ) ;
+    }
+    
+    /**
+     * Register a subscriber for the given topic patterns, specifying the 
+     * queueing policy of the subscriber. If the policy is null, the events
+     * are dispatched synchronously.
+     */
+    public synchronized void addSubscriberForTopics( 
+                                            final EventSubscriber subscriber,
+                                            final AsyncDispatchPolicy asyncPolicy,
+                                            final String... topicPatterns ) {
+        
+        for( String pattern : topicPatterns ) {
+            TopicTrie.validatePattern( pattern ) ;
+        }
+        
+        EventSubscriber registrant = createRegistrant( subscriber, asyncPolicy ) ;
+        for( String pattern : topicPatterns ) {
+            List<EventSubscriber> subscribers = topicSubscriberMap.get( pattern ) ;
+            if( subscribers == null ) {
+                subscribers = new ArrayList<EventSubscriber>() ;
+                topicSubscriberMap.put( pattern, subscribers ) ;
+            }
+            addSubscriberToList( subscribers, subscriber, registrant ) ;
+        }
+        rebuildDispatchTable() ;
     }
 
     /**
@@ -247,66 +651,166 @@ public class EventBus {
                                               int... eventTypes ) {
         
         if( eventTypes == null || eventTypes.length == 0 ) {
-            removeSubscriberFromEventMap( subscriber, ALL_EVENTS ) ;
             for( Integer eventId : eventSubscriberMap.keySet() ) {
                 removeSubscriberFromEventMap( subscriber, eventId ) ;
-                
-                for( Entry<EventRange, List<EventSubscriber>> entry : 
-                     eventRangeSubscriberMap.entrySet() ) {
-                    
-                    if( isSubscriberPresent( entry.getValue(), subscriber ) ) {
-                        entry.getValue().remove( subscriber ) ;
-                    }
-                }
             }
+            removeSubscriberFromRangeMap( subscriber, null ) ;
+            removeSubscriberFromTopicMap( subscriber, topicSubscriberMap.keySet()
+                                   .toArray( new String[topicSubscriberMap.size()] ) ) ;
         }
         else {
             for( final int type : eventTypes ) {
                 removeSubscriberFromEventMap( subscriber, type ) ;
-                
-                for( Entry<EventRange, List<EventSubscriber>> entry : 
-                    eventRangeSubscriberMap.entrySet() ) {
-                   
-                   if( entry.getKey().containsEventId( type ) ) {
-                       if( isSubscriberPresent( entry.getValue(), subscriber ) ) {
-                           entry.getValue().remove( subscriber ) ;
-                       }
-                   }
-               }
+                removeSubscriberFromRangeMap( subscriber, type ) ;
             }
         }
+        rebuildDispatchTable() ;
     }
 
-    /** Removes all the subscribers and attempts to stop them gracefully. */
-    public synchronized void clear() {
-
-        AsyncEventDispatchProxy proxy = null ;
-
-        for( Map.Entry<Integer, List<EventSubscriber>> entry : 
-             eventSubscriberMap .entrySet() ) {
-            
-            for( EventSubscriber subscriber : entry.getValue() ) {
-
-                if( subscriber instanceof AsyncEventDispatchProxy ) {
-                    proxy = (AsyncEventDispatchProxy) subscriber ;
-                    proxy.stop() ;
+    /**
+     * Removes the subscriber from the given topic patterns. If no patterns 
+     * are specified, the subscriber is removed from all its topic 
+     * registrations. Event type and range registrations are not affected.
+     */
+    public synchronized void removeSubscriberFromTopics( 
+                                           final EventSubscriber subscriber,
+                                           String... topicPatterns ) {
+        
+        if( topicPatterns == null || topicPatterns.length == 0 ) {
+            topicPatterns = topicSubscriberMap.keySet().toArray( 
+                                      new String[topicSubscriberMap.size()] ) ;
+        }
+        removeSubscriberFromTopicMap( subscriber, topicPatterns ) ;
+        rebuildDispatchTable() ;
+    }
+    
+    private void removeSubscriberFromTopicMap( EventSubscriber subscriber,
+                                               String[] topicPatterns ) {
+        
+        for( String pattern : topicPatterns ) {
+            List<EventSubscriber> subscribers = topicSubscriberMap.get( pattern ) ;
+            if( subscribers != null ) {
+                removeSubscriberFromList( subscribers, subscriber ) ;
+                if( subscribers.isEmpty() ) {
+                    topicSubscriberMap.remove( pattern ) ;
                 }
             }
         }
+    }
 
-        for( Map.Entry<EventRange, List<EventSubscriber>> entry : 
-             eventRangeSubscriberMap.entrySet() ) {
-            
-            for( EventSubscriber subscriber : entry.getValue() ) {
-                if( subscriber instanceof AsyncEventDispatchProxy ) {
-                    proxy = (AsyncEventDispatchProxy) subscriber ;
-                    proxy.stop() ;
-                }
+    /**
+     * Shuts down the bus, giving the asynchronous subscribers up to the given
+     * time to deliver the events already queued for them. 
+     * <p>
+     * Publishes are rejected with an {@link IllegalStateException} from the
+     * time this method is called, and publishes in progress are waited for.
+     * The asynchronous queues then drain in parallel on their dispatch 
+     * threads till they are empty and the subscribers have handled the last
+     * of their events, or the timeout expires. Finally all the subscribers 
+     * are removed and stopped, dropping the events which could not be 
+     * delivered in time. The {@link AsyncDispatcher} is not shut down, as it 
+     * can be shared with other buses.
+     * <p>
+     * Note that with lock free publishing, a publish racing with the shutdown
+     * can queue its events after the drain has completed, in which case they 
+     * are counted as undelivered.
+     *
+     * @return The number of events which were queued or being dispatched to
+     *         the asynchronous subscribers when they were stopped. Zero if
+     *         all the published events were delivered.
+     */
+    public long shutdown( Duration timeout ) {
+        
+        this.shutdown = true ;
+        synchronized( publishLock ) {
+            // Waits for the serialized publish in progress, if any
+        }
+        
+        List<AsyncEventDispatchProxy> proxies = null ;
+        synchronized( this ) {
+            proxies = new ArrayList<AsyncEventDispatchProxy>( activeProxies ) ;
+        }
+        
+        long deadline = System.nanoTime() + timeout.toNanos() ;
+        try {
+            while( getNumPendingEvents( proxies ) > 0 && 
+                   deadline - System.nanoTime() > 0 ) {
+                Thread.sleep( 1 ) ;
             }
         }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt() ;
+        }
+        
+        long numUndelivered = 0 ;
+        synchronized( this ) {
+            numUndelivered = getNumPendingEvents( proxies ) ;
+            clear() ;
+        }
+        if( numUndelivered > 0 ) {
+            logger.warn( numUndelivered + " events were not delivered " + 
+                         "before the bus was shut down." ) ;
+        }
+        return numUndelivered ;
+    }
+    
+    private static long getNumPendingEvents( List<AsyncEventDispatchProxy> proxies ) {
+        
+        long numPending = 0 ;
+        for( AsyncEventDispatchProxy proxy : proxies ) {
+            numPending += proxy.getNumPendingEvents() ;
+        }
+        return numPending ;
+    }
+    
+    public boolean isShutdown() {
+        return this.shutdown ;
+    }
+    
+    private void checkNotShutdown() {
+        if( shutdown ) {
+            throw new IllegalStateException( "The event bus is shut down." ) ;
+        }
+    }
+    
+    /** Removes all the subscribers and attempts to stop them gracefully. */
+    public synchronized void clear() {
 
         eventSubscriberMap.clear() ;
         eventRangeSubscriberMap.clear() ;
+        topicSubscriberMap.clear() ;
+        rebuildDispatchTable() ;
+    }
+    
+    /**
+     * Returns the total number of events waiting in the asynchronous dispatch
+     * queues of the given subscriber, across all its registrations.
+     */
+    public synchronized int getQueueDepth( EventSubscriber subscriber ) {
+        
+        int depth = 0 ;
+        for( AsyncEventDispatchProxy proxy : activeProxies ) {
+            if( proxy.getSubscriber().equals( subscriber ) ) {
+                depth += proxy.getQueueDepth() ;
+            }
+        }
+        return depth ;
+    }
+    
+    /**
+     * Returns the total number of events dropped or conflated by the 
+     * asynchronous dispatch queues of the given subscriber, across all its
+     * registrations.
+     */
+    public synchronized long getNumDroppedEvents( EventSubscriber subscriber ) {
+        
+        long numDropped = 0 ;
+        for( AsyncEventDispatchProxy proxy : activeProxies ) {
+            if( proxy.getSubscriber().equals( subscriber ) ) {
+                numDropped += proxy.getNumDroppedEvents() ;
+            }
+        }
+        return numDropped ;
     }
     
     /**
@@ -314,19 +818,407 @@ public class EventBus {
      * type are notified of the event. The notification happens either
      * synchronously or asynchronously depending upon the way the subscriber
      * was added.
+     * <p>
+     * The subscribers are resolved from the current dispatch table without
+     * taking the bus monitor, hence registrations can change while publishes
+     * are in progress. 
      *
      * @param eventType The type of event being publishes.
      *
      * @param value The value associated with this event.
      */
-    public synchronized void publishEvent( final int eventType, final Object value ) {
+    public void publishEvent( final int eventType, final Object value ) {
         
-        Event event = new Event( eventType, value ) ;
-        List<EventSubscriber> subscribers = getSubscribersForEvent( eventType ) ;
-        if( !subscribers.isEmpty() ) {
-            for( EventSubscriber aSubscriber : subscribers ) {
+        EventJournal journal = this.journal ;
+        long offset = -1 ;
+        
+        if( lockFreePublish ) {
+            checkNotShutdown() ;
+            offset = append( journal, eventType, null, value ) ;
+            dispatch( eventType, value ) ;
+        }
+        else {
+            synchronized( publishLock ) {
+                checkNotShutdown() ;
+                offset = append( journal, eventType, null, value ) ;
+                dispatch( eventType, value ) ;
+            }
+        }
+        commit( journal, offset ) ;
+    }
+    
+    /**
+     * Journals all the events published subsequently, before they are 
+     * dispatched. Pass null to stop journaling. 
+     * <p>
+     * The durability level of the journal is applied after the event has been 
+     * dispatched and the publish lock released, so that concurrent publishers 
+     * waiting for the journal to sync share the syncs. Hence the subscribers 
+     * can see an event before it is durable, but the publish returns only 
+     * after it is. A failure to journal an event is thrown to the publisher 
+     * as an {@link IllegalStateException}.
+     * 
+     * @see EventJournal
+     */
+    public void setJournal( EventJournal journal ) {
+        this.journal = journal ;
+    }
+    
+    public EventJournal getJournal() {
+        return this.journal ;
+    }
+    
+    /** Appends the event to the journal, returns -1 if there is no journal. */
+    private long append( final EventJournal journal, final int eventType,
+                         final String topic, final Object value ) {
+        
+        if( journal == null ) {
+            return -1 ;
+        }
+        try {
+            return journal.append( eventType, topic, value, 
+                                   System.currentTimeMillis() ) ;
+        }
+        catch( IOException e ) {
+            throw new IllegalStateException( "Could not journal event", e ) ;
+        }
+    }
+    
+    private void commit( final EventJournal journal, final long offset ) {
+        
+        if( offset >= 0 ) {
+            try {
+                journal.commit( offset ) ;
+            }
+            catch( IOException e ) {
+                throw new IllegalStateException( "Could not sync journal", e ) ;
+            }
+        }
+    }
+    
+    /**
+     * Publishes an event on a topic. All the subscribers registered for a
+     * pattern matching the topic are notified of the event, each subscriber
+     * once even if several of its patterns match. The subscribers of a topic
+     * are resolved through a trie compiled from the patterns and cached per
+     * topic till the registrations change.
+     *
+     * @param topic The topic, a dot separated hierarchical name without
+     *        wildcards.
+     *
+     * @param value The value associated with this event.
+     *
+     * @throws IllegalArgumentException If the topic is null or has an empty
+     *         segment.
+     */
+    public void publishEvent( final String topic, final Object value ) {
+        
+        EventJournal journal = this.journal ;
+        long offset = -1 ;
+        
+        if( lockFreePublish ) {
+            checkNotShutdown() ;
+            offset = append( journal, TOPIC_EVENT, topic, value ) ;
+            dispatch( topic, value ) ;
+        }
+        else {
+            synchronized( publishLock ) {
+                checkNotShutdown() ;
+                offset = append( journal, TOPIC_EVENT, topic, value ) ;
+                dispatch( topic, value ) ;
+            }
+        }
+        commit( journal, offset ) ;
+    }
+    
+    /**
+     * Publishes an event and returns a future which completes once every 
+     * subscriber of the event, synchronous and asynchronous, is done with 
+     * it. The synchronous subscribers are notified before this method 
+     * returns, but unlike {@link #publishEvent(int, Object)} their failures
+     * are not thrown to the publisher. 
+     * <p>
+     * If any subscriber fails, or the event is dropped by the queue of an 
+     * asynchronous subscriber, the future completes exceptionally with an
+     * {@link EventDeliveryException} carrying the failure of each subscriber.
+     * The future completes on the thread of the last subscriber to finish, 
+     * hence stages doing substantial work should be chained with the async 
+     * variants of the {@link CompletableFuture} methods.
+     *
+     * @param eventType The type of event being published.
+     *
+     * @param value The value associated with this event.
+     */
+    public CompletableFuture<Void> publishEventAsync( final int eventType, 
+                                                      final Object value ) {
+        return publishTracked( eventType, null, value ) ;
+    }
+    
+    /**
+     * Publishes an event on a topic and returns a future which completes 
+     * once every subscriber of the event is done with it.
+     *
+     * @see #publishEventAsync(int, Object)
+     */
+    public CompletableFuture<Void> publishEventAsync( final String topic, 
+                                                      final Object value ) {
+        return publishTracked( TOPIC_EVENT, topic, value ) ;
+    }
+    
+    private CompletableFuture<Void> publishTracked( final int eventType,
+                                                    final String topic,
+                                                    final Object value ) {
+        
+        EventJournal    journal = this.journal ;
+        long            offset = -1 ;
+        DeliveryTracker tracker = null ;
+        
+        if( lockFreePublish ) {
+            checkNotShutdown() ;
+            offset = append( journal, eventType, topic, value ) ;
+            tracker = dispatchTracked( eventType, topic, value ) ;
+        }
+        else {
+            synchronized( publishLock ) {
+                checkNotShutdown() ;
+                offset = append( journal, eventType, topic, value ) ;
+                tracker = dispatchTracked( eventType, topic, value ) ;
+            }
+        }
+        commit( journal, offset ) ;
+        return tracker.getFuture() ;
+    }
+    
+    /**
+     * Dispatches an event which carries a tracker. The event is allocated for
+     * all the subscribers, since the queues which copy events carry the 
+     * tracker along with the event attributes.
+     */
+    private DeliveryTracker dispatchTracked( final int eventType, 
+                                             final String topic,
+                                             final Object value ) {
+        
+        EventBusMetrics metrics = this.metrics ;
+        if( metrics != null ) {
+            metrics.eventsPublished( eventType, 1 ) ;
+        }
+        
+        EventSubscriber[] subscribers = ( topic == null ) ? 
+                                dispatchTable.getSubscribers( eventType ) :
+                                dispatchTable.getSubscribers( topic ) ;
+        
+        Event event = new Event( eventType, topic, value, 
+                                 System.currentTimeMillis() ) ;
+        DeliveryTracker tracker = new DeliveryTracker( event, subscribers.length ) ;
+        event.setTracker( tracker ) ;
+        
+        for( EventSubscriber aSubscriber : subscribers ) {
+            if( aSubscriber instanceof AsyncEventDispatchProxy ) {
                 aSubscriber.handleEvent( event ) ;
             }
+            else {
+                try {
+                    dispatch( metrics, aSubscriber, event ) ;
+                    tracker.delivered( aSubscriber, null ) ;
+                }
+                catch( Throwable e ) {
+                    tracker.delivered( aSubscriber, e ) ;
+                }
+            }
+        }
+        return tracker ;
+    }
+    
+    private void dispatch( final String topic, final Object value ) {
+        
+        EventBusMetrics metrics = this.metrics ;
+        if( metrics != null ) {
+            metrics.eventsPublished( TOPIC_EVENT, 1 ) ;
+        }
+        
+        EventSubscriber[] subscribers = dispatchTable.getSubscribers( topic ) ;
+        if( subscribers.length > 0 ) {
+            dispatch( subscribers, metrics, TOPIC_EVENT, topic, value ) ;
+        }
+    }
+    
+    /**
+     * Publishes a batch of events of the given type, one for each value. The
+     * subscribers are resolved once for the whole batch. Each subscriber 
+     * receives the events in the order of the values. Subscribers which
+     * implement {@link BatchEventSubscriber} receive the batch in one call.
+     * <p>
+     * Note that unlike a sequence of {@link #publishEvent(int, Object)} calls,
+     * a subscriber receives all the events of the batch before the next 
+     * subscriber is notified.
+     *
+     * @param eventType The type of the events being published.
+     *
+     * @param values The values of the events, in the order of publishing.
+     */
+    public void publishEvents( final int eventType, final Collection<?> values ) {
+        
+        EventJournal journal = this.journal ;
+        long offset = -1 ;
+        
+        if( lockFreePublish ) {
+            checkNotShutdown() ;
+            offset = appendBatch( journal, eventType, values ) ;
+            dispatchBatch( eventType, values ) ;
+        }
+        else {
+            synchronized( publishLock ) {
+                checkNotShutdown() ;
+                offset = appendBatch( journal, eventType, values ) ;
+                dispatchBatch( eventType, values ) ;
+            }
+        }
+        commit( journal, offset ) ;
+    }
+    
+    /** Journals the batch, returns the offset of its last event. */
+    private long appendBatch( final EventJournal journal, final int eventType,
+                              final Collection<?> values ) {
+        long offset = -1 ;
+        for( Object value : values ) {
+            offset = append( journal, eventType, null, value ) ;
+        }
+        return offset ;
+    }
+    
+    private void dispatchBatch( final int eventType, final Collection<?> values ) {
+        
+        EventBusMetrics metrics = this.metrics ;
+        if( metrics != null ) {
+            metrics.eventsPublished( eventType, values.size() ) ;
+        }
+        
+        EventSubscriber[] subscribers = dispatchTable.getSubscribers( eventType ) ;
+        if( subscribers.length == 0 || values.isEmpty() ) {
+            return ;
+        }
+        
+        long        eventTime = System.currentTimeMillis() ;
+        List<Event> events = null ;
+        
+        for( EventSubscriber aSubscriber : subscribers ) {
+            if( aSubscriber instanceof AsyncEventDispatchProxy && 
+                ( ( AsyncEventDispatchProxy )aSubscriber ).copiesEvents() ) {
+                
+                AsyncEventDispatchProxy proxy = ( AsyncEventDispatchProxy )aSubscriber ;
+                for( Object value : values ) {
+                    proxy.handleEvent( eventType, null, value, eventTime ) ;
+                }
+                continue ;
+            }
+            
+            if( events == null ) {
+                events = new ArrayList<Event>( values.size() ) ;
+                for( Object value : values ) {
+                    events.add( new Event( eventType, value, eventTime ) ) ;
+                }
+                events = Collections.unmodifiableList( events ) ;
+            }
+            
+            // Proxies record their own metrics at the time of dispatch
+            if( metrics != null && 
+                !( aSubscriber instanceof AsyncEventDispatchProxy ) ) {
+                dispatchBatch( metrics, aSubscriber, events ) ;
+            }
+            else if( aSubscriber instanceof BatchEventSubscriber ) {
+                ( ( BatchEventSubscriber )aSubscriber ).handleEvents( events ) ;
+            }
+            else {
+                for( Event event : events ) {
+                    aSubscriber.handleEvent( event ) ;
+                }
+            }
+        }
+    }
+    
+    private void dispatchBatch( final EventBusMetrics metrics,
+                                final EventSubscriber subscriber,
+                                final List<Event> events ) {
+        
+        if( subscriber instanceof BatchEventSubscriber ) {
+            metrics.dispatchBatch( ( BatchEventSubscriber )subscriber, events ) ;
+        }
+        else {
+            for( Event event : events ) {
+                metrics.dispatch( subscriber, event ) ;
+            }
+        }
+    }
+    
+    private void dispatch( final int eventType, final Object value ) {
+        
+        EventBusMetrics metrics = this.metrics ;
+        if( metrics != null ) {
+            metrics.eventsPublished( eventType, 1 ) ;
+        }
+        
+        EventSubscriber[] subscribers = dispatchTable.getSubscribers( eventType ) ;
+        if( subscribers.length > 0 ) {
+            dispatch( subscribers, metrics, eventType, null, value ) ;
+        }
+    }
+    
+    /**
+     * Delivers an event to the resolved subscribers. The event is allocated 
+     * only if a subscriber needs it. Proxies backed by ring buffers copy the
+     * event attributes into their preallocated slots, and the reusable 
+     * subscribers share a carrier from the pool of the publishing thread.
+     */
+    private void dispatch( final EventSubscriber[] subscribers, 
+                           final EventBusMetrics metrics, final int eventType, 
+                           final String topic, final Object value ) {
+        
+        long             eventTime = System.currentTimeMillis() ;
+        Event            event = null ;
+        Event            carrier = null ;
+        EventCarrierPool carrierPool = null ;
+        
+        try {
+            for( EventSubscriber aSubscriber : subscribers ) {
+                if( aSubscriber instanceof AsyncEventDispatchProxy && 
+                    ( ( AsyncEventDispatchProxy )aSubscriber ).copiesEvents() ) {
+                    
+                    ( ( AsyncEventDispatchProxy )aSubscriber ).handleEvent( 
+                                          eventType, topic, value, eventTime ) ;
+                }
+                else if( aSubscriber instanceof ReusableEventSubscriber ) {
+                    if( carrier == null ) {
+                        carrierPool = EventCarrierPool.get() ;
+                        carrier = carrierPool.acquire( eventType, topic, value, 
+                                                       eventTime ) ;
+                    }
+                    dispatch( metrics, aSubscriber, carrier ) ;
+                }
+                else {
+                    if( event == null ) {
+                        event = new Event( eventType, topic, value, eventTime ) ;
+                    }
+                    dispatch( metrics, aSubscriber, event ) ;
+                }
+            }
+        }
+        finally {
+            if( carrier != null ) {
+                carrierPool.release() ;
+            }
+        }
+    }
+    
+    private void dispatch( final EventBusMetrics metrics, 
+                           final EventSubscriber subscriber, 
+                           final Event event ) {
+        
+        // Proxies record their own metrics at the time of dispatch
+        if( metrics == null || subscriber instanceof AsyncEventDispatchProxy ) {
+            subscriber.handleEvent( event ) ;
+        }
+        else {
+            metrics.dispatch( subscriber, event ) ;
         }
     }
 }
@@ -0,0 +1,206 @@
+package com.sandy.common.bus ;
+
+import java.lang.management.ManagementFactory ;
+import java.util.ArrayList ;
+import java.util.Collection ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.TreeMap ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.ConcurrentMap ;
+import java.util.concurrent.atomic.AtomicLong ;
+
+import javax.management.JMException ;
+import javax.management.MBeanServer ;
+import javax.management.ObjectName ;
+
+/**
+ * Dispatch metrics of an {@link EventBus} - the number of events published
+ * per event type and the {@link SubscriberMetrics} of each subscriber. 
+ * Metrics are collected only while enabled on the bus through
+ * {@link EventBus#setMetricsEnabled(boolean)}.
+ * <p>
+ * The metrics are live and keep changing as events are published. A 
+ * consistent, detached copy can be obtained through {@link #snapshot()}. The
+ * metrics can also be exposed as a JMX MBean by calling 
+ * {@link #registerMBean(String)}.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class EventBusMetrics implements EventBusMetricsMBean {
+
+    public static final String MBEAN_DOMAIN = "com.sandy.common.bus" ;
+
+    private final ConcurrentMap<Integer, AtomicLong> publishCounts =
+                                  new ConcurrentHashMap<Integer, AtomicLong>() ;
+
+    private final ConcurrentMap<EventSubscriber, SubscriberMetrics> subscriberMetrics =
+                   new ConcurrentHashMap<EventSubscriber, SubscriberMetrics>() ;
+
+    private ObjectName mbeanName = null ;
+
+    EventBusMetrics() {
+    }
+
+    void eventsPublished( int eventType, int numEvents ) {
+
+        AtomicLong count = publishCounts.get( eventType ) ;
+        if( count == null ) {
+            AtomicLong newCount = new AtomicLong() ;
+            count = publishCounts.putIfAbsent( eventType, newCount ) ;
+            if( count == null ) {
+                count = newCount ;
+            }
+        }
+        count.addAndGet( numEvents ) ;
+    }
+
+    /** Returns the metrics of the subscriber, creating them if required. */
+    SubscriberMetrics metricsFor( EventSubscriber subscriber ) {
+
+        SubscriberMetrics metrics = subscriberMetrics.get( subscriber ) ;
+        if( metrics == null ) {
+            SubscriberMetrics newMetrics = new SubscriberMetrics( subscriber ) ;
+            metrics = subscriberMetrics.putIfAbsent( subscriber, newMetrics ) ;
+            if( metrics == null ) {
+                metrics = newMetrics ;
+            }
+        }
+        return metrics ;
+    }
+
+    /**
+     * Delivers the event to a synchronous subscriber, recording the time 
+     * spent in the handler. A failure of the subscriber is counted and
+     * propagated to the publisher as before.
+     */
+    void dispatch( EventSubscriber subscriber, Event event ) {
+
+        SubscriberMetrics metrics = metricsFor( subscriber ) ;
+        long startTime = System.nanoTime() ;
+        try {
+            subscriber.handleEvent( event ) ;
+            metrics.recordHandled( 1, System.nanoTime() - startTime ) ;
+        }
+        catch( RuntimeException | Error e ) {
+            metrics.recordFailure( 1, System.nanoTime() - startTime ) ;
+            throw e ;
+        }
+    }
+
+    /** Delivers a batch of events to a synchronous batch subscriber. */
+    void dispatchBatch( BatchEventSubscriber subscriber, List<Event> events ) {
+
+        SubscriberMetrics metrics = metricsFor( subscriber ) ;
+        long startTime = System.nanoTime() ;
+        try {
+            subscriber.handleEvents( events ) ;
+            metrics.recordHandled( events.size(), System.nanoTime() - startTime ) ;
+        }
+        catch( RuntimeException | Error e ) {
+            metrics.recordFailure( events.size(), System.nanoTime() - startTime ) ;
+            throw e ;
+        }
+    }
+
+    /** Returns the number of events published for the given event type. */
+    public long getNumPublished( int eventType ) {
+        AtomicLong count = publishCounts.get( eventType ) ;
+        return ( count == null ) ? 0 : count.get() ;
+    }
+
+    public long getNumPublished() {
+        long total = 0 ;
+        for( AtomicLong count : publishCounts.values() ) {
+            total += count.get() ;
+        }
+        return total ;
+    }
+
+    /**
+     * Returns the metrics of the given subscriber, or null if no event has
+     * been dispatched to the subscriber while the metrics were enabled.
+     */
+    public SubscriberMetrics getSubscriberMetrics( EventSubscriber subscriber ) {
+        return subscriberMetrics.get( subscriber ) ;
+    }
+
+    /** Returns the metrics of all the subscribers. */
+    public Collection<SubscriberMetrics> getAllSubscriberMetrics() {
+        return new ArrayList<SubscriberMetrics>( subscriberMetrics.values() ) ;
+    }
+
+    public String[] getPublishCounts() {
+
+        Map<Integer, Long> sortedCounts = new TreeMap<Integer, Long>() ;
+        for( Map.Entry<Integer, AtomicLong> entry : publishCounts.entrySet() ) {
+            sortedCounts.put( entry.getKey(), entry.getValue().get() ) ;
+        }
+
+        List<String> counts = new ArrayList<String>() ;
+        for( Map.Entry<Integer, Long> entry : sortedCounts.entrySet() ) {
+            counts.add( entry.getKey() + "=" + entry.getValue() ) ;
+        }
+        return counts.toArray( new String[counts.size()] ) ;
+    }
+
+    public String[] getSubscriberMetrics() {
+
+        List<String> stats = new ArrayList<String>() ;
+        for( SubscriberMetrics metrics : subscriberMetrics.values() ) {
+            stats.add( metrics.toString() ) ;
+        }
+        return stats.toArray( new String[stats.size()] ) ;
+    }
+
+    /**
+     * Returns a copy of the current metrics, which doesn't change with the
+     * subsequent publishes.
+     */
+    public EventBusMetrics snapshot() {
+
+        EventBusMetrics copy = new EventBusMetrics() ;
+        for( Map.Entry<Integer, AtomicLong> entry : publishCounts.entrySet() ) {
+            copy.publishCounts.put( entry.getKey(), 
+                                    new AtomicLong( entry.getValue().get() ) ) ;
+        }
+        for( Map.Entry<EventSubscriber, SubscriberMetrics> entry : 
+             subscriberMetrics.entrySet() ) {
+            copy.subscriberMetrics.put( entry.getKey(), entry.getValue().copy() ) ;
+        }
+        return copy ;
+    }
+
+    public void reset() {
+        for( AtomicLong count : publishCounts.values() ) {
+            count.set( 0 ) ;
+        }
+        for( SubscriberMetrics metrics : subscriberMetrics.values() ) {
+            metrics.reset() ;
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under the name
+     * <code>com.sandy.common.bus:type=EventBus,name=&lt;busName&gt;</code>.
+     * Buses are not singletons, hence the name has to be unique amongst the
+     * buses of the application.
+     */
+    public synchronized void registerMBean( String busName ) throws JMException {
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer() ;
+        ObjectName name = new ObjectName( MBEAN_DOMAIN + ":type=EventBus,name=" + 
+                                          ObjectName.quote( busName ) ) ;
+        server.registerMBean( this, name ) ;
+        this.mbeanName = name ;
+    }
+
+    /** Unregisters the MBean, if registered through {@link #registerMBean(String)} */
+    public synchronized void unregisterMBean() throws JMException {
+
+        if( this.mbeanName != null ) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( mbeanName ) ;
+            this.mbeanName = null ;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.sandy.common.bus ;
+
+/**
+ * The JMX management interface of {@link EventBusMetrics}.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public interface EventBusMetricsMBean {
+
+    /** The total number of events published on the bus. */
+    long getNumPublished() ;
+
+    /** The number of events published per event type, as "type=count". */
+    String[] getPublishCounts() ;
+
+    /** A one line summary of the dispatch metrics of each subscriber. */
+    String[] getSubscriberMetrics() ;
+
+    /** Resets all the counters and histograms. */
+    void reset() ;
+}
@@ -0,0 +1,58 @@
+package com.sandy.common.bus ;
+
+/**
+ * The per thread pool of the event carriers handed to the 
+ * {@link ReusableEventSubscriber}s. The carriers are used as a stack, so that
+ * a subscriber publishing from within its handler gets a carrier of its own
+ * without clobbering the one of the publish in progress.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+final class EventCarrierPool {
+
+    private static final ThreadLocal<EventCarrierPool> POOLS = 
+                                        new ThreadLocal<EventCarrierPool>() {
+        protected EventCarrierPool initialValue() {
+            return new EventCarrierPool() ;
+        }
+    } ;
+
+    private Event[] carriers = new Event[4] ;
+    private int depth = 0 ;
+
+    private EventCarrierPool() {
+        for( int i=0; i<carriers.length; i++ ) {
+            carriers[i] = new Event() ;
+        }
+    }
+
+    /** Returns the pool of the calling thread. */
+    static EventCarrierPool get() {
+        return POOLS.get() ;
+    }
+
+    /** 
+     * Returns a carrier with the given attributes. Every acquire should be
+     * followed by a {@link #release()} once the carrier has been delivered.
+     */
+    Event acquire( final int eventType, final String topic, 
+                   final Object value, final long eventTime ) {
+
+        if( depth == carriers.length ) {
+            Event[] newCarriers = new Event[ carriers.length * 2 ] ;
+            System.arraycopy( carriers, 0, newCarriers, 0, carriers.length ) ;
+            for( int i=carriers.length; i<newCarriers.length; i++ ) {
+                newCarriers[i] = new Event() ;
+            }
+            carriers = newCarriers ;
+        }
+        Event carrier = carriers[ depth++ ] ;
+        carrier.set( eventType, topic, value, eventTime ) ;
+        return carrier ;
+    }
+
+    /** Returns the last acquired carrier to the pool. */
+    void release() {
+        carriers[ --depth ].clear() ;
+    }
+}
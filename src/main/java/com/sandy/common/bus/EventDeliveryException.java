@@ -0,0 +1,44 @@
+package com.sandy.common.bus ;
+
+import java.util.Collections ;
+import java.util.Map ;
+
+/**
+ * Completes the future of an {@link EventBus#publishEventAsync(int, Object)}
+ * exceptionally if one or more subscribers failed to process the event. The
+ * failures are reported per subscriber. An event dropped by the dispatch 
+ * queue of an asynchronous subscriber, due to its overflow policy or because
+ * the subscriber was removed, is reported as a failure of that subscriber.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class EventDeliveryException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L ;
+
+    private final transient Event event ;
+    private final transient Map<EventSubscriber, Throwable> failures ;
+
+    EventDeliveryException( Event event, 
+                            Map<EventSubscriber, Throwable> failures ) {
+        
+        super( failures.size() + " subscriber(s) failed to process event of " + 
+               "type " + event.getEventType(), 
+               failures.values().iterator().next() ) ;
+        
+        this.event = event ;
+        this.failures = Collections.unmodifiableMap( failures ) ;
+    }
+
+    public Event getEvent() {
+        return this.event ;
+    }
+
+    /**
+     * Returns the failures keyed by the subscribers, in the order in which
+     * the subscribers failed.
+     */
+    public Map<EventSubscriber, Throwable> getFailures() {
+        return this.failures ;
+    }
+}
@@ -0,0 +1,507 @@
+package com.sandy.common.bus ;
+
+import java.io.File ;
+import java.io.FileFilter ;
+import java.io.IOException ;
+import java.io.RandomAccessFile ;
+import java.nio.BufferOverflowException ;
+import java.nio.ByteBuffer ;
+import java.nio.MappedByteBuffer ;
+import java.nio.channels.ClosedChannelException ;
+import java.nio.channels.FileChannel ;
+import java.nio.charset.Charset ;
+import java.util.Arrays ;
+import java.util.zip.CRC32 ;
+
+import org.apache.log4j.Logger ;
+
+/**
+ * An append only journal of the events published on an {@link EventBus},
+ * which lets subscribers replay the events after a restart. A journal is
+ * attached to a bus through {@link EventBus#setJournal(EventJournal)}, after
+ * which every event is journaled before it is dispatched.
+ * <p>
+ * Each event is assigned an offset, its position in the journal starting
+ * from zero. The journal is split into segment files named after the offset
+ * of their first event. A new segment is started when the current one grows
+ * beyond the segment size. Each record carries a checksum, so that a record
+ * torn by a crash is detected and discarded when the journal is reopened.
+ * <p>
+ * The durability levels trade throughput for the events which can be lost
+ * on a crash:
+ * <ul>
+ *   <li>{@link #BUFFERED} - Events are buffered in memory and written and
+ *       synced to disk by a background flusher every flush interval.</li>
+ *   <li>{@link #WRITE_THROUGH} - Events are written to the operating system
+ *       before the publish returns, surviving a crash of the process. The
+ *       background flusher syncs them to disk every flush interval.</li>
+ *   <li>{@link #SYNC} - Events are synced to disk before the publish
+ *       returns. Concurrent publishers share the syncs - a publisher waiting
+ *       for a sync finds its event covered by the sync of an earlier
+ *       publisher - so throughput grows with the number of publishers.</li>
+ * </ul>
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class EventJournal {
+
+    public static final Logger logger = Logger.getLogger( EventJournal.class ) ;
+
+    public static final int BUFFERED      = 0 ;
+    public static final int WRITE_THROUGH = 1 ;
+    public static final int SYNC          = 2 ;
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024 ;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10 ;
+
+    private static final String SEGMENT_SUFFIX = ".journal" ;
+
+    // Record layout. The length and checksum cover the rest of the record.
+    private static final int LENGTH_SIZE      = 4 ;
+    private static final int CHECKSUM_SIZE    = 4 ;
+    private static final int OFFSET_OFFSET    = 0 ;
+    private static final int TYPE_OFFSET      = 8 ;
+    private static final int TIME_OFFSET      = 12 ;
+    private static final int TOPIC_LEN_OFFSET = 20 ;
+    private static final int TOPIC_OFFSET     = 22 ;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024 ;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" ) ;
+
+    private final File directory ;
+    private final EventPayloadCodec codec ;
+    private final int durability ;
+    private final long segmentSize ;
+
+    private final CRC32 checksum = new CRC32() ;
+
+    /** Records not yet written to the current segment. */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect( WRITE_BUFFER_SIZE ) ;
+
+    /** Staging area in which a record is assembled, grown as required. */
+    private ByteBuffer recordBuffer = ByteBuffer.allocate( 1024 ) ;
+
+    private RandomAccessFile segmentFile = null ;
+    private FileChannel segment = null ;
+    private long segmentLength = 0 ;
+
+    /** The offset which will be assigned to the next event. */
+    private long nextOffset = 0 ;
+
+    /** Guards the syncs, letting a single thread sync on behalf of others. */
+    private final Object syncLock = new Object() ;
+
+    /** All the events before this offset have been synced to disk. */
+    private volatile long durableOffset = 0 ;
+
+    private volatile boolean closed = false ;
+    private Thread flusher = null ;
+
+    /**
+     * Opens the journal in the given directory with the default segment size
+     * and flush interval, creating the directory if required.
+     */
+    public EventJournal( File directory, EventPayloadCodec codec, int durability )
+        throws IOException {
+        this( directory, codec, durability, DEFAULT_SEGMENT_SIZE,
+              DEFAULT_FLUSH_INTERVAL_MILLIS ) ;
+    }
+
+    /**
+     * Opens the journal in the given directory, creating the directory if
+     * required. If the directory has segments from an earlier run, the new
+     * events are appended after the last intact event.
+     *
+     * @param directory The directory holding the segment files.
+     * @param codec The codec of the event values.
+     * @param durability One of {@link #BUFFERED}, {@link #WRITE_THROUGH} or
+     *        {@link #SYNC}.
+     * @param segmentSize The size beyond which a new segment is started.
+     * @param flushIntervalMillis The interval at which the background flusher
+     *        syncs the journal, not used for the {@link #SYNC} level.
+     */
+    public EventJournal( File directory, EventPayloadCodec codec, int durability,
+                         long segmentSize, long flushIntervalMillis )
+        throws IOException {
+
+        if( durability < BUFFERED || durability > SYNC ) {
+            throw new IllegalArgumentException( "Unknown durability " + durability ) ;
+        }
+        else if( segmentSize <= 0 || segmentSize > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException( "Invalid segment size " + segmentSize ) ;
+        }
+
+        this.directory = directory ;
+        this.codec = codec ;
+        this.durability = durability ;
+        this.segmentSize = segmentSize ;
+
+        if( !directory.isDirectory() && !directory.mkdirs() ) {
+            throw new IOException( "Could not create journal directory " + directory ) ;
+        }
+
+        recover() ;
+        this.durableOffset = nextOffset ;
+
+        if( durability != SYNC ) {
+            startFlusher( flushIntervalMillis ) ;
+        }
+    }
+
+    /**
+     * Opens the last segment, discarding any torn records at its end, and
+     * positions the journal after the last intact record.
+     */
+    private void recover() throws IOException {
+
+        File[] segments = listSegments() ;
+        if( segments.length == 0 ) {
+            openSegment( 0 ) ;
+            return ;
+        }
+
+        File last = segments[ segments.length - 1 ] ;
+        long baseOffset = parseBaseOffset( last ) ;
+        SegmentReader reader = new SegmentReader( last ) ;
+        long offset = baseOffset ;
+        while( reader.next() ) {
+            offset = reader.offset + 1 ;
+        }
+
+        this.segmentFile = new RandomAccessFile( last, "rw" ) ;
+        this.segment = segmentFile.getChannel() ;
+        if( reader.position < segment.size() ) {
+            logger.warn( "Discarding " + ( segment.size() - reader.position ) +
+                         " bytes of torn records at the end of " + last ) ;
+            segment.truncate( reader.position ) ;
+        }
+        this.segmentLength = reader.position ;
+        segment.position( segmentLength ) ;
+        this.nextOffset = offset ;
+    }
+
+    private void openSegment( long baseOffset ) throws IOException {
+
+        File file = new File( directory, String.format( "%020d%s", baseOffset,
+                                                        SEGMENT_SUFFIX ) ) ;
+        this.segmentFile = new RandomAccessFile( file, "rw" ) ;
+        this.segment = segmentFile.getChannel() ;
+        this.segmentLength = 0 ;
+    }
+
+    private File[] listSegments() {
+
+        File[] segments = directory.listFiles( new FileFilter() {
+            public boolean accept( File file ) {
+                return file.getName().endsWith( SEGMENT_SUFFIX ) ;
+            }
+        } ) ;
+        if( segments == null ) {
+            return new File[0] ;
+        }
+        // Zero padded names sort in the order of the offsets
+        Arrays.sort( segments ) ;
+        return segments ;
+    }
+
+    private static long parseBaseOffset( File segment ) {
+        String name = segment.getName() ;
+        return Long.parseLong( name.substring( 0, name.length() - SEGMENT_SUFFIX.length() ) ) ;
+    }
+
+    private void startFlusher( final long flushIntervalMillis ) {
+
+        flusher = new Thread( new Runnable() {
+            public void run() {
+                while( !closed ) {
+                    try {
+                        Thread.sleep( flushIntervalMillis ) ;
+                        sync() ;
+                    }
+                    catch( InterruptedException e ) {
+                        // Interrupted on close, the loop checks the closed flag
+                    }
+                    catch( IOException e ) {
+                        logger.error( "Background flush of journal failed", e ) ;
+                    }
+                }
+            }
+        }, "EventJournal-Flusher" ) ;
+        flusher.setDaemon( true ) ;
+        flusher.start() ;
+    }
+
+    /**
+     * Appends an event to the journal and returns its offset. Depending on
+     * the durability level, the event may still be in memory when this
+     * method returns; call {@link #commit(long)} to apply the durability
+     * level to the appended events.
+     */
+    public synchronized long append( int eventType, String topic, Object value,
+                                     long eventTime ) throws IOException {
+
+        if( closed ) {
+            throw new ClosedChannelException() ;
+        }
+
+        ByteBuffer record = encode( eventType, topic, value, eventTime ) ;
+        if( record.remaining() > writeBuffer.remaining() ) {
+            flushBuffer() ;
+        }
+
+        // The offset is advanced before the record is written, so that a
+        // segment rolled by the write starts after this record
+        long offset = nextOffset++ ;
+        if( record.remaining() > writeBuffer.capacity() ) {
+            writeFully( record ) ;
+        }
+        else {
+            writeBuffer.put( record ) ;
+        }
+        return offset ;
+    }
+
+    /**
+     * Applies the durability level to the events appended up to and
+     * including the given offset. For the {@link #SYNC} level, this waits
+     * till the events are synced to disk.
+     */
+    public void commit( long offset ) throws IOException {
+
+        if( durability == WRITE_THROUGH ) {
+            synchronized( this ) {
+                flushBuffer() ;
+            }
+        }
+        else if( durability == SYNC && durableOffset <= offset ) {
+            synchronized( syncLock ) {
+                // A sync which completed while this thread was waiting for
+                // the lock has possibly covered the offset already
+                if( durableOffset <= offset ) {
+                    syncNow() ;
+                }
+            }
+        }
+    }
+
+    /** Writes the buffered events and syncs them to disk. */
+    public void sync() throws IOException {
+        synchronized( syncLock ) {
+            syncNow() ;
+        }
+    }
+
+    /** Should be called with the sync lock held. */
+    private void syncNow() throws IOException {
+
+        FileChannel channel ;
+        long syncedOffset ;
+        synchronized( this ) {
+            if( closed ) {
+                return ;
+            }
+            flushBuffer() ;
+            channel = this.segment ;
+            syncedOffset = this.nextOffset ;
+        }
+
+        // Appends continue while the sync is in progress
+        try {
+            channel.force( false ) ;
+        }
+        catch( ClosedChannelException e ) {
+            // The segment was rolled, which syncs it before closing
+        }
+        durableOffset = syncedOffset ;
+    }
+
+    private ByteBuffer encode( int eventType, String topic, Object value,
+                               long eventTime ) {
+
+        byte[] topicBytes = ( topic == null ) ? null : topic.getBytes( UTF8 ) ;
+        while( true ) {
+            ByteBuffer record = recordBuffer ;
+            record.clear() ;
+            try {
+                int start = LENGTH_SIZE + CHECKSUM_SIZE ;
+                record.position( start ) ;
+                record.putLong( nextOffset ) ;
+                record.putInt( eventType ) ;
+                record.putLong( eventTime ) ;
+                record.putShort( ( short )( ( topicBytes == null ) ? -1 : topicBytes.length ) ) ;
+                if( topicBytes != null ) {
+                    record.put( topicBytes ) ;
+                }
+                codec.encode( value, record ) ;
+
+                checksum.reset() ;
+                checksum.update( record.array(), start, record.position() - start ) ;
+                record.putInt( 0, record.position() - LENGTH_SIZE ) ;
+                record.putInt( LENGTH_SIZE, ( int )checksum.getValue() ) ;
+                record.flip() ;
+                return record ;
+            }
+            catch( BufferOverflowException e ) {
+                recordBuffer = ByteBuffer.allocate( recordBuffer.capacity() * 2 ) ;
+            }
+        }
+    }
+
+    /** Writes the buffered records to the current segment. */
+    private void flushBuffer() throws IOException {
+
+        if( writeBuffer.position() > 0 ) {
+            writeBuffer.flip() ;
+            writeFully( writeBuffer ) ;
+            writeBuffer.clear() ;
+        }
+    }
+
+    private void writeFully( ByteBuffer buffer ) throws IOException {
+
+        segmentLength += buffer.remaining() ;
+        while( buffer.hasRemaining() ) {
+            segment.write( buffer ) ;
+        }
+        if( segmentLength >= segmentSize ) {
+            rollSegment() ;
+        }
+    }
+
+    private void rollSegment() throws IOException {
+
+        segment.force( false ) ;
+        segmentFile.close() ;
+        openSegment( nextOffset ) ;
+    }
+
+    /** Returns the offset which will be assigned to the next event. */
+    public synchronized long getNextOffset() {
+        return this.nextOffset ;
+    }
+
+    /**
+     * Delivers the journaled events, starting from the given offset, to the
+     * subscriber in the order of their offsets. The events appended while
+     * the replay is in progress may or may not be delivered.
+     *
+     * @return The offset after the last event delivered.
+     */
+    public long replay( long fromOffset, EventSubscriber subscriber )
+        throws IOException {
+
+        synchronized( this ) {
+            flushBuffer() ;
+        }
+
+        File[] segments = listSegments() ;
+        long offset = fromOffset ;
+        for( int i=0; i<segments.length; i++ ) {
+            // Skip the segments which end before the starting offset
+            if( i+1 < segments.length &&
+                parseBaseOffset( segments[i+1] ) <= fromOffset ) {
+                continue ;
+            }
+
+            SegmentReader reader = new SegmentReader( segments[i] ) ;
+            while( reader.next() ) {
+                if( reader.offset >= fromOffset ) {
+                    subscriber.handleEvent( reader.readEvent() ) ;
+                    offset = reader.offset + 1 ;
+                }
+            }
+        }
+        return offset ;
+    }
+
+    /** Syncs the buffered events and closes the journal. */
+    public void close() throws IOException {
+
+        sync() ;
+        synchronized( this ) {
+            closed = true ;
+            segmentFile.close() ;
+        }
+        if( flusher != null ) {
+            flusher.interrupt() ;
+        }
+    }
+
+    /**
+     * Reads the intact records of a segment. Reading stops at the end of the
+     * segment or at the first torn record.
+     */
+    private class SegmentReader {
+
+        private final MappedByteBuffer buffer ;
+        private int position = 0 ;
+        private int recordStart = 0 ;
+        private int recordLength = 0 ;
+        long offset = -1 ;
+
+        SegmentReader( File file ) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile( file, "r" ) ;
+            try {
+                buffer = raf.getChannel().map( FileChannel.MapMode.READ_ONLY,
+                                               0, raf.length() ) ;
+            }
+            finally {
+                raf.close() ;
+            }
+        }
+
+        /** Moves to the next intact record, returns false if there is none. */
+        boolean next() {
+
+            int headerEnd = position + LENGTH_SIZE + CHECKSUM_SIZE ;
+            if( headerEnd > buffer.limit() ) {
+                return false ;
+            }
+
+            int length = buffer.getInt( position ) ;
+            if( length < CHECKSUM_SIZE + TOPIC_OFFSET ||
+                position + LENGTH_SIZE + length > buffer.limit() ) {
+                return false ;
+            }
+
+            int bodyLength = length - CHECKSUM_SIZE ;
+            byte[] body = new byte[ bodyLength ] ;
+            ByteBuffer view = buffer.duplicate() ;
+            view.position( headerEnd ) ;
+            view.get( body ) ;
+
+            CRC32 crc = new CRC32() ;
+            crc.update( body ) ;
+            if( ( int )crc.getValue() != buffer.getInt( position + LENGTH_SIZE ) ) {
+                return false ;
+            }
+
+            recordStart = headerEnd ;
+            recordLength = bodyLength ;
+            offset = buffer.getLong( recordStart + OFFSET_OFFSET ) ;
+            position += LENGTH_SIZE + length ;
+            return true ;
+        }
+
+        Event readEvent() {
+
+            int eventType  = buffer.getInt( recordStart + TYPE_OFFSET ) ;
+            long eventTime = buffer.getLong( recordStart + TIME_OFFSET ) ;
+            int topicLen   = buffer.getShort( recordStart + TOPIC_LEN_OFFSET ) ;
+
+            ByteBuffer view = buffer.duplicate() ;
+            view.position( recordStart + TOPIC_OFFSET ) ;
+            view.limit( recordStart + recordLength ) ;
+
+            String topic = null ;
+            if( topicLen >= 0 ) {
+                byte[] topicBytes = new byte[ topicLen ] ;
+                view.get( topicBytes ) ;
+                topic = new String( topicBytes, UTF8 ) ;
+            }
+            Object value = codec.decode( view.slice() ) ;
+            return new Event( eventType, topic, value, eventTime ) ;
+        }
+    }
+}
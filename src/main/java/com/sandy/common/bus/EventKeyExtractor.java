@@ -0,0 +1,19 @@
+package com.sandy.common.bus ;
+
+/**
+ * Extracts a key from an event, typically the identity of the entity which
+ * the event value describes - an order id, an instrument symbol etc. Used by
+ * the dispatch policies which treat the events of the same key together.
+ *
+ * @see ConflatingDispatchPolicy
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public interface EventKeyExtractor {
+
+    /**
+     * Returns the key of the event. Keys are compared with equals, a null
+     * key is a key like any other.
+     */
+    Object getKey( Event event ) ;
+}
@@ -0,0 +1,89 @@
+package com.sandy.common.bus ;
+
+import java.io.ByteArrayInputStream ;
+import java.io.ByteArrayOutputStream ;
+import java.io.IOException ;
+import java.io.ObjectInputStream ;
+import java.io.ObjectOutputStream ;
+import java.nio.ByteBuffer ;
+import java.nio.charset.Charset ;
+
+/**
+ * Converts event values to and from bytes, for carrying events across 
+ * process boundaries. See {@link MappedFileEventBridge}.
+ * <p>
+ * An encoder writes into a scratch buffer, which the bridge copies into the
+ * shared memory. The buffers handed to a decoder are views on the shared
+ * memory, and must hence not be retained beyond the call.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public interface EventPayloadCodec {
+
+    /** Encodes strings as UTF-8. A null value is decoded as an empty string. */
+    EventPayloadCodec STRING = new StringCodec() ;
+
+    /** Encodes {@link java.io.Serializable} values with Java serialization. */
+    EventPayloadCodec SERIALIZABLE = new SerializableCodec() ;
+
+    /**
+     * Writes the value into the buffer, starting at its current position and
+     * leaving the position after the last byte written.
+     *
+     * @throws java.nio.BufferOverflowException If the encoded value doesn't
+     *         fit in the remaining space of the buffer.
+     */
+    void encode( Object value, ByteBuffer buffer ) ;
+
+    /**
+     * Reads a value from the buffer, whose remaining bytes are exactly those
+     * written by {@link #encode(Object, ByteBuffer)}.
+     */
+    Object decode( ByteBuffer buffer ) ;
+
+    static class StringCodec implements EventPayloadCodec {
+
+        private static final Charset UTF8 = Charset.forName( "UTF-8" ) ;
+
+        public void encode( Object value, ByteBuffer buffer ) {
+            if( value != null ) {
+                buffer.put( value.toString().getBytes( UTF8 ) ) ;
+            }
+        }
+
+        public Object decode( ByteBuffer buffer ) {
+            byte[] bytes = new byte[ buffer.remaining() ] ;
+            buffer.get( bytes ) ;
+            return new String( bytes, UTF8 ) ;
+        }
+    }
+
+    static class SerializableCodec implements EventPayloadCodec {
+
+        public void encode( Object value, ByteBuffer buffer ) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream() ;
+                ObjectOutputStream out = new ObjectOutputStream( bytes ) ;
+                out.writeObject( value ) ;
+                out.close() ;
+                buffer.put( bytes.toByteArray() ) ;
+            }
+            catch( IOException e ) {
+                throw new IllegalArgumentException( "Could not serialize " + value, e ) ;
+            }
+        }
+
+        public Object decode( ByteBuffer buffer ) {
+            byte[] bytes = new byte[ buffer.remaining() ] ;
+            buffer.get( bytes ) ;
+            try {
+                ObjectInputStream in = null ;
+                in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) ;
+                return in.readObject() ;
+            }
+            catch( IOException | ClassNotFoundException e ) {
+                throw new IllegalArgumentException( "Could not deserialize event value", e ) ;
+            }
+        }
+    }
+}
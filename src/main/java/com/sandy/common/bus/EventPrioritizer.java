@@ -0,0 +1,16 @@
+package com.sandy.common.bus ;
+
+/**
+ * Assigns events to the priority lanes of a {@link PriorityDispatchPolicy}.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public interface EventPrioritizer {
+
+    /**
+     * Returns the lane of the event, 0 being the highest priority. Lanes
+     * beyond the number of lanes of the policy are treated as the lowest 
+     * priority lane.
+     */
+    int getPriority( Event event ) ;
+}
@@ -0,0 +1,127 @@
+package com.sandy.common.bus ;
+
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.TreeSet ;
+
+import com.sandy.common.bus.EventBus.EventRange ;
+
+/**
+ * An immutable interval index over the event range registrations of an
+ * {@link EventBus}. The registered ranges are flattened into a sorted array
+ * of elementary, non overlapping segments. Each segment carries the merged
+ * array of ALL_EVENTS and range subscribers covering it, so that resolving
+ * the subscribers of an event id is a binary search over the segment
+ * boundaries.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class EventRangeIndex {
+
+    /** Inclusive start of each segment, in ascending order. */
+    private final long[] segmentStarts ;
+
+    /** Merged subscribers for each segment. */
+    private final EventSubscriber[][] segmentSubscribers ;
+
+    /** Subscribers for event ids which are not covered by any range. */
+    private final EventSubscriber[] allEventSubscribers ;
+
+    EventRangeIndex( Map<EventRange, List<EventSubscriber>> rangeSubscribers,
+                     EventSubscriber[] allEventSubscribers ) {
+
+        this.allEventSubscribers = allEventSubscribers ;
+
+        // Segment boundaries are kept as longs so that a range ending at
+        // Integer.MAX_VALUE does not overflow its exclusive upper bound.
+        TreeSet<Long> boundaries = new TreeSet<Long>() ;
+        for( EventRange range : rangeSubscribers.keySet() ) {
+            boundaries.add( (long)range.getLowerBound() ) ;
+            boundaries.add( (long)range.getUpperBound() + 1 ) ;
+        }
+
+        List<Long>              starts = new ArrayList<Long>() ;
+        List<EventSubscriber[]> subscribers = new ArrayList<EventSubscriber[]>() ;
+        Long                    segmentStart = null ;
+
+        for( Long boundary : boundaries ) {
+            if( segmentStart != null ) {
+                starts.add( segmentStart ) ;
+                subscribers.add( mergeSubscribers( rangeSubscribers,
+                                                   segmentStart,
+                                                   boundary - 1 ) ) ;
+            }
+            segmentStart = boundary ;
+        }
+
+        // The last boundary is the exclusive end of the last segment. It is
+        // kept as a sentinel segment which maps back to ALL_EVENTS subscribers.
+        if( segmentStart != null ) {
+            starts.add( segmentStart ) ;
+            subscribers.add( allEventSubscribers ) ;
+        }
+
+        this.segmentStarts = new long[ starts.size() ] ;
+        for( int i=0; i<segmentStarts.length; i++ ) {
+            segmentStarts[i] = starts.get( i ) ;
+        }
+        this.segmentSubscribers = subscribers.toArray(
+                                     new EventSubscriber[subscribers.size()][] ) ;
+    }
+
+    private EventSubscriber[] mergeSubscribers(
+                        Map<EventRange, List<EventSubscriber>> rangeSubscribers,
+                        long segmentStart, long segmentEnd ) {
+
+        SubscriberMerger merged = null ;
+        for( Map.Entry<EventRange, List<EventSubscriber>> entry :
+             rangeSubscribers.entrySet() ) {
+
+            EventRange range = entry.getKey() ;
+            if( range.getLowerBound() <= segmentStart &&
+                range.getUpperBound() >= segmentEnd ) {
+
+                if( merged == null ) {
+                    merged = new SubscriberMerger().addAll( allEventSubscribers ) ;
+                }
+                merged.addAll( entry.getValue() ) ;
+            }
+        }
+
+        if( merged == null ) {
+            return allEventSubscribers ;
+        }
+        return merged.toArray() ;
+    }
+
+    /** Returns true if there are no range registrations in this index. */
+    boolean isEmpty() {
+        return segmentStarts.length == 0 ;
+    }
+
+    /**
+     * Returns the merged ALL_EVENTS and range subscribers for the given event
+     * id. The returned array is shared and must not be modified.
+     */
+    EventSubscriber[] getSubscribers( int eventId ) {
+
+        int low  = 0 ;
+        int high = segmentStarts.length - 1 ;
+        int segment = -1 ;
+
+        while( low <= high ) {
+            int mid = ( low + high ) >>> 1 ;
+            if( segmentStarts[mid] <= eventId ) {
+                segment = mid ;
+                low = mid + 1 ;
+            }
+            else {
+                high = mid - 1 ;
+            }
+        }
+
+        return ( segment == -1 ) ? allEventSubscribers :
+                                   segmentSubscribers[segment] ;
+    }
+}
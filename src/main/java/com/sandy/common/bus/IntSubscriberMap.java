@@ -0,0 +1,116 @@
+package com.sandy.common.bus ;
+
+import java.util.Collections ;
+import java.util.Map ;
+
+/**
+ * An immutable map of event ids to subscriber arrays, keyed by primitive
+ * ints so that a lookup neither boxes the event id nor allocates. 
+ * <p>
+ * If the event ids are dense - spread over a range not much larger than
+ * their count - the arrays are held in a direct array indexed by the offset
+ * of the event id from the smallest id. Otherwise an open addressing table
+ * with linear probing is used, which keeps the keys of a probe sequence
+ * adjacent in memory.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class IntSubscriberMap {
+
+    /** The direct array is used if the id range is within this factor of the count. */
+    private static final int MAX_DENSITY_FACTOR = 4 ;
+
+    /** Minimum span for which a direct array is always used, however sparse. */
+    private static final int MIN_DIRECT_SPAN = 64 ;
+
+    static final IntSubscriberMap EMPTY = 
+                 new IntSubscriberMap( Collections.<Integer, EventSubscriber[]>emptyMap() ) ;
+
+    private final int size ;
+
+    // Direct array representation. Null if the table representation is used.
+    private final int minKey ;
+    private final EventSubscriber[][] direct ;
+
+    // Open addressing representation. A null value marks an empty slot.
+    private final int[] keys ;
+    private final EventSubscriber[][] values ;
+    private final int mask ;
+
+    IntSubscriberMap( Map<Integer, EventSubscriber[]> map ) {
+
+        this.size = map.size() ;
+
+        long min = Long.MAX_VALUE ;
+        long max = Long.MIN_VALUE ;
+        for( Integer key : map.keySet() ) {
+            min = Math.min( min, key ) ;
+            max = Math.max( max, key ) ;
+        }
+
+        long span = max - min + 1 ;
+        if( size > 0 && 
+            ( span <= MIN_DIRECT_SPAN || span <= ( long )size * MAX_DENSITY_FACTOR ) ) {
+
+            this.minKey = ( int )min ;
+            this.direct = new EventSubscriber[ ( int )span ][] ;
+            for( Map.Entry<Integer, EventSubscriber[]> entry : map.entrySet() ) {
+                direct[ entry.getKey() - minKey ] = entry.getValue() ;
+            }
+            this.keys = null ;
+            this.values = null ;
+            this.mask = 0 ;
+        }
+        else {
+            // Capacity is at least twice the size, keeping the probes short
+            int capacity = Integer.highestOneBit( Math.max( 1, size ) * 2 ) << 1 ;
+
+            this.minKey = 0 ;
+            this.direct = null ;
+            this.keys = new int[ capacity ] ;
+            this.values = new EventSubscriber[ capacity ][] ;
+            this.mask = capacity - 1 ;
+
+            for( Map.Entry<Integer, EventSubscriber[]> entry : map.entrySet() ) {
+                int index = hash( entry.getKey() ) & mask ;
+                while( values[index] != null ) {
+                    index = ( index + 1 ) & mask ;
+                }
+                keys[index] = entry.getKey() ;
+                values[index] = entry.getValue() ;
+            }
+        }
+    }
+
+    /** Spreads the bits of sequential ids across the table. */
+    static int hash( int key ) {
+        int h = key * 0x9E3779B9 ;
+        return h ^ ( h >>> 16 ) ;
+    }
+
+    /** Returns the subscribers mapped to the event id, or null if none. */
+    EventSubscriber[] get( int eventId ) {
+
+        if( direct != null ) {
+            // The subtraction is done in longs since ids can span the whole
+            // int range, for example with ALL_EVENTS being negative.
+            long offset = ( long )eventId - minKey ;
+            return ( offset >= 0 && offset < direct.length ) ? 
+                   direct[ ( int )offset ] : null ;
+        }
+
+        int index = hash( eventId ) & mask ;
+        EventSubscriber[] value ;
+        while( ( value = values[index] ) != null ) {
+            if( keys[index] == eventId ) {
+                return value ;
+            }
+            index = ( index + 1 ) & mask ;
+        }
+        return null ;
+    }
+
+    int size() {
+        return this.size ;
+    }
+}
@@ -0,0 +1,105 @@
+package com.sandy.common.bus ;
+
+import java.util.List ;
+
+/**
+ * The proxy of a subscriber registered with a 
+ * {@link KeyedParallelDispatchPolicy}. The proxy has no queue of its own, it
+ * routes each event to one of its lanes by the key of the event. Each lane 
+ * is an {@link AsyncEventDispatchProxy} of the same subscriber, dispatched
+ * serially by the bus dispatcher.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class KeyedDispatchProxy extends AsyncEventDispatchProxy {
+
+    private final KeyedParallelDispatchPolicy policy ;
+    private final AsyncEventDispatchProxy[] lanes ;
+
+    KeyedDispatchProxy( final EventSubscriber subscriber,
+                        final KeyedParallelDispatchPolicy policy,
+                        final AsyncDispatcher dispatcher ) {
+
+        super( subscriber, dispatcher ) ;
+        this.policy = policy ;
+        this.lanes = new AsyncEventDispatchProxy[ policy.getNumLanes() ] ;
+        for( int i=0; i<lanes.length; i++ ) {
+            lanes[i] = new AsyncEventDispatchProxy( subscriber, 
+                                                    policy.getLanePolicy(), 
+                                                    dispatcher ) ;
+        }
+    }
+
+    public void run() {
+        // The lanes are run by the dispatcher, this proxy is never started
+    }
+
+    void drain( int maxEvents ) {
+        // The lanes are drained by the dispatcher, this proxy is never signalled
+    }
+
+    public void handleEvent( final Event event ) {
+        lanes[ policy.laneOf( event ) ].handleEvent( event ) ;
+    }
+
+    public void handleEvents( final List<Event> events ) {
+        for( Event event : events ) {
+            handleEvent( event ) ;
+        }
+    }
+
+    void handleEvent( final int eventType, final String topic, 
+                      final Object value, final long eventTime ) {
+        handleEvent( new Event( eventType, topic, value, eventTime ) ) ;
+    }
+
+    /** 
+     * The key is extracted from the published event, hence the bus always
+     * hands over an event object to this proxy.
+     */
+    boolean copiesEvents() {
+        return false ;
+    }
+
+    /** The lanes share the metrics of the subscriber. */
+    void setMetrics( SubscriberMetrics metrics ) {
+        for( AsyncEventDispatchProxy lane : lanes ) {
+            lane.setMetrics( metrics ) ;
+        }
+    }
+
+    /** Returns the number of events waiting across all the lanes. */
+    public int getQueueDepth() {
+        int depth = 0 ;
+        for( AsyncEventDispatchProxy lane : lanes ) {
+            depth += lane.getQueueDepth() ;
+        }
+        return depth ;
+    }
+
+    public long getNumDroppedEvents() {
+        long numDropped = 0 ;
+        for( AsyncEventDispatchProxy lane : lanes ) {
+            numDropped += lane.getNumDroppedEvents() ;
+        }
+        return numDropped ;
+    }
+
+    long getNumPendingEvents() {
+        long numPending = 0 ;
+        for( AsyncEventDispatchProxy lane : lanes ) {
+            numPending += lane.getNumPendingEvents() ;
+        }
+        return numPending ;
+    }
+
+    boolean hasPendingEvents() {
+        return false ;
+    }
+
+    public void stop() {
+        for( AsyncEventDispatchProxy lane : lanes ) {
+            lane.stop() ;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.sandy.common.bus ;
+
+/**
+ * An {@link AsyncDispatchPolicy} which dispatches the events of a subscriber
+ * on multiple lanes in parallel. Each event is assigned to a lane by the hash
+ * of its key, and each lane is dispatched serially. Events of the same key
+ * are hence delivered in the order of publishing, while events of different
+ * keys are delivered concurrently. This lets one subscriber, which needs 
+ * ordering only per entity, use more than one thread.
+ * <p>
+ * The subscriber is called concurrently from the lanes and must be thread
+ * safe. Each lane queues its events as per the lane policy, whose capacity
+ * applies to each lane separately. The lanes get their threads from the 
+ * {@link AsyncDispatcher} of the bus like any other asynchronous subscriber,
+ * so with a pooled dispatcher the parallelism is also bounded by the pool.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class KeyedParallelDispatchPolicy extends AsyncDispatchPolicy {
+
+    private final int numLanes ;
+    private final EventKeyExtractor keyExtractor ;
+    private final AsyncDispatchPolicy lanePolicy ;
+
+    /**
+     * @param capacity The capacity of each lane.
+     * @param overflowPolicy The overflow policy of each lane.
+     * @param numLanes The number of lanes.
+     * @param keyExtractor Extracts the key from the events, null to use the
+     *        event value as the key.
+     */
+    public KeyedParallelDispatchPolicy( int capacity, int overflowPolicy,
+                                        int numLanes, 
+                                        EventKeyExtractor keyExtractor ) {
+        this( numLanes, keyExtractor, 
+              new AsyncDispatchPolicy( capacity, overflowPolicy ) ) ;
+    }
+
+    /**
+     * @param numLanes The number of lanes.
+     * @param keyExtractor Extracts the key from the events, null to use the
+     *        event value as the key.
+     * @param lanePolicy The policy with which each lane queues its events. 
+     */
+    public KeyedParallelDispatchPolicy( int numLanes, 
+                                        EventKeyExtractor keyExtractor,
+                                        AsyncDispatchPolicy lanePolicy ) {
+
+        super( lanePolicy.getCapacity(), lanePolicy.getOverflowPolicy() ) ;
+        if( numLanes < 1 ) {
+            throw new IllegalArgumentException( "At least one lane is required." ) ;
+        }
+        else if( lanePolicy instanceof KeyedParallelDispatchPolicy ) {
+            throw new IllegalArgumentException( "Keyed lanes can't be nested." ) ;
+        }
+        this.numLanes = numLanes ;
+        this.keyExtractor = keyExtractor ;
+        this.lanePolicy = lanePolicy ;
+    }
+
+    public int getNumLanes() {
+        return this.numLanes ;
+    }
+
+    public EventKeyExtractor getKeyExtractor() {
+        return this.keyExtractor ;
+    }
+
+    public AsyncDispatchPolicy getLanePolicy() {
+        return this.lanePolicy ;
+    }
+
+    long getMinDeliveryIntervalNanos() {
+        return lanePolicy.getMinDeliveryIntervalNanos() ;
+    }
+
+    AsyncEventDispatchProxy createProxy( EventSubscriber subscriber,
+                                         AsyncDispatcher dispatcher ) {
+        return new KeyedDispatchProxy( subscriber, this, dispatcher ) ;
+    }
+
+    DispatchQueue createQueue() {
+        return lanePolicy.createQueue() ;
+    }
+
+    /** Returns the lane of the given event. */
+    int laneOf( Event event ) {
+
+        Object key = ( keyExtractor == null ) ? event.getValue() : 
+                                                keyExtractor.getKey( event ) ;
+        if( key == null ) {
+            return 0 ;
+        }
+        int h = IntSubscriberMap.hash( key.hashCode() ) ;
+        return ( h & 0x7FFFFFFF ) % numLanes ;
+    }
+}
@@ -0,0 +1,136 @@
+package com.sandy.common.bus ;
+
+import java.util.concurrent.atomic.AtomicLong ;
+import java.util.concurrent.atomic.AtomicLongArray ;
+
+/**
+ * A thread safe, fixed memory histogram of latencies in nanoseconds, in the
+ * style of the HDR histogram. Values are counted in log-linear buckets - each
+ * power of two range is split into 16 linear sub buckets - which bounds the
+ * relative error of the reported percentiles to about 6% across the whole
+ * range of long values. Recording a value is a couple of atomic increments
+ * and never allocates.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS  = 4 ;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS ;
+    private static final int NUM_BUCKETS = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKET_COUNT ;
+
+    private final AtomicLongArray counts = new AtomicLongArray( NUM_BUCKETS ) ;
+    private final AtomicLong totalCount = new AtomicLong() ;
+    private final AtomicLong totalValue = new AtomicLong() ;
+    private final AtomicLong maxValue = new AtomicLong() ;
+
+    /** Records a latency. Negative values are recorded as zero. */
+    public void record( long nanos ) {
+
+        long value = Math.max( 0, nanos ) ;
+        counts.incrementAndGet( bucketIndex( value ) ) ;
+        totalCount.incrementAndGet() ;
+        totalValue.addAndGet( value ) ;
+
+        long max = maxValue.get() ;
+        while( value > max && !maxValue.compareAndSet( max, value ) ) {
+            max = maxValue.get() ;
+        }
+    }
+
+    static int bucketIndex( long value ) {
+
+        if( value < SUB_BUCKET_COUNT ) {
+            return ( int )value ;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( value ) ;
+        int subBucket = ( int )( value >>> ( exponent - SUB_BUCKET_BITS ) ) &
+                        ( SUB_BUCKET_COUNT - 1 ) ;
+        return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT + subBucket ;
+    }
+
+    /** Returns the highest value which falls in the given bucket. */
+    static long bucketUpperBound( int index ) {
+
+        if( index < SUB_BUCKET_COUNT ) {
+            return index ;
+        }
+        int exponent  = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1 ;
+        int subBucket = index % SUB_BUCKET_COUNT ;
+        int shift     = exponent - SUB_BUCKET_BITS ;
+        long lower    = ( long )( SUB_BUCKET_COUNT + subBucket ) << shift ;
+        return lower + ( 1L << shift ) - 1 ;
+    }
+
+    public long getCount() {
+        return totalCount.get() ;
+    }
+
+    public long getMax() {
+        return maxValue.get() ;
+    }
+
+    public double getMean() {
+        long count = totalCount.get() ;
+        return ( count == 0 ) ? 0 : ( double )totalValue.get() / count ;
+    }
+
+    /**
+     * Returns the value at the given percentile, for example 99.9. The value
+     * returned is the upper bound of the bucket holding the percentile,
+     * capped at the maximum recorded value. Returns 0 if nothing has been
+     * recorded.
+     */
+    public long getPercentile( double percentile ) {
+
+        long count = 0 ;
+        for( int i=0; i<NUM_BUCKETS; i++ ) {
+            count += counts.get( i ) ;
+        }
+        if( count == 0 ) {
+            return 0 ;
+        }
+
+        long threshold = Math.max( 1, ( long )Math.ceil( count * percentile / 100 ) ) ;
+        long cumulative = 0 ;
+        for( int i=0; i<NUM_BUCKETS; i++ ) {
+            cumulative += counts.get( i ) ;
+            if( cumulative >= threshold ) {
+                return Math.min( bucketUpperBound( i ), getMax() ) ;
+            }
+        }
+        return getMax() ;
+    }
+
+    /** Returns an independent copy of the current state of this histogram. */
+    public LatencyHistogram copy() {
+
+        LatencyHistogram copy = new LatencyHistogram() ;
+        for( int i=0; i<NUM_BUCKETS; i++ ) {
+            copy.counts.set( i, counts.get( i ) ) ;
+        }
+        copy.totalCount.set( totalCount.get() ) ;
+        copy.totalValue.set( totalValue.get() ) ;
+        copy.maxValue.set( maxValue.get() ) ;
+        return copy ;
+    }
+
+    public void reset() {
+        for( int i=0; i<NUM_BUCKETS; i++ ) {
+            counts.set( i, 0 ) ;
+        }
+        totalCount.set( 0 ) ;
+        totalValue.set( 0 ) ;
+        maxValue.set( 0 ) ;
+    }
+
+    /** Returns a one line summary of the percentiles, in microseconds. */
+    public String toString() {
+        return String.format( "n=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                              getCount(),
+                              getPercentile( 50 ) / 1000.0,
+                              getPercentile( 99 ) / 1000.0,
+                              getPercentile( 99.9 ) / 1000.0,
+                              getMax() / 1000.0 ) ;
+    }
+}
@@ -0,0 +1,495 @@
+package com.sandy.common.bus ;
+
+import java.io.File ;
+import java.io.IOException ;
+import java.io.RandomAccessFile ;
+import java.nio.BufferOverflowException ;
+import java.nio.ByteBuffer ;
+import java.nio.MappedByteBuffer ;
+import java.nio.channels.FileChannel ;
+import java.nio.channels.FileLock ;
+import java.nio.charset.Charset ;
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.Objects ;
+import java.util.Random ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.ConcurrentMap ;
+import java.util.concurrent.atomic.AtomicLong ;
+
+import org.apache.log4j.Logger ;
+
+/**
+ * Bridges the events of {@link EventBus} instances in different processes on
+ * the same host through a shared, memory mapped ring file. Each process
+ * creates a bridge on the same file for its local bus. A bridge appends the
+ * events published on its bus to the ring and tails the ring for the events
+ * appended by its peers, republishing them on its bus.
+ * <p>
+ * Values are encoded by an {@link EventPayloadCodec} into a scratch buffer, 
+ * which is copied into the ring once the record is known to fit, and are 
+ * decoded straight out of the mapped memory. Events too large for the ring,
+ * or with topics longer than 32767 UTF-8 bytes, are rejected with an error
+ * logged, leaving the ring untouched. Appends from all the processes are
+ * serialized with a lock on the file. The ring has a fixed capacity; a peer
+ * which falls behind by more than the capacity skips to the latest events.
+ * The skipped records have been overwritten and cannot be counted, hence 
+ * the bridge counts the bytes it skipped instead.
+ * <p>
+ * The bridge registers itself as a synchronous subscriber of the events to
+ * be bridged. The events which the bridge republishes from its peers are
+ * not appended back to the ring, hence bridges never loop events. The new 
+ * events which the local subscribers publish while handling a republished
+ * event are bridged as usual.
+ *
+ * <pre>
+ *   MappedFileEventBridge bridge = null ;
+ *   bridge = new MappedFileEventBridge( bus, file, 1 &lt;&lt; 20, EventPayloadCodec.STRING ) ;
+ *   bridge.bridgeEventTypes( ORDER_FILLED, ORDER_CANCELLED ) ;
+ *   bridge.start() ;
+ * </pre>
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class MappedFileEventBridge implements EventSubscriber {
+
+    public static final Logger logger = Logger.getLogger( MappedFileEventBridge.class ) ;
+
+    private static final int MAGIC   = 0x5A4E4459 ;
+    private static final int VERSION = 1 ;
+
+    // File header layout
+    private static final int MAGIC_OFFSET     = 0 ;
+    private static final int VERSION_OFFSET   = 4 ;
+    private static final int CAPACITY_OFFSET  = 8 ;
+    private static final int WRITE_POS_OFFSET = 16 ;
+    private static final int HEADER_SIZE      = 64 ;
+
+    // Record layout, relative to the start of a record. The length is
+    // written last, so a record with a zero length is incomplete.
+    private static final int LENGTH_OFFSET      = 0 ;
+    private static final int TYPE_OFFSET        = 4 ;
+    private static final int WRITER_ID_OFFSET   = 8 ;
+    private static final int TIME_OFFSET        = 16 ;
+    private static final int PAYLOAD_LEN_OFFSET = 24 ;
+    private static final int TOPIC_LEN_OFFSET   = 28 ;
+    private static final int TOPIC_OFFSET       = 30 ;
+
+    /** Marks the unused space at the end of the ring, before a wrap around. */
+    private static final int WRAP_MARKER = -1 ;
+
+    private static final int ALIGNMENT = 8 ;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" ) ;
+
+    /**
+     * File locks are held on behalf of the whole JVM, hence bridges in the
+     * same JVM on the same file also synchronize on a shared monitor.
+     */
+    private static final ConcurrentMap<String, Object> FILE_MONITORS =
+                                    new ConcurrentHashMap<String, Object>() ;
+
+    private final EventBus bus ;
+    private final EventPayloadCodec codec ;
+    private final File file ;
+    private final RandomAccessFile raf ;
+    private final FileChannel channel ;
+    private final MappedByteBuffer mapping ;
+    private final Object fileMonitor ;
+    private final long capacity ;
+
+    /** Identifies the records appended by this bridge. */
+    private final long writerId = new Random().nextLong() ;
+
+    private final AtomicLong numSkippedBytes = new AtomicLong() ;
+
+    /** The payload of the event being appended, guarded by the file monitor. */
+    private ByteBuffer scratch = ByteBuffer.allocate( 256 ) ;
+
+    private long readPosition ;
+    private long pollIntervalMillis = 1 ;
+    private volatile Thread tailer = null ;
+
+    /** The event being republished by the tailer, not to be appended back. */
+    private Event republishing = null ;
+    private volatile boolean closed = false ;
+
+    /**
+     * Opens the bridge on the given file, creating and initializing the file
+     * if it doesn't exist. If the file has already been initialized by a
+     * peer, its capacity is used and the given capacity is ignored. The
+     * bridge receives only the events appended after it has been opened.
+     *
+     * @param bus The local bus.
+     * @param file The ring file shared by the bridges.
+     * @param capacity The capacity of the ring in bytes.
+     * @param codec The codec of the event values, identical across the peers.
+     */
+    public MappedFileEventBridge( EventBus bus, File file, int capacity,
+                                  EventPayloadCodec codec )
+        throws IOException {
+
+        if( capacity < 1024 || capacity % ALIGNMENT != 0 ) {
+            throw new IllegalArgumentException( "Capacity should be a multiple " +
+                                 "of " + ALIGNMENT + " and at least 1024 bytes." ) ;
+        }
+
+        this.bus = bus ;
+        this.codec = codec ;
+        this.file = file.getCanonicalFile() ;
+
+        Object monitor = new Object() ;
+        Object existing = FILE_MONITORS.putIfAbsent( this.file.getPath(), monitor ) ;
+        this.fileMonitor = ( existing == null ) ? monitor : existing ;
+
+        this.raf = new RandomAccessFile( this.file, "rw" ) ;
+        this.channel = raf.getChannel() ;
+
+        synchronized( fileMonitor ) {
+            FileLock lock = channel.lock() ;
+            try {
+                if( channel.size() < HEADER_SIZE ) {
+                    raf.setLength( HEADER_SIZE + capacity ) ;
+                    MappedByteBuffer header = channel.map(
+                              FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE ) ;
+                    header.putInt( VERSION_OFFSET, VERSION ) ;
+                    header.putLong( CAPACITY_OFFSET, capacity ) ;
+                    header.putLong( WRITE_POS_OFFSET, 0 ) ;
+                    header.putInt( MAGIC_OFFSET, MAGIC ) ;
+                    header.force() ;
+                }
+
+                MappedByteBuffer header = channel.map(
+                              FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE ) ;
+                if( header.getInt( MAGIC_OFFSET ) != MAGIC ||
+                    header.getInt( VERSION_OFFSET ) != VERSION ) {
+                    throw new IOException( this.file + " is not an event bridge file." ) ;
+                }
+                this.capacity = header.getLong( CAPACITY_OFFSET ) ;
+                this.mapping = channel.map( FileChannel.MapMode.READ_WRITE, 0,
+                                            HEADER_SIZE + this.capacity ) ;
+                this.readPosition = mapping.getLong( WRITE_POS_OFFSET ) ;
+            }
+            finally {
+                lock.release() ;
+            }
+        }
+    }
+
+    /**
+     * Bridges the events of the given types, or all the events if no types
+     * are specified.
+     */
+    public void bridgeEventTypes( int... eventTypes ) {
+        bus.addSubscriberForEventTypes( this, false, eventTypes ) ;
+    }
+
+    /** Bridges the events published on the topics matching the patterns. */
+    public void bridgeTopics( String... topicPatterns ) {
+        bus.addSubscriberForTopics( this, false, topicPatterns ) ;
+    }
+
+    /** Sets the interval at which the ring is polled when idle. */
+    public void setPollIntervalMillis( long pollIntervalMillis ) {
+        this.pollIntervalMillis = pollIntervalMillis ;
+    }
+
+    /** Starts tailing the ring for the events appended by the peers. */
+    public synchronized void start() {
+
+        if( tailer == null && !closed ) {
+            tailer = new Thread( new Runnable() {
+                public void run() {
+                    tail() ;
+                }
+            }, "EventBridge-" + file.getName() ) ;
+            tailer.setDaemon( true ) ;
+            tailer.start() ;
+        }
+    }
+
+    /**
+     * Stops the bridge, removing it from the bus. The ring file is left
+     * intact for the peers.
+     */
+    public void close() throws IOException {
+
+        closed = true ;
+        bus.removeSubscriber( this ) ;
+        bus.removeSubscriberFromTopics( this ) ;
+
+        // The tailer is not interrupted, since an interrupt during a file
+        // lock closes the channel. It exits within a poll interval.
+        Thread thread = tailer ;
+        if( thread != null ) {
+            try {
+                thread.join( 1000 + pollIntervalMillis ) ;
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt() ;
+            }
+        }
+        raf.close() ;
+    }
+
+    /**
+     * The number of bytes of the ring skipped because this bridge fell 
+     * behind or found an incomplete record. Zero means no event was lost.
+     */
+    public long getNumSkippedBytes() {
+        return numSkippedBytes.get() ;
+    }
+
+    /** Appends the events published on the local bus to the ring. */
+    public void handleEvent( final Event event ) {
+
+        if( closed || isRepublished( event ) ) {
+            return ;
+        }
+
+        synchronized( fileMonitor ) {
+            FileLock lock = null ;
+            try {
+                lock = channel.lock( 0, HEADER_SIZE, false ) ;
+                append( event ) ;
+            }
+            catch( IOException e ) {
+                logger.error( "Could not append event to " + file, e ) ;
+            }
+            finally {
+                releaseQuietly( lock ) ;
+            }
+        }
+    }
+
+    private void append( Event event ) {
+
+        byte[] topic = ( event.getTopic() == null ) ? null :
+                       event.getTopic().getBytes( UTF8 ) ;
+        int topicLength = ( topic == null ) ? 0 : topic.length ;
+        if( topicLength > Short.MAX_VALUE ) {
+            logger.error( "Topic of event " + event.getEventType() + " is longer " +
+                          "than " + Short.MAX_VALUE + " bytes, not appended to " + file ) ;
+            return ;
+        }
+
+        // Encoded aside first, so that an oversize event leaves the ring intact
+        ByteBuffer payload = encodePayload( event.getValue(),
+                                     ( int )capacity - TOPIC_OFFSET - topicLength ) ;
+        if( payload == null ) {
+            logger.error( "Event " + event.getEventType() +
+                          " is too large for the ring " + file ) ;
+            return ;
+        }
+
+        int length = TOPIC_OFFSET + topicLength + payload.remaining() ;
+        int alignedLength = ( length + ALIGNMENT - 1 ) & -ALIGNMENT ;
+
+        long writePosition = mapping.getLong( WRITE_POS_OFFSET ) ;
+        int offset = ( int )( writePosition % capacity ) ;
+        int remaining = ( int )( capacity - offset ) ;
+        if( remaining < alignedLength ) {
+            // Not enough space before the end of the ring. Mark the rest of
+            // the ring as unused and write from its start.
+            mapping.putInt( HEADER_SIZE + offset + LENGTH_OFFSET, WRAP_MARKER ) ;
+            writePosition += remaining ;
+            offset = 0 ;
+        }
+
+        writeRecord( event, topic, payload, offset, alignedLength ) ;
+        mapping.putLong( WRITE_POS_OFFSET, writePosition + alignedLength ) ;
+    }
+
+    /**
+     * Encodes the value into the scratch buffer, which is grown as needed up
+     * to the given maximum length. Returns the buffer flipped for reading, or
+     * null if the encoded value is longer than the maximum length.
+     */
+    private ByteBuffer encodePayload( Object value, int maxLength ) {
+
+        while( true ) {
+            scratch.clear() ;
+            scratch.limit( Math.min( scratch.capacity(), maxLength ) ) ;
+            try {
+                codec.encode( value, scratch ) ;
+                scratch.flip() ;
+                return scratch ;
+            }
+            catch( BufferOverflowException e ) {
+                if( scratch.capacity() >= maxLength ) {
+                    return null ;
+                }
+                scratch = ByteBuffer.allocate( ( int )Math.min( maxLength, 
+                                                   2L * scratch.capacity() ) ) ;
+            }
+        }
+    }
+
+    /** Writes the record at the given offset of the ring, where it fits. */
+    private void writeRecord( Event event, byte[] topic, ByteBuffer payload,
+                              int offset, int alignedLength ) {
+
+        int start = HEADER_SIZE + offset ;
+        ByteBuffer record = mapping.duplicate() ;
+
+        // Cleared length marks the record incomplete till it is written
+        record.putInt( start + LENGTH_OFFSET, 0 ) ;
+        record.putInt( start + TYPE_OFFSET, event.getEventType() ) ;
+        record.putLong( start + WRITER_ID_OFFSET, writerId ) ;
+        record.putLong( start + TIME_OFFSET, event.getEventTime() ) ;
+        record.putInt( start + PAYLOAD_LEN_OFFSET, payload.remaining() ) ;
+        record.putShort( start + TOPIC_LEN_OFFSET,
+                         ( short )( ( topic == null ) ? -1 : topic.length ) ) ;
+
+        record.position( start + TOPIC_OFFSET ) ;
+        if( topic != null ) {
+            record.put( topic ) ;
+        }
+        record.put( payload ) ;
+        record.putInt( start + LENGTH_OFFSET, alignedLength ) ;
+    }
+
+    private void tail() {
+
+        List<Event> events = new ArrayList<Event>() ;
+        while( !closed ) {
+            try {
+                synchronized( fileMonitor ) {
+                    FileLock lock = channel.lock( 0, HEADER_SIZE, true ) ;
+                    try {
+                        readNewEvents( events ) ;
+                    }
+                    finally {
+                        releaseQuietly( lock ) ;
+                    }
+                }
+
+                // Republished outside the lock, since the local subscribers
+                // can in turn publish events to be bridged
+                for( Event event : events ) {
+                    republish( event ) ;
+                }
+
+                if( events.isEmpty() ) {
+                    Thread.sleep( pollIntervalMillis ) ;
+                }
+                events.clear() ;
+            }
+            catch( InterruptedException e ) {
+                return ;
+            }
+            catch( IOException e ) {
+                if( !closed ) {
+                    logger.error( "Could not read events from " + file, e ) ;
+                }
+                return ;
+            }
+        }
+    }
+
+    private void readNewEvents( List<Event> events ) {
+
+        long writePosition = mapping.getLong( WRITE_POS_OFFSET ) ;
+        if( writePosition - readPosition > capacity ) {
+            logger.warn( "Bridge on " + file + " fell behind, skipping " +
+                         ( writePosition - readPosition ) + " bytes of events" ) ;
+            numSkippedBytes.addAndGet( writePosition - readPosition ) ;
+            readPosition = writePosition ;
+        }
+
+        while( readPosition < writePosition ) {
+            int offset = ( int )( readPosition % capacity ) ;
+            int start = HEADER_SIZE + offset ;
+            int length = mapping.getInt( start + LENGTH_OFFSET ) ;
+
+            if( length == WRAP_MARKER ) {
+                readPosition += capacity - offset ;
+                continue ;
+            }
+            else if( length <= 0 ) {
+                // Only possible if a peer died while appending
+                logger.warn( "Incomplete record in " + file + ", skipping to " +
+                             "the latest events" ) ;
+                numSkippedBytes.addAndGet( writePosition - readPosition ) ;
+                readPosition = writePosition ;
+                break ;
+            }
+
+            if( mapping.getLong( start + WRITER_ID_OFFSET ) != writerId ) {
+                events.add( readRecord( start ) ) ;
+            }
+            readPosition += length ;
+        }
+    }
+
+    private Event readRecord( int start ) {
+
+        int eventType  = mapping.getInt( start + TYPE_OFFSET ) ;
+        long eventTime = mapping.getLong( start + TIME_OFFSET ) ;
+        int payloadLen = mapping.getInt( start + PAYLOAD_LEN_OFFSET ) ;
+        int topicLen   = mapping.getShort( start + TOPIC_LEN_OFFSET ) ;
+
+        ByteBuffer record = mapping.duplicate() ;
+        record.position( start + TOPIC_OFFSET ) ;
+
+        String topic = null ;
+        if( topicLen >= 0 ) {
+            byte[] topicBytes = new byte[ topicLen ] ;
+            record.get( topicBytes ) ;
+            topic = new String( topicBytes, UTF8 ) ;
+        }
+
+        record.limit( record.position() + payloadLen ) ;
+        Object value = codec.decode( record.slice() ) ;
+        return new Event( eventType, topic, value, eventTime ) ;
+    }
+
+    /**
+     * Returns true if the event is the one being republished by the tailer.
+     * The events which the local subscribers publish while handling it run on
+     * the tailer too, but are new events and are appended.
+     */
+    private boolean isRepublished( Event event ) {
+
+        Event republished = this.republishing ;
+        if( Thread.currentThread() != tailer || republished == null ) {
+            return false ;
+        }
+        if( event.getValue() == republished.getValue() &&
+            event.getEventType() == republished.getEventType() &&
+            Objects.equals( event.getTopic(), republished.getTopic() ) ) {
+            this.republishing = null ;
+            return true ;
+        }
+        return false ;
+    }
+
+    private void republish( Event event ) {
+        republishing = event ;
+        try {
+            if( event.getTopic() != null ) {
+                bus.publishEvent( event.getTopic(), event.getValue() ) ;
+            }
+            else {
+                bus.publishEvent( event.getEventType(), event.getValue() ) ;
+            }
+        }
+        catch( RuntimeException e ) {
+            logger.error( "Republishing of bridged event failed", e ) ;
+        }
+        finally {
+            republishing = null ;
+        }
+    }
+
+    private void releaseQuietly( FileLock lock ) {
+        if( lock != null ) {
+            try {
+                lock.release() ;
+            }
+            catch( IOException e ) {
+                logger.warn( "Could not release the lock on " + file, e ) ;
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.sandy.common.bus ;
+
+import java.util.HashSet ;
+import java.util.Set ;
+
+/**
+ * An {@link AsyncDispatchPolicy} which queues the events of a subscriber in
+ * multiple lanes of decreasing priority. The dispatch always picks the next
+ * event from the highest priority lane which has events, so that control
+ * events overtake the bulk traffic queued before them. Events of the same
+ * lane are dispatched in the order of publishing.
+ * <p>
+ * Each lane has the given capacity and overflow policy, so that a flood of
+ * low priority events can't take up the space of the high priority ones.
+ * The {@link #CONFLATE} overflow policy is not supported.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class PriorityDispatchPolicy extends AsyncDispatchPolicy {
+
+    private final int numLanes ;
+    private final EventPrioritizer prioritizer ;
+
+    /**
+     * Creates a two lane policy in which the given event types overtake all
+     * the other events.
+     */
+    public PriorityDispatchPolicy( int capacity, int overflowPolicy,
+                                   int... highPriorityEventTypes ) {
+        this( capacity, overflowPolicy, 2, 
+              new EventTypePrioritizer( highPriorityEventTypes ) ) ;
+    }
+
+    /**
+     * @param capacity The capacity of each lane.
+     * @param overflowPolicy The overflow policy of each lane.
+     * @param numLanes The number of priority lanes.
+     * @param prioritizer Assigns the events to the lanes.
+     */
+    public PriorityDispatchPolicy( int capacity, int overflowPolicy,
+                                   int numLanes, EventPrioritizer prioritizer ) {
+
+        super( capacity, overflowPolicy ) ;
+        if( overflowPolicy == CONFLATE ) {
+            throw new IllegalArgumentException( "Priority lanes don't " +
+                                                "support conflation." ) ;
+        }
+        else if( numLanes < 1 ) {
+            throw new IllegalArgumentException( "At least one lane is required." ) ;
+        }
+        this.numLanes = numLanes ;
+        this.prioritizer = prioritizer ;
+    }
+
+    public int getNumLanes() {
+        return this.numLanes ;
+    }
+
+    DispatchQueue createQueue() {
+        return new PriorityDispatchQueue( getCapacity(), getOverflowPolicy(),
+                                          numLanes, prioritizer ) ;
+    }
+
+    /** Puts the given event types in lane 0 and the rest in lane 1. */
+    private static class EventTypePrioritizer implements EventPrioritizer {
+
+        private final Set<Integer> highPriorityTypes = new HashSet<Integer>() ;
+
+        EventTypePrioritizer( int[] eventTypes ) {
+            for( int eventType : eventTypes ) {
+                highPriorityTypes.add( eventType ) ;
+            }
+        }
+
+        public int getPriority( Event event ) {
+            return highPriorityTypes.contains( event.getEventType() ) ? 0 : 1 ;
+        }
+    }
+}
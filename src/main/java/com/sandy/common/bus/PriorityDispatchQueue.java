@@ -0,0 +1,147 @@
+package com.sandy.common.bus ;
+
+import java.util.ArrayDeque ;
+import java.util.concurrent.locks.Condition ;
+import java.util.concurrent.locks.ReentrantLock ;
+
+/**
+ * A {@link DispatchQueue} with multiple FIFO lanes, from which events are
+ * removed in the order of the lane priority. Each lane is bounded and
+ * applies the overflow policy independently of the other lanes.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class PriorityDispatchQueue extends DispatchQueue {
+
+    private final ArrayDeque<Event>[] lanes ;
+    private final Condition[] laneNotFull ;
+    private final int capacity ;
+    private final int overflowPolicy ;
+    private final EventPrioritizer prioritizer ;
+
+    private final ReentrantLock lock = new ReentrantLock() ;
+    private final Condition notEmpty = lock.newCondition() ;
+    private int size = 0 ;
+
+    @SuppressWarnings( "unchecked" )
+    PriorityDispatchQueue( int capacity, int overflowPolicy, int numLanes,
+                           EventPrioritizer prioritizer ) {
+
+        this.capacity = capacity ;
+        this.overflowPolicy = overflowPolicy ;
+        this.prioritizer = prioritizer ;
+        this.lanes = ( ArrayDeque<Event>[] )new ArrayDeque<?>[ numLanes ] ;
+        this.laneNotFull = new Condition[ numLanes ] ;
+
+        for( int i=0; i<numLanes; i++ ) {
+            lanes[i] = new ArrayDeque<Event>() ;
+            laneNotFull[i] = lock.newCondition() ;
+        }
+    }
+
+    private int laneOf( Event event ) {
+        int priority = prioritizer.getPriority( event ) ;
+        return Math.max( 0, Math.min( priority, lanes.length - 1 ) ) ;
+    }
+
+    boolean enqueue( Event event ) {
+
+        int laneIndex = laneOf( event ) ;
+        ArrayDeque<Event> lane = lanes[laneIndex] ;
+
+        lock.lock() ;
+        try {
+            while( lane.size() >= capacity ) {
+                if( overflowPolicy == AsyncDispatchPolicy.DROP_NEWEST ) {
+                    eventDropped( event ) ;
+                    return false ;
+                }
+                else if( overflowPolicy == AsyncDispatchPolicy.DROP_OLDEST ) {
+                    Event oldest = lane.poll() ;
+                    size-- ;
+                    eventDropped( oldest ) ;
+                }
+                else {
+                    try {
+                        laneNotFull[laneIndex].await() ;
+                    }
+                    catch( InterruptedException e ) {
+                        Thread.currentThread().interrupt() ;
+                        eventDropped( event ) ;
+                        return false ;
+                    }
+                }
+            }
+            lane.add( event ) ;
+            size++ ;
+            notEmpty.signal() ;
+            return true ;
+        }
+        finally {
+            lock.unlock() ;
+        }
+    }
+
+    Event take() throws InterruptedException {
+
+        lock.lockInterruptibly() ;
+        try {
+            while( size == 0 ) {
+                notEmpty.await() ;
+            }
+            return removeFirst() ;
+        }
+        finally {
+            lock.unlock() ;
+        }
+    }
+
+    Event poll() {
+
+        lock.lock() ;
+        try {
+            return ( size == 0 ) ? null : removeFirst() ;
+        }
+        finally {
+            lock.unlock() ;
+        }
+    }
+
+    /** Removes the head of the highest priority non empty lane. */
+    private Event removeFirst() {
+
+        for( int i=0; i<lanes.length; i++ ) {
+            Event event = lanes[i].poll() ;
+            if( event != null ) {
+                size-- ;
+                laneNotFull[i].signal() ;
+                return event ;
+            }
+        }
+        return null ;
+    }
+
+    int size() {
+        lock.lock() ;
+        try {
+            return size ;
+        }
+        finally {
+            lock.unlock() ;
+        }
+    }
+
+    void clear() {
+        lock.lock() ;
+        try {
+            for( int i=0; i<lanes.length; i++ ) {
+                lanes[i].clear() ;
+                laneNotFull[i].signalAll() ;
+            }
+            size = 0 ;
+        }
+        finally {
+            lock.unlock() ;
+        }
+    }
+}
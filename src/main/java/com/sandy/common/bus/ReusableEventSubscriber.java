@@ -0,0 +1,18 @@
+package com.sandy.common.bus ;
+
+/**
+ * A marker for synchronous subscribers which opt in to receive pooled event
+ * carriers instead of freshly allocated events. A carrier is owned by the
+ * publishing thread and is reused by its next publish, hence the event passed
+ * to {@link #handleEvent(Event)} is valid only for the duration of the call.
+ * Subscribers should {@link Event#copy()} the events they need to retain.
+ * <p>
+ * If all the subscribers of an event are reusable, or asynchronous with a
+ * {@link RingBufferDispatchPolicy}, publishing the event doesn't allocate.
+ * The marker has no effect on asynchronous registrations, whose events cross 
+ * threads.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public interface ReusableEventSubscriber extends EventSubscriber {
+}
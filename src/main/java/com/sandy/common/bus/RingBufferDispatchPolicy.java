@@ -0,0 +1,34 @@
+package com.sandy.common.bus ;
+
+/**
+ * An {@link AsyncDispatchPolicy} which queues the events of a subscriber in
+ * a preallocated ring buffer instead of a linked queue. Publishing to such a
+ * subscriber allocates no memory per event, which makes this policy suitable
+ * for high rate event streams.
+ * <p>
+ * The events delivered to the subscriber are reusable slots of the ring and
+ * are valid only for the duration of the {@link EventSubscriber#handleEvent(Event)}
+ * call. Subscribers must copy the attributes they need to retain. The
+ * capacity is rounded up to the next power of two and only the
+ * {@link #BLOCK} and {@link #DROP_NEWEST} overflow policies are supported.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class RingBufferDispatchPolicy extends AsyncDispatchPolicy {
+
+    public RingBufferDispatchPolicy( int capacity, int overflowPolicy ) {
+
+        super( capacity, overflowPolicy ) ;
+        if( overflowPolicy != BLOCK && overflowPolicy != DROP_NEWEST ) {
+            throw new IllegalArgumentException( "Ring buffers support only " +
+                                      "BLOCK and DROP_NEWEST overflow policies." ) ;
+        }
+        else if( capacity > ( 1 << 30 ) ) {
+            throw new IllegalArgumentException( "Ring buffer capacity too large." ) ;
+        }
+    }
+
+    DispatchQueue createQueue() {
+        return new RingBufferDispatchQueue( getCapacity(), getOverflowPolicy() ) ;
+    }
+}
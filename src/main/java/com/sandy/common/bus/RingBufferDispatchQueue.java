@@ -0,0 +1,186 @@
+package com.sandy.common.bus ;
+
+import java.util.concurrent.atomic.AtomicLong ;
+import java.util.concurrent.atomic.AtomicLongArray ;
+import java.util.concurrent.locks.LockSupport ;
+
+/**
+ * A {@link DispatchQueue} backed by a preallocated ring of reusable event
+ * slots, in the style of the LMAX Disruptor. Publishers claim a sequence,
+ * copy the event attributes into the slot for that sequence and then mark
+ * the slot as available. No memory is allocated per queued event.
+ * <p>
+ * Sequences are claimed with a compare and set, which is uncontended when
+ * there is a single publishing thread - the case with the default serialized
+ * publishing of the bus. There is exactly one consumer, the dispatch of the
+ * owning proxy. The events removed by the consumer are slots of the ring and
+ * are held by the consumer till it calls {@link #release()}, after which the
+ * slots are handed back to the publishers.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class RingBufferDispatchQueue extends DispatchQueue {
+
+    /** Spins before a blocked publisher starts parking. */
+    private static final int MAX_SPINS = 100 ;
+
+    private final Event[] slots ;
+    private final int mask ;
+    private final int overflowPolicy ;
+
+    /** The sequence published in each slot, -1 if none published yet. */
+    private final AtomicLongArray publishedSequences ;
+
+    /** The highest sequence claimed by the publishers. */
+    private final AtomicLong claimSequence = new AtomicLong( -1 ) ;
+
+    /** The highest sequence released by the consumer. */
+    private final AtomicLong releaseSequence = new AtomicLong( -1 ) ;
+
+    /** The highest sequence removed by the consumer. */
+    private long consumerSequence = -1 ;
+
+    /** The consumer thread, when parked waiting for an event. */
+    private volatile Thread waitingConsumer = null ;
+
+    RingBufferDispatchQueue( int capacity, int overflowPolicy ) {
+
+        int size = Integer.highestOneBit( capacity ) ;
+        if( size < capacity ) {
+            size <<= 1 ;
+        }
+
+        this.slots = new Event[ size ] ;
+        this.mask = size - 1 ;
+        this.overflowPolicy = overflowPolicy ;
+        this.publishedSequences = new AtomicLongArray( size ) ;
+
+        for( int i=0; i<size; i++ ) {
+            slots[i] = new Event() ;
+            publishedSequences.set( i, -1 ) ;
+        }
+    }
+
+    boolean copiesEvents() {
+        return true ;
+    }
+
+    boolean enqueue( Event event ) {
+        return enqueue( event.getEventType(), event.getTopic(), 
+                        event.getValue(), event.getEventTime(), 
+                        event.getTracker() ) ;
+    }
+
+    boolean enqueue( int eventType, String topic, Object value, 
+                     long eventTime ) {
+        return enqueue( eventType, topic, value, eventTime, null ) ;
+    }
+
+    private boolean enqueue( int eventType, String topic, Object value, 
+                             long eventTime, DeliveryTracker tracker ) {
+
+        long sequence = claim() ;
+        if( sequence < 0 ) {
+            eventDropped() ;
+            if( tracker != null ) {
+                tracker.dropped( getSubscriber() ) ;
+            }
+            return false ;
+        }
+
+        int index = ( int )sequence & mask ;
+        slots[index].set( eventType, topic, value, eventTime ) ;
+        slots[index].setTracker( tracker ) ;
+        publishedSequences.set( index, sequence ) ;
+
+        Thread consumer = waitingConsumer ;
+        if( consumer != null ) {
+            LockSupport.unpark( consumer ) ;
+        }
+        return true ;
+    }
+
+    /**
+     * Claims the next sequence. If the ring is full, either waits for the
+     * consumer to free a slot or returns -1, depending on the overflow policy.
+     */
+    private long claim() {
+
+        int spins = 0 ;
+        while( true ) {
+            long current = claimSequence.get() ;
+            long next = current + 1 ;
+
+            if( next - slots.length > releaseSequence.get() ) {
+                if( overflowPolicy == AsyncDispatchPolicy.DROP_NEWEST ) {
+                    return -1 ;
+                }
+                else if( Thread.currentThread().isInterrupted() ) {
+                    return -1 ;
+                }
+                else if( spins++ < MAX_SPINS ) {
+                    Thread.yield() ;
+                }
+                else {
+                    LockSupport.parkNanos( 1000 ) ;
+                }
+            }
+            else if( claimSequence.compareAndSet( current, next ) ) {
+                return next ;
+            }
+        }
+    }
+
+    Event poll() {
+
+        long next = consumerSequence + 1 ;
+        if( publishedSequences.get( ( int )next & mask ) != next ) {
+            return null ;
+        }
+        consumerSequence = next ;
+        return slots[ ( int )next & mask ] ;
+    }
+
+    Event take() throws InterruptedException {
+
+        Event event = poll() ;
+        while( event == null ) {
+            waitingConsumer = Thread.currentThread() ;
+            event = poll() ;
+            if( event == null ) {
+                LockSupport.park( this ) ;
+                if( Thread.interrupted() ) {
+                    waitingConsumer = null ;
+                    throw new InterruptedException() ;
+                }
+                event = poll() ;
+            }
+            waitingConsumer = null ;
+        }
+        return event ;
+    }
+
+    /** Hands the slots removed by the consumer back to the publishers. */
+    void release() {
+
+        long released = releaseSequence.get() ;
+        if( released < consumerSequence ) {
+            for( long seq=released+1; seq<=consumerSequence; seq++ ) {
+                slots[ ( int )seq & mask ].clear() ;
+            }
+            releaseSequence.lazySet( consumerSequence ) ;
+        }
+    }
+
+    int size() {
+        return ( int )Math.max( 0, claimSequence.get() - releaseSequence.get() ) ;
+    }
+
+    /**
+     * Discards the queued events. Called only when the owning proxy has been
+     * stopped, to release any publishers blocked on a full ring.
+     */
+    void clear() {
+        releaseSequence.set( Long.MAX_VALUE / 2 ) ;
+    }
+}
@@ -0,0 +1,24 @@
+package com.sandy.common.bus ;
+
+import java.lang.annotation.Documented ;
+import java.lang.annotation.ElementType ;
+import java.lang.annotation.Retention ;
+import java.lang.annotation.RetentionPolicy ;
+import java.lang.annotation.Target ;
+
+/**
+ * Marks a method of a subscriber registered through
+ * {@link EventBus#addAnnotatedSubscriber(Object, boolean, int...)} as the
+ * handler for event values of its parameter type. A subscribe method has to
+ * be public, non static, return void and take exactly one non primitive
+ * parameter. It receives every event whose value is an instance of the 
+ * parameter type, hence a method taking an <code>Object</code> receives all
+ * the events with non null values.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+@Documented
+@Retention( RetentionPolicy.RUNTIME )
+@Target( ElementType.METHOD )
+public @interface Subscribe {
+}
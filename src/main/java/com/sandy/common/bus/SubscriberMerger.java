@@ -0,0 +1,64 @@
+package com.sandy.common.bus ;
+
+import java.util.ArrayList ;
+import java.util.Collection ;
+import java.util.HashSet ;
+import java.util.List ;
+import java.util.Set ;
+
+/**
+ * Merges subscriber lists into a single array in which each subscriber 
+ * appears once. Subscribers are compared after unwrapping their asynchronous
+ * proxies, so a subscriber registered both synchronously and asynchronously
+ * is retained only in the form it was first added in. 
+ * <p>
+ * The merge is linear in the number of subscribers - presence is checked
+ * against a hash set instead of scanning the merged list. Merging happens 
+ * only while building a {@link DispatchTable}, never while publishing.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class SubscriberMerger {
+
+    private final List<EventSubscriber> merged = new ArrayList<EventSubscriber>() ;
+    private final Set<EventSubscriber> present = new HashSet<EventSubscriber>() ;
+
+    static EventSubscriber unwrap( EventSubscriber subscriber ) {
+        if( subscriber instanceof AsyncEventDispatchProxy ) {
+            return ( ( AsyncEventDispatchProxy )subscriber ).getSubscriber() ;
+        }
+        return subscriber ;
+    }
+
+    SubscriberMerger add( EventSubscriber subscriber ) {
+        if( present.add( unwrap( subscriber ) ) ) {
+            merged.add( subscriber ) ;
+        }
+        return this ;
+    }
+
+    SubscriberMerger addAll( Collection<EventSubscriber> subscribers ) {
+        for( EventSubscriber subscriber : subscribers ) {
+            add( subscriber ) ;
+        }
+        return this ;
+    }
+
+    SubscriberMerger addAll( EventSubscriber[] subscribers ) {
+        for( EventSubscriber subscriber : subscribers ) {
+            add( subscriber ) ;
+        }
+        return this ;
+    }
+
+    boolean isEmpty() {
+        return merged.isEmpty() ;
+    }
+
+    EventSubscriber[] toArray() {
+        if( merged.isEmpty() ) {
+            return DispatchTable.NO_SUBSCRIBERS ;
+        }
+        return merged.toArray( new EventSubscriber[merged.size()] ) ;
+    }
+}
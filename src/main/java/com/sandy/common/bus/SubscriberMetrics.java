@@ -0,0 +1,101 @@
+package com.sandy.common.bus ;
+
+import java.util.concurrent.atomic.AtomicLong ;
+
+/**
+ * Dispatch metrics of a single subscriber - the number of events delivered
+ * and failed, the time spent in the subscriber's handler and, for 
+ * asynchronous subscribers, the time events waited in the dispatch queue.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class SubscriberMetrics {
+
+    private final String subscriberName ;
+    private final AtomicLong numDelivered = new AtomicLong() ;
+    private final AtomicLong numFailures = new AtomicLong() ;
+    private final LatencyHistogram handlerTime ;
+    private final LatencyHistogram queueWaitTime ;
+
+    SubscriberMetrics( EventSubscriber subscriber ) {
+        this( subscriber.getClass().getName() + "@" + 
+              Integer.toHexString( System.identityHashCode( subscriber ) ),
+              new LatencyHistogram(), new LatencyHistogram() ) ;
+    }
+
+    private SubscriberMetrics( String subscriberName, 
+                               LatencyHistogram handlerTime,
+                               LatencyHistogram queueWaitTime ) {
+        this.subscriberName = subscriberName ;
+        this.handlerTime = handlerTime ;
+        this.queueWaitTime = queueWaitTime ;
+    }
+
+    void recordHandled( int numEvents, long handlerNanos ) {
+        numDelivered.addAndGet( numEvents ) ;
+        handlerTime.record( handlerNanos ) ;
+    }
+
+    void recordFailure( int numEvents, long handlerNanos ) {
+        numFailures.addAndGet( numEvents ) ;
+        handlerTime.record( handlerNanos ) ;
+    }
+
+    void recordQueueWait( long waitNanos ) {
+        queueWaitTime.record( waitNanos ) ;
+    }
+
+    /** The class name and identity hash of the subscriber. */
+    public String getSubscriberName() {
+        return this.subscriberName ;
+    }
+
+    /** The number of events successfully handled by the subscriber. */
+    public long getNumDelivered() {
+        return this.numDelivered.get() ;
+    }
+
+    /** The number of events for which the subscriber threw an exception. */
+    public long getNumFailures() {
+        return this.numFailures.get() ;
+    }
+
+    /**
+     * The time spent in each call to the subscriber's handler. A batch 
+     * delivered in one call is recorded as a single sample.
+     */
+    public LatencyHistogram getHandlerTime() {
+        return this.handlerTime ;
+    }
+
+    /**
+     * The time between the publish and the start of the dispatch of each 
+     * event. Recorded only for asynchronous subscribers.
+     */
+    public LatencyHistogram getQueueWaitTime() {
+        return this.queueWaitTime ;
+    }
+
+    SubscriberMetrics copy() {
+        SubscriberMetrics copy = new SubscriberMetrics( subscriberName, 
+                                                        handlerTime.copy(), 
+                                                        queueWaitTime.copy() ) ;
+        copy.numDelivered.set( numDelivered.get() ) ;
+        copy.numFailures.set( numFailures.get() ) ;
+        return copy ;
+    }
+
+    void reset() {
+        numDelivered.set( 0 ) ;
+        numFailures.set( 0 ) ;
+        handlerTime.reset() ;
+        queueWaitTime.reset() ;
+    }
+
+    public String toString() {
+        return subscriberName + " delivered=" + getNumDelivered() + 
+               " failures=" + getNumFailures() + 
+               " handler[" + handlerTime + "]" + 
+               " queueWait[" + queueWaitTime + "]" ;
+    }
+}
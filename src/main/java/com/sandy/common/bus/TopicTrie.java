@@ -0,0 +1,210 @@
+package com.sandy.common.bus ;
+
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.concurrent.ConcurrentHashMap ;
+
+/**
+ * An immutable trie compiled from the topic subscriptions of an 
+ * {@link EventBus}. Topics are hierarchical names with segments separated by
+ * dots, for example <code>orders.equity.filled</code>. Subscription patterns
+ * can use two wildcards, each of which must be a whole segment:
+ * <ul>
+ *   <li><code>*</code> - matches exactly one segment, for example
+ *       <code>orders.*.filled</code></li>
+ *   <li><code>#</code> - matches zero or more segments, for example 
+ *       <code>orders.#</code></li>
+ * </ul>
+ * A topic is resolved by walking the trie along its segments, following the
+ * literal, <code>*</code> and <code>#</code> branches at each node. The 
+ * resolved subscriber arrays are cached per topic; the cache lives and dies
+ * with the trie and is hence invalidated when the registrations change.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+class TopicTrie {
+
+    static final String SINGLE_SEGMENT_WILDCARD = "*" ;
+    static final String MULTI_SEGMENT_WILDCARD  = "#" ;
+
+    static final TopicTrie EMPTY = new TopicTrie( 
+                       Collections.<String, List<EventSubscriber>>emptyMap() ) ;
+
+    /** Upper limit on the number of resolved topics to cache. */
+    private static final int MAX_CACHED_TOPICS = 4096 ;
+
+    private static class Node {
+
+        final Map<String, Node> children = new HashMap<String, Node>() ;
+        Node singleWildcard = null ;
+        Node multiWildcard = null ;
+        EventSubscriber[] subscribers = null ;
+
+        Node child( String segment ) {
+
+            if( SINGLE_SEGMENT_WILDCARD.equals( segment ) ) {
+                if( singleWildcard == null ) {
+                    singleWildcard = new Node() ;
+                }
+                return singleWildcard ;
+            }
+            else if( MULTI_SEGMENT_WILDCARD.equals( segment ) ) {
+                if( multiWildcard == null ) {
+                    multiWildcard = new Node() ;
+                }
+                return multiWildcard ;
+            }
+
+            Node node = children.get( segment ) ;
+            if( node == null ) {
+                node = new Node() ;
+                children.put( segment, node ) ;
+            }
+            return node ;
+        }
+    }
+
+    private final Node root = new Node() ;
+    private final boolean empty ;
+
+    private final Map<String, EventSubscriber[]> resolvedTopicCache =
+                           new ConcurrentHashMap<String, EventSubscriber[]>() ;
+
+    TopicTrie( Map<String, List<EventSubscriber>> topicSubscribers ) {
+
+        boolean empty = true ;
+        for( Map.Entry<String, List<EventSubscriber>> entry : 
+             topicSubscribers.entrySet() ) {
+
+            if( entry.getValue().isEmpty() ) {
+                continue ;
+            }
+
+            Node node = root ;
+            for( String segment : split( entry.getKey() ) ) {
+                node = node.child( segment ) ;
+            }
+            node.subscribers = entry.getValue().toArray( 
+                               new EventSubscriber[entry.getValue().size()] ) ;
+            empty = false ;
+        }
+        this.empty = empty ;
+    }
+
+    /**
+     * Splits a topic or pattern into its segments, validating that it has no
+     * empty segments.
+     *
+     * @throws IllegalArgumentException If the topic is null or malformed.
+     */
+    static List<String> split( String topic ) {
+
+        validateTopic( topic ) ;
+
+        List<String> segments = new ArrayList<String>() ;
+        int start = 0 ;
+        while( start <= topic.length() ) {
+            int end = topic.indexOf( '.', start ) ;
+            if( end == -1 ) {
+                end = topic.length() ;
+            }
+            segments.add( topic.substring( start, end ) ) ;
+            start = end + 1 ;
+        }
+        return segments ;
+    }
+
+    /**
+     * Validates that a topic or pattern has no empty segments, without 
+     * allocating its segments.
+     *
+     * @throws IllegalArgumentException If the topic is null or malformed.
+     */
+    static void validateTopic( String topic ) {
+
+        if( topic == null || topic.length() == 0 ) {
+            throw new IllegalArgumentException( "Topic can't be empty." ) ;
+        }
+        if( topic.charAt( 0 ) == '.' || topic.charAt( topic.length()-1 ) == '.' ||
+            topic.indexOf( ".." ) != -1 ) {
+            throw new IllegalArgumentException( "Topic " + topic + 
+                                                " has an empty segment." ) ;
+        }
+    }
+
+    /**
+     * Validates a subscription pattern.
+     *
+     * @throws IllegalArgumentException If a segment is empty or has a 
+     *         wildcard character mixed with other characters.
+     */
+    static void validatePattern( String pattern ) {
+
+        for( String segment : split( pattern ) ) {
+            if( segment.length() > 1 && ( segment.indexOf( '*' ) != -1 || 
+                                          segment.indexOf( '#' ) != -1 ) ) {
+                throw new IllegalArgumentException( "Wildcard in pattern " + 
+                          pattern + " should be a complete segment." ) ;
+            }
+        }
+    }
+
+    /**
+     * Returns the subscribers of all the patterns matching the given topic,
+     * each subscriber appearing once. The returned array is shared and must
+     * not be modified by the caller.
+     *
+     * @throws IllegalArgumentException If the topic is null or malformed,
+     *         whether or not there are any topic subscriptions.
+     */
+    EventSubscriber[] getSubscribers( String topic ) {
+
+        // The cached topics were validated when they were first resolved
+        if( topic == null || empty ) {
+            validateTopic( topic ) ;
+            return DispatchTable.NO_SUBSCRIBERS ;
+        }
+
+        EventSubscriber[] subscribers = resolvedTopicCache.get( topic ) ;
+        if( subscribers == null ) {
+            SubscriberMerger merger = new SubscriberMerger() ;
+            match( root, split( topic ), 0, merger ) ;
+            subscribers = merger.toArray() ;
+            if( resolvedTopicCache.size() < MAX_CACHED_TOPICS ) {
+                resolvedTopicCache.put( topic, subscribers ) ;
+            }
+        }
+        return subscribers ;
+    }
+
+    private void match( Node node, List<String> segments, int index, 
+                        SubscriberMerger merger ) {
+
+        if( index == segments.size() ) {
+            if( node.subscribers != null ) {
+                merger.addAll( node.subscribers ) ;
+            }
+            // A trailing multi segment wildcard also matches zero segments
+            if( node.multiWildcard != null ) {
+                match( node.multiWildcard, segments, index, merger ) ;
+            }
+            return ;
+        }
+
+        Node child = node.children.get( segments.get( index ) ) ;
+        if( child != null ) {
+            match( child, segments, index + 1, merger ) ;
+        }
+        if( node.singleWildcard != null ) {
+            match( node.singleWildcard, segments, index + 1, merger ) ;
+        }
+        if( node.multiWildcard != null ) {
+            for( int i=index; i<=segments.size(); i++ ) {
+                match( node.multiWildcard, segments, i, merger ) ;
+            }
+        }
+    }
+}
@@ -110,6 +110,21 @@ public class XLReader {
         return rows ;
     }
 
+    /**
+     * Streams the rows of an xlsx sheet to the handler one at a time, with
+     * the POI event model, instead of loading the workbook in memory. The 
+     * cell values of the rows are the ones {@link #getRows(File, String, int, int, int)}
+     * returns, accessible through {@link XLSRow#getRawCellValue(int)}.
+     */
+    public void streamRows( File file, String sheetName, 
+                            int startRow, int startCol, int endCol,
+                            XLSRowHandler handler ) 
+        throws Exception {
+        
+        new XLSXStreamReader( file ).readRows( sheetName, null, startRow, 
+                                               startCol, endCol, handler ) ;
+    }
+
     private Sheet getSheet( Workbook workbook, String sheetName ) {
 
         Sheet sheet = null ;
@@ -0,0 +1,77 @@
+package com.sandy.common.xlsutil;
+
+import java.io.File ;
+
+/**
+ * A sheet of a file to be read by an {@link XLSBatchReader}, along with the
+ * outcome of reading it. A job which fails doesn't affect the other jobs of 
+ * the batch - the exception is recorded against the job and can be checked
+ * once the batch is done.
+ */
+public class XLSBatchJob {
+    
+    private File file = null ;
+    private String sheetName = null ;
+    private XLSRowFilter filter = null ;
+    private int startRow = 0 ;
+    private int startCol = 0 ;
+    private int endCol = 0 ;
+    
+    private volatile int numRows = 0 ;
+    private volatile Exception error = null ;
+    
+    XLSBatchJob( File file, String sheetName, XLSRowFilter filter,
+                 int startRow, int startCol, int endCol ) {
+        this.file = file ;
+        this.sheetName = sheetName ;
+        this.filter = filter ;
+        this.startRow = startRow ;
+        this.startCol = startCol ;
+        this.endCol = endCol ;
+    }
+    
+    void run( XLSBatchSink sink ) throws Exception {
+        
+        new XLSWrapper( file ).streamRows( sheetName, filter, startRow, 
+                                           startCol, endCol, row -> {
+            numRows++ ;
+            return sink.handleRow( this, row ) ;
+        } ) ;
+    }
+    
+    void reset() {
+        this.numRows = 0 ;
+        this.error = null ;
+    }
+    
+    void setError( Exception error ) {
+        this.error = error ;
+    }
+    
+    public File getFile() {
+        return this.file ;
+    }
+    
+    /** Returns the name of the sheet, null if the first sheet is read. */
+    public String getSheetName() {
+        return this.sheetName ;
+    }
+    
+    /** Returns the number of rows handed over to the sink so far. */
+    public int getNumRows() {
+        return this.numRows ;
+    }
+    
+    /** Returns the exception which failed the job, null if it succeeded. */
+    public Exception getError() {
+        return this.error ;
+    }
+    
+    public boolean isFailed() {
+        return this.error != null ;
+    }
+    
+    public String toString() {
+        return file.getName() + ( sheetName == null ? "" : "[" + sheetName + "]" ) ;
+    }
+}
@@ -0,0 +1,19 @@
+package com.sandy.common.xlsutil;
+
+/**
+ * Receives the progress of an {@link XLSBatchReader}. Like the sink, the 
+ * listener is called concurrently by the threads reading the jobs.
+ */
+public interface XLSBatchListener {
+    
+    void jobStarted( XLSBatchJob job ) ;
+    
+    /**
+     * Called when a job is done, whether it succeeded or failed. 
+     * 
+     * @param numJobsDone the number of jobs of the batch done so far, 
+     *        including this one.
+     * @param numJobs the total number of jobs of the batch.
+     */
+    void jobFinished( XLSBatchJob job, int numJobsDone, int numJobs ) ;
+}
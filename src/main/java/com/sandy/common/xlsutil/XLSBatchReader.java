@@ -0,0 +1,220 @@
+package com.sandy.common.xlsutil;
+
+import java.io.File ;
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.concurrent.ExecutionException ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.Future ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+/**
+ * Reads the sheets of many files concurrently. Each sheet added to the batch
+ * is a {@link XLSBatchJob}, streamed with {@link XLSWrapper#streamRows} on a
+ * thread of the executor. The rows can either be merged into one list or 
+ * handed over to a sink as they are read.
+ * <p>
+ * The jobs are isolated from each other - an exception reading a job is 
+ * recorded against the job and reported to the listener, and the rest of the
+ * batch carries on. 
+ */
+public class XLSBatchReader {
+    
+    private ExecutorService executor = null ;
+    private int numThreads = 0 ;
+    private XLSBatchListener listener = null ;
+    private List<XLSBatchJob> jobs = new ArrayList<>() ;
+    
+    /**
+     * Creates a reader which reads the jobs on a pool of the given number of
+     * threads, created for each batch and shut down once it is done.
+     */
+    public XLSBatchReader( int numThreads ) {
+        if( numThreads < 1 ) {
+            throw new IllegalArgumentException( "Number of threads should be positive." ) ;
+        }
+        this.numThreads = numThreads ;
+    }
+    
+    /**
+     * Creates a reader which reads the jobs on the given executor, for example
+     * a shared pool or a ForkJoinPool. The executor is not shut down by the 
+     * reader.
+     */
+    public XLSBatchReader( ExecutorService executor ) {
+        this.executor = executor ;
+    }
+    
+    public void setListener( XLSBatchListener listener ) {
+        this.listener = listener ;
+    }
+    
+    public XLSBatchJob addFile( File file, int startRow, int startCol, int endCol ) {
+        return this.addSheet( file, null, null, startRow, startCol, endCol ) ;
+    }
+    
+    public XLSBatchJob addSheet( File file, String sheetName, 
+                                 int startRow, int startCol, int endCol ) {
+        return this.addSheet( file, sheetName, null, startRow, startCol, endCol ) ;
+    }
+    
+    /**
+     * Adds a sheet to the batch. The parameters are the ones of 
+     * {@link XLSWrapper#getRows(String, XLSRowFilter, int, int, int)}.
+     */
+    public XLSBatchJob addSheet( File file, String sheetName, XLSRowFilter filter, 
+                                 int startRow, int startCol, int endCol ) {
+        
+        XLSBatchJob job = new XLSBatchJob( file, sheetName, filter, 
+                                           startRow, startCol, endCol ) ;
+        jobs.add( job ) ;
+        return job ;
+    }
+    
+    public List<XLSBatchJob> getJobs() {
+        return Collections.unmodifiableList( jobs ) ;
+    }
+    
+    /**
+     * Reads all the jobs and returns their rows merged in the order the jobs
+     * were added. The rows of the failed jobs are left out.
+     */
+    public List<XLSRow> readRows() throws Exception {
+        
+        final Map<XLSBatchJob, List<XLSRow>> jobRows = new HashMap<>() ;
+        for( XLSBatchJob job : jobs ) {
+            jobRows.put( job, new ArrayList<XLSRow>() ) ;
+        }
+        
+        // Each list is filled by the one thread reading its job
+        streamRows( ( job, row ) -> jobRows.get( job ).add( row ) ) ;
+        
+        List<XLSRow> rows = new ArrayList<>() ;
+        for( XLSBatchJob job : jobs ) {
+            if( !job.isFailed() ) {
+                rows.addAll( jobRows.get( job ) ) ;
+            }
+        }
+        return rows ;
+    }
+    
+    /**
+     * Reads all the jobs concurrently, handing over the rows to the sink as
+     * they are read, and returns once all the jobs are done. The outcome of
+     * each job can be checked with {@link XLSBatchJob#getError()}.
+     * <p>
+     * If the listener fails, or an error escapes a job, the batch is aborted
+     * - the jobs not yet started are cancelled, the running ones stop at 
+     * their next row, and the sink is not called once this method returns.
+     * 
+     * @throws InterruptedException if interrupted while waiting, in which 
+     *         case the jobs not yet done are cancelled.
+     */
+    public void streamRows( XLSBatchSink sink ) throws Exception {
+        
+        ExecutorService pool = executor ;
+        if( pool == null ) {
+            pool = Executors.newFixedThreadPool( Math.min( numThreads, 
+                                                 Math.max( 1, jobs.size() ) ) ) ;
+        }
+        
+        Batch batch = new Batch() ;
+        List<Future<?>> futures = new ArrayList<>() ;
+        try {
+            for( XLSBatchJob job : jobs ) {
+                job.reset() ;
+                futures.add( pool.submit( () -> runJob( job, sink, batch ) ) ) ;
+            }
+            for( Future<?> future : futures ) {
+                future.get() ;
+            }
+        }
+        catch( InterruptedException e ) {
+            batch.abort() ;
+            cancel( futures ) ;
+            throw e ;
+        }
+        catch( ExecutionException e ) {
+            // Exceptions are recorded against the jobs, only errors and listener
+            // failures get here
+            batch.abort() ;
+            cancel( futures ) ;
+            batch.awaitRunningJobs() ;
+            throw new Exception( "Batch read aborted.", e.getCause() ) ;
+        }
+        finally {
+            if( executor == null ) {
+                pool.shutdownNow() ;
+            }
+        }
+    }
+    
+    private void cancel( List<Future<?>> futures ) {
+        for( Future<?> future : futures ) {
+            future.cancel( true ) ;
+        }
+    }
+    
+    private void runJob( XLSBatchJob job, XLSBatchSink sink, Batch batch ) {
+        
+        if( !batch.jobStarting() ) {
+            return ;
+        }
+        try {
+            if( listener != null ) {
+                listener.jobStarted( job ) ;
+            }
+            try {
+                job.run( ( j, row ) -> !batch.aborted && sink.handleRow( j, row ) ) ;
+            }
+            catch( Exception e ) {
+                job.setError( e ) ;
+            }
+            if( listener != null && !batch.aborted ) {
+                listener.jobFinished( job, batch.numJobsDone.incrementAndGet(), 
+                                      jobs.size() ) ;
+            }
+        }
+        finally {
+            batch.jobEnded() ;
+        }
+    }
+    
+    /** 
+     * The state of a batch being read, shared by its jobs. Tracks the running
+     * jobs, so that an aborted batch can wait for them to stop.
+     */
+    private static class Batch {
+        
+        private final AtomicInteger numJobsDone = new AtomicInteger() ;
+        private volatile boolean aborted = false ;
+        private int numRunningJobs = 0 ;
+        
+        synchronized boolean jobStarting() {
+            if( aborted ) {
+                return false ;
+            }
+            numRunningJobs++ ;
+            return true ;
+        }
+        
+        synchronized void jobEnded() {
+            numRunningJobs-- ;
+            notifyAll() ;
+        }
+        
+        void abort() {
+            aborted = true ;
+        }
+        
+        synchronized void awaitRunningJobs() throws InterruptedException {
+            while( numRunningJobs > 0 ) {
+                wait() ;
+            }
+        }
+    }
+}
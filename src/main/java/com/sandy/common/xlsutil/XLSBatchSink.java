@@ -0,0 +1,17 @@
+package com.sandy.common.xlsutil;
+
+/**
+ * Receives the rows read by an {@link XLSBatchReader}. The jobs of a batch
+ * are read concurrently, hence a sink is called from multiple threads at the
+ * same time and has to be thread safe. The rows of a job are handed over in
+ * order, by the thread reading the job.
+ */
+public interface XLSBatchSink {
+    
+    /**
+     * Handles a row of the given job.
+     * 
+     * @return true to continue reading, false to stop reading the job's sheet.
+     */
+    boolean handleRow( XLSBatchJob job, XLSRow row ) ;
+}
@@ -0,0 +1,442 @@
+package com.sandy.common.xlsutil;
+
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.BitSet ;
+import java.util.Collections ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+import com.sandy.common.xlsutil.filter.NumFilter ;
+
+/**
+ * A typed column of an {@link XLSColumnarSheet}. The values are held in a
+ * primitive array of the column's type - double, long or boolean - and the
+ * strings are dictionary encoded, each distinct string being held once and
+ * the rows holding an int code into the dictionary. Empty cells are marked 
+ * in a null bitmap.
+ * <p>
+ * The column is built a row at a time and its type is widened as the values
+ * come in - whole numbers make a long column, which becomes a double column 
+ * on the first fractional number, and strings or a mix of numbers and 
+ * booleans make a string column, into which the earlier values are rendered.
+ * A column without any values is a string column.
+ * <p>
+ * The select methods filter the rows on the native values and return the
+ * matching rows as a bitmap, which can be combined with the bitmaps of the
+ * other columns with {@link BitSet#and(BitSet)} and {@link BitSet#or(BitSet)}
+ * and passed on to the aggregations. A null set of rows stands for all the 
+ * rows of the column.
+ */
+public class XLSColumn {
+    
+    public static final int TYPE_DOUBLE  = 1 ;
+    public static final int TYPE_LONG    = 2 ;
+    public static final int TYPE_BOOLEAN = 3 ;
+    public static final int TYPE_STRING  = 4 ;
+    
+    // The type of a column being built, till its first value is added
+    private static final int TYPE_NONE = 0 ;
+    
+    private static final int INITIAL_CAPACITY = 16 ;
+    
+    private String name = null ;
+    private int type = TYPE_NONE ;
+    private int numRows = 0 ;
+    private BitSet nulls = new BitSet() ;
+    
+    private double[] doubleValues = null ;
+    private long[] longValues = null ;
+    private boolean[] booleanValues = null ;
+    
+    private int[] stringCodes = null ;
+    private List<String> dictionary = null ;
+    private Map<String, Integer> dictionaryCodes = null ;
+    
+    XLSColumn( String name ) {
+        this.name = name ;
+    }
+    
+    void addNull() {
+        if( type != TYPE_NONE ) {
+            ensureCapacity() ;
+        }
+        nulls.set( numRows++ ) ;
+    }
+    
+    void addNumber( double value ) {
+        
+        boolean wholeNumber = isWholeNumber( value ) ;
+        if( type == TYPE_NONE ) {
+            setType( wholeNumber ? TYPE_LONG : TYPE_DOUBLE ) ;
+        }
+        else if( type == TYPE_LONG && !wholeNumber ) {
+            widenToDouble() ;
+        }
+        else if( type == TYPE_BOOLEAN ) {
+            widenToString() ;
+        }
+        
+        switch( type ) {
+            case TYPE_LONG:
+                ensureCapacity() ;
+                longValues[numRows++] = ( long )value ;
+                break ;
+            case TYPE_DOUBLE:
+                ensureCapacity() ;
+                doubleValues[numRows++] = value ;
+                break ;
+            default:
+                addString( XLSUtil.formatNumericValue( value ) ) ;
+                break ;
+        }
+    }
+    
+    void addBoolean( boolean value ) {
+        
+        if( type == TYPE_NONE ) {
+            setType( TYPE_BOOLEAN ) ;
+        }
+        else if( type != TYPE_BOOLEAN ) {
+            addString( Boolean.toString( value ) ) ;
+            return ;
+        }
+        ensureCapacity() ;
+        booleanValues[numRows++] = value ;
+    }
+    
+    void addString( String value ) {
+        
+        if( type == TYPE_NONE ) {
+            setType( TYPE_STRING ) ;
+        }
+        else if( type != TYPE_STRING ) {
+            widenToString() ;
+        }
+        ensureCapacity() ;
+        stringCodes[numRows++] = encode( value ) ;
+    }
+    
+    /** Completes the column, trimming the value array to the number of rows. */
+    void trim() {
+        
+        if( type == TYPE_NONE ) {
+            setType( TYPE_STRING ) ;
+        }
+        switch( type ) {
+            case TYPE_DOUBLE:
+                doubleValues = Arrays.copyOf( doubleValues, numRows ) ;
+                break ;
+            case TYPE_LONG:
+                longValues = Arrays.copyOf( longValues, numRows ) ;
+                break ;
+            case TYPE_BOOLEAN:
+                booleanValues = Arrays.copyOf( booleanValues, numRows ) ;
+                break ;
+            default:
+                stringCodes = Arrays.copyOf( stringCodes, numRows ) ;
+                break ;
+        }
+    }
+    
+    private void setType( int type ) {
+        
+        int capacity = Math.max( INITIAL_CAPACITY, numRows ) ;
+        this.type = type ;
+        switch( type ) {
+            case TYPE_DOUBLE:
+                doubleValues = new double[ capacity ] ;
+                break ;
+            case TYPE_LONG:
+                longValues = new long[ capacity ] ;
+                break ;
+            case TYPE_BOOLEAN:
+                booleanValues = new boolean[ capacity ] ;
+                break ;
+            default:
+                stringCodes = new int[ capacity ] ;
+                dictionary = new ArrayList<>() ;
+                dictionaryCodes = new HashMap<>() ;
+                break ;
+        }
+    }
+    
+    private void ensureCapacity() {
+        switch( type ) {
+            case TYPE_DOUBLE:
+                if( numRows == doubleValues.length ) {
+                    doubleValues = Arrays.copyOf( doubleValues, numRows*2 ) ;
+                }
+                break ;
+            case TYPE_LONG:
+                if( numRows == longValues.length ) {
+                    longValues = Arrays.copyOf( longValues, numRows*2 ) ;
+                }
+                break ;
+            case TYPE_BOOLEAN:
+                if( numRows == booleanValues.length ) {
+                    booleanValues = Arrays.copyOf( booleanValues, numRows*2 ) ;
+                }
+                break ;
+            default:
+                if( numRows == stringCodes.length ) {
+                    stringCodes = Arrays.copyOf( stringCodes, numRows*2 ) ;
+                }
+                break ;
+        }
+    }
+    
+    private void widenToDouble() {
+        doubleValues = new double[ longValues.length ] ;
+        for( int i=0; i<numRows; i++ ) {
+            doubleValues[i] = longValues[i] ;
+        }
+        longValues = null ;
+        type = TYPE_DOUBLE ;
+    }
+    
+    private void widenToString() {
+        
+        String[] values = new String[ numRows ] ;
+        for( int i=0; i<numRows; i++ ) {
+            values[i] = getString( i ) ;
+        }
+        
+        doubleValues = null ;
+        longValues = null ;
+        booleanValues = null ;
+        setType( TYPE_STRING ) ;
+        for( int i=0; i<numRows; i++ ) {
+            if( values[i] != null ) {
+                stringCodes[i] = encode( values[i] ) ;
+            }
+        }
+    }
+    
+    private int encode( String value ) {
+        Integer code = dictionaryCodes.get( value ) ;
+        if( code == null ) {
+            code = dictionary.size() ;
+            dictionary.add( value ) ;
+            dictionaryCodes.put( value, code ) ;
+        }
+        return code ;
+    }
+    
+    // Whole numbers beyond 2^53 are not exactly representable as doubles
+    private static boolean isWholeNumber( double value ) {
+        return value == Math.rint( value ) && Math.abs( value ) < ( 1L << 53 ) ;
+    }
+    
+    public String getName() {
+        return this.name ;
+    }
+    
+    /** Returns one of the TYPE_ constants of this class. */
+    public int getType() {
+        return this.type ;
+    }
+    
+    public boolean isNumeric() {
+        return type == TYPE_DOUBLE || type == TYPE_LONG ;
+    }
+    
+    public int getNumRows() {
+        return this.numRows ;
+    }
+    
+    public boolean isNull( int row ) {
+        return nulls.get( row ) ;
+    }
+    
+    /** Returns the value of a numeric column, 0 for a null. */
+    public double getDouble( int row ) {
+        if( type == TYPE_LONG ) {
+            return longValues[row] ;
+        }
+        checkType( TYPE_DOUBLE ) ;
+        return doubleValues[row] ;
+    }
+    
+    /** Returns the value of a long column, 0 for a null. */
+    public long getLong( int row ) {
+        checkType( TYPE_LONG ) ;
+        return longValues[row] ;
+    }
+    
+    /** Returns the value of a boolean column, false for a null. */
+    public boolean getBoolean( int row ) {
+        checkType( TYPE_BOOLEAN ) ;
+        return booleanValues[row] ;
+    }
+    
+    /** 
+     * Returns the value of a column of any type as a string, rendered the way
+     * {@link XLSUtil#getCellValues} renders it, or null for a null.
+     */
+    public String getString( int row ) {
+        
+        if( nulls.get( row ) ) {
+            return null ;
+        }
+        switch( type ) {
+            case TYPE_DOUBLE:
+                return XLSUtil.formatNumericValue( doubleValues[row] ) ;
+            case TYPE_LONG:
+                return Long.toString( longValues[row] ) ;
+            case TYPE_BOOLEAN:
+                return Boolean.toString( booleanValues[row] ) ;
+            default:
+                return dictionary.get( stringCodes[row] ) ;
+        }
+    }
+    
+    /** Returns the distinct strings of a string column. */
+    public List<String> getDictionary() {
+        checkType( TYPE_STRING ) ;
+        return Collections.unmodifiableList( dictionary ) ;
+    }
+    
+    /**
+     * Selects the rows of a numeric column whose value compares with the 
+     * given value as indicated by one of the {@link NumFilter} compare 
+     * indicators. Nulls are never selected.
+     */
+    public BitSet select( int compareIndicator, double compareValue ) {
+        
+        if( !isNumeric() ) {
+            throw new IllegalStateException( "Column " + name + " is not numeric." ) ;
+        }
+        
+        BitSet rows = new BitSet( numRows ) ;
+        for( int i=0; i<numRows; i++ ) {
+            double value = ( type == TYPE_LONG ) ? longValues[i] : doubleValues[i] ;
+            boolean match = false ;
+            switch( compareIndicator ) {
+                case NumFilter.GT:
+                    match = value > compareValue ;
+                    break ;
+                case NumFilter.LT:
+                    match = value < compareValue ;
+                    break ;
+                case NumFilter.EQ:
+                    match = value == compareValue ;
+                    break ;
+                case NumFilter.GTE:
+                    match = value >= compareValue ;
+                    break ;
+                case NumFilter.LTE:
+                    match = value <= compareValue ;
+                    break ;
+            }
+            if( match ) {
+                rows.set( i ) ;
+            }
+        }
+        rows.andNot( nulls ) ;
+        return rows ;
+    }
+    
+    /**
+     * Selects the rows whose value equals the given string. For a string 
+     * column the string is looked up once in the dictionary and the rows are
+     * matched on their codes. For the other types the rendered values are 
+     * compared.
+     */
+    public BitSet selectEquals( String value ) {
+        
+        BitSet rows = new BitSet( numRows ) ;
+        if( type == TYPE_STRING ) {
+            Integer code = dictionaryCodes.get( value ) ;
+            if( code == null ) {
+                return rows ;
+            }
+            for( int i=0; i<numRows; i++ ) {
+                if( stringCodes[i] == code ) {
+                    rows.set( i ) ;
+                }
+            }
+            rows.andNot( nulls ) ;
+        }
+        else {
+            for( int i=0; i<numRows; i++ ) {
+                if( value.equals( getString( i ) ) ) {
+                    rows.set( i ) ;
+                }
+            }
+        }
+        return rows ;
+    }
+    
+    /** Returns the number of non null values in the given rows. */
+    public int count( BitSet rows ) {
+        BitSet selected = selectNonNull( rows ) ;
+        return selected.cardinality() ;
+    }
+    
+    public double sum( BitSet rows ) {
+        
+        double sum = 0 ;
+        BitSet selected = selectNonNull( rows ) ;
+        for( int i=selected.nextSetBit( 0 ); i>=0; i=selected.nextSetBit( i+1 ) ) {
+            sum += getDouble( i ) ;
+        }
+        return sum ;
+    }
+    
+    /** Returns the mean of the non null values, NaN if there are none. */
+    public double mean( BitSet rows ) {
+        int count = count( rows ) ;
+        return ( count == 0 ) ? Double.NaN : sum( rows ) / count ;
+    }
+    
+    /** Returns the smallest non null value, NaN if there are none. */
+    public double min( BitSet rows ) {
+        
+        double min = Double.NaN ;
+        BitSet selected = selectNonNull( rows ) ;
+        for( int i=selected.nextSetBit( 0 ); i>=0; i=selected.nextSetBit( i+1 ) ) {
+            double value = getDouble( i ) ;
+            if( Double.isNaN( min ) || value < min ) {
+                min = value ;
+            }
+        }
+        return min ;
+    }
+    
+    /** Returns the largest non null value, NaN if there are none. */
+    public double max( BitSet rows ) {
+        
+        double max = Double.NaN ;
+        BitSet selected = selectNonNull( rows ) ;
+        for( int i=selected.nextSetBit( 0 ); i>=0; i=selected.nextSetBit( i+1 ) ) {
+            double value = getDouble( i ) ;
+            if( Double.isNaN( max ) || value > max ) {
+                max = value ;
+            }
+        }
+        return max ;
+    }
+    
+    private BitSet selectNonNull( BitSet rows ) {
+        
+        BitSet selected = new BitSet( numRows ) ;
+        if( rows == null ) {
+            selected.set( 0, numRows ) ;
+        }
+        else {
+            selected.or( rows ) ;
+            selected.clear( numRows, Math.max( numRows, selected.length() ) ) ;
+        }
+        selected.andNot( nulls ) ;
+        return selected ;
+    }
+    
+    private void checkType( int expectedType ) {
+        if( type != expectedType ) {
+            throw new IllegalStateException( "Column " + name + " is of type " + 
+                                             type + ", not " + expectedType + "." ) ;
+        }
+    }
+}
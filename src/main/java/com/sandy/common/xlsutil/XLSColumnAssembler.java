@@ -0,0 +1,188 @@
+package com.sandy.common.xlsutil;
+
+import java.util.Arrays ;
+
+/**
+ * Assembles the cells reported by the streaming readers into the typed 
+ * columns of an {@link XLSColumnarSheet}. The header row is assembled as by
+ * {@link XLSRowAssembler}, to build the sheet config. The values of each 
+ * row after it are held natively till the end of the row and then added to 
+ * the columns. The rows missing from the sheet are added as nulls.
+ */
+class XLSColumnAssembler extends XLSRowAssembler {
+    
+    private static final byte KIND_NULL    = 0 ;
+    private static final byte KIND_NUMBER  = 1 ;
+    private static final byte KIND_BOOLEAN = 2 ;
+    private static final byte KIND_STRING  = 3 ;
+    
+    private XLSColumn[] columns = null ;
+    private int numDataRows = 0 ;
+    
+    // The values of the current row, by column
+    private byte[] kinds = null ;
+    private double[] numbers = null ;
+    private boolean[] booleans = null ;
+    private String[] strings = null ;
+    
+    XLSColumnAssembler( int startRow, int startCol, int endCol ) {
+        super( null, null, startRow, startCol, endCol, null ) ;
+    }
+    
+    @Override
+    boolean isFormulaTextUsed() {
+        return false ;
+    }
+    
+    @Override
+    void startRow( int rowIndex ) {
+        super.startRow( rowIndex ) ;
+        if( kinds != null ) {
+            Arrays.fill( kinds, KIND_NULL ) ;
+            Arrays.fill( strings, null ) ;
+        }
+    }
+    
+    @Override
+    void setNumericValue( int colIndex, double value ) {
+        if( isHeaderRow() ) {
+            super.setNumericValue( colIndex, value ) ;
+        }
+        else if( isBuffered( colIndex ) ) {
+            int c = colIndex - getStartCol() ;
+            kinds[c] = KIND_NUMBER ;
+            numbers[c] = value ;
+        }
+    }
+    
+    @Override
+    void setBooleanValue( int colIndex, boolean value ) {
+        if( isHeaderRow() ) {
+            super.setBooleanValue( colIndex, value ) ;
+        }
+        else if( isBuffered( colIndex ) ) {
+            int c = colIndex - getStartCol() ;
+            kinds[c] = KIND_BOOLEAN ;
+            booleans[c] = value ;
+        }
+    }
+    
+    @Override
+    void setStringValue( int colIndex, String value ) {
+        if( isHeaderRow() ) {
+            super.setStringValue( colIndex, value ) ;
+        }
+        else if( isBuffered( colIndex ) ) {
+            // Empty strings, as left by string formulas, are nulls
+            int c = colIndex - getStartCol() ;
+            kinds[c] = value.isEmpty() ? KIND_NULL : KIND_STRING ;
+            strings[c] = value ;
+        }
+    }
+    
+    @Override
+    void setErrorValue( int colIndex, String errorCode ) {
+        if( isHeaderRow() ) {
+            super.setErrorValue( colIndex, errorCode ) ;
+        }
+        else if( isBuffered( colIndex ) ) {
+            kinds[ colIndex - getStartCol() ] = KIND_NULL ;
+        }
+    }
+    
+    @Override
+    void setBlankValue( int colIndex ) {
+        if( isHeaderRow() ) {
+            super.setBlankValue( colIndex ) ;
+        }
+        else if( isBuffered( colIndex ) ) {
+            kinds[ colIndex - getStartCol() ] = KIND_NULL ;
+        }
+    }
+    
+    private boolean isHeaderRow() {
+        return getRowIndex() == getStartRow() ;
+    }
+    
+    private boolean isBuffered( int colIndex ) {
+        return kinds != null && colIndex - getStartCol() < kinds.length ;
+    }
+    
+    @Override
+    boolean endRow() {
+        
+        int rowIndex = getRowIndex() ;
+        if( rowIndex == getStartRow() ) {
+            super.endRow() ;
+            createColumns() ;
+        }
+        else if( rowIndex > getStartRow() ) {
+            checkHeaderRead() ;
+            addNullRows( rowIndex - getStartRow() - 1 ) ;
+            for( int c=0; c<columns.length; c++ ) {
+                switch( kinds[c] ) {
+                    case KIND_NUMBER:
+                        columns[c].addNumber( numbers[c] ) ;
+                        break ;
+                    case KIND_BOOLEAN:
+                        columns[c].addBoolean( booleans[c] ) ;
+                        break ;
+                    case KIND_STRING:
+                        columns[c].addString( strings[c] ) ;
+                        break ;
+                    default:
+                        columns[c].addNull() ;
+                        break ;
+                }
+            }
+            numDataRows++ ;
+        }
+        return true ;
+    }
+    
+    private void createColumns() {
+        
+        XLSSheetConfig config = getSheetConfig() ;
+        int numCols = config.getNumCols() ;
+        
+        columns = new XLSColumn[ numCols ] ;
+        for( int c=0; c<numCols; c++ ) {
+            columns[c] = new XLSColumn( config.getColNames().get( c ) ) ;
+        }
+        kinds = new byte[ numCols ] ;
+        numbers = new double[ numCols ] ;
+        booleans = new boolean[ numCols ] ;
+        strings = new String[ numCols ] ;
+    }
+    
+    /** Adds null rows to the columns till they hold the given number of rows. */
+    private void addNullRows( int numRows ) {
+        while( numDataRows < numRows ) {
+            for( XLSColumn column : columns ) {
+                column.addNull() ;
+            }
+            numDataRows++ ;
+        }
+    }
+    
+    private void checkHeaderRead() {
+        if( getSheetConfig() == null ) {
+            throw new IllegalStateException( "Header row " + getStartRow() + 
+                                             " is empty." ) ;
+        }
+    }
+    
+    /** 
+     * Returns the sheet assembled once the reader is done, padded with null
+     * rows up to the last row of the sheet.
+     */
+    XLSColumnarSheet getColumnarSheet() {
+        
+        checkHeaderRead() ;
+        addNullRows( getNumRows() - getStartRow() ) ;
+        for( XLSColumn column : columns ) {
+            column.trim() ;
+        }
+        return new XLSColumnarSheet( getSheetConfig(), columns, numDataRows ) ;
+    }
+}
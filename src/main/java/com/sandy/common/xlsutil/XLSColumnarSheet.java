@@ -0,0 +1,72 @@
+package com.sandy.common.xlsutil;
+
+import java.util.ArrayList ;
+import java.util.BitSet ;
+import java.util.List ;
+
+/**
+ * A sheet held column wise, with a typed {@link XLSColumn} per column of the
+ * sheet config. The type of a column is inferred from its cells - numeric
+ * cells make a long column if all of them are whole numbers and a double 
+ * column otherwise, boolean cells a boolean column, and string cells or a mix
+ * of types a string column. 
+ * <p>
+ * Unlike {@link XLSWrapper#getRows}, the cells are read as their native 
+ * values, without a round trip through strings. Formula cells contribute 
+ * their cached result rather than the formula text, and error cells are 
+ * nulls.
+ * <p>
+ * The sheet is built by the streaming readers, so neither the workbook nor
+ * the rows as strings are held in memory while reading - only the columns 
+ * being built and the values of the current row.
+ */
+public class XLSColumnarSheet {
+    
+    private XLSSheetConfig config = null ;
+    private int numRows = 0 ;
+    private XLSColumn[] columns = null ;
+    
+    XLSColumnarSheet( XLSSheetConfig config, XLSColumn[] columns, int numRows ) {
+        this.config = config ;
+        this.columns = columns ;
+        this.numRows = numRows ;
+    }
+    
+    public XLSSheetConfig getConfig() {
+        return this.config ;
+    }
+    
+    public int getNumRows() {
+        return this.numRows ;
+    }
+    
+    public int getNumCols() {
+        return this.columns.length ;
+    }
+    
+    public XLSColumn getColumn( int index ) {
+        return this.columns[index] ;
+    }
+    
+    public XLSColumn getColumn( String colName ) {
+        return this.columns[ config.getColIndex( colName ) ] ;
+    }
+    
+    /** Returns a row of the sheet as an {@link XLSRow}, for interoperability. */
+    public XLSRow getRow( int row ) {
+        List<String> cellValues = new ArrayList<>( columns.length ) ;
+        for( XLSColumn column : columns ) {
+            cellValues.add( column.getString( row ) ) ;
+        }
+        return new XLSRow( cellValues, config ) ;
+    }
+    
+    /** Returns the rows selected in the given bitmap as {@link XLSRow}s. */
+    public List<XLSRow> getRows( BitSet rows ) {
+        List<XLSRow> selected = new ArrayList<>( rows.cardinality() ) ;
+        for( int i=rows.nextSetBit( 0 ); i>=0 && i<numRows; i=rows.nextSetBit( i+1 ) ) {
+            selected.add( getRow( i ) ) ;
+        }
+        return selected ;
+    }
+}
@@ -0,0 +1,173 @@
+package com.sandy.common.xlsutil;
+
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.List ;
+
+/**
+ * Assembles the cells reported by the streaming readers into {@link XLSRow}s,
+ * applying the start row, column range and filter the way 
+ * {@link XLSWrapper#getRows(String, XLSRowFilter, int, int, int)} applies 
+ * them. The start row is the header, from which the sheet config is built. 
+ * The rows after it are filtered and handed over to the row handler.
+ * <p>
+ * The readers report the cells as typed values, which are rendered here the
+ * way {@link XLSUtil#getCellValues} renders them. Subclasses can keep the 
+ * native values instead.
+ */
+class XLSRowAssembler {
+    
+    private String sheetName = null ;
+    private XLSRowFilter filter = null ;
+    private int startRow = 0 ;
+    private int startCol = 0 ;
+    private int endCol = 0 ;
+    private XLSRowHandler rowHandler = null ;
+    
+    private XLSSheetConfig sheetConfig = null ;
+    private int numRows = 0 ;
+    
+    private int rowIndex = -1 ;
+    private List<String> rowValues = new ArrayList<>() ;
+    
+    XLSRowAssembler( String sheetName, XLSRowFilter filter, 
+                     int startRow, int startCol, int endCol,
+                     XLSRowHandler rowHandler ) {
+        this.sheetName = sheetName ;
+        this.filter = filter ;
+        this.startRow = startRow ;
+        this.startCol = startCol ;
+        this.endCol = endCol ;
+        this.rowHandler = rowHandler ;
+    }
+    
+    /** Sets the name of the sheet being read, once the reader has found it. */
+    void setSheetName( String sheetName ) {
+        this.sheetName = sheetName ;
+    }
+    
+    /** Sets the index of the last row of the sheet, if known. */
+    void setNumRows( int numRows ) {
+        this.numRows = numRows ;
+    }
+    
+    int getNumRows() {
+        return this.numRows ;
+    }
+    
+    int getStartRow() {
+        return this.startRow ;
+    }
+    
+    int getStartCol() {
+        return this.startCol ;
+    }
+    
+    XLSSheetConfig getSheetConfig() {
+        return this.sheetConfig ;
+    }
+    
+    void startRow( int rowIndex ) {
+        this.rowIndex = rowIndex ;
+        this.rowValues.clear() ;
+    }
+    
+    int getRowIndex() {
+        return this.rowIndex ;
+    }
+    
+    /** 
+     * Returns true if the value of the given cell of the current row is 
+     * used, so that the readers can skip rendering the other cells.
+     */
+    boolean isCellUsed( int colIndex ) {
+        return rowIndex >= startRow && colIndex >= startCol && 
+               ( sheetConfig == null || colIndex <= endCol ) ;
+    }
+    
+    /** 
+     * Returns true if the formula cells are to be reported as their formula
+     * text, false if as their cached results.
+     */
+    boolean isFormulaTextUsed() {
+        return true ;
+    }
+    
+    void setNumericValue( int colIndex, double value ) {
+        setCellValue( colIndex, XLSUtil.formatNumericValue( value ) ) ;
+    }
+    
+    void setBooleanValue( int colIndex, boolean value ) {
+        setCellValue( colIndex, Boolean.toString( value ) ) ;
+    }
+    
+    void setStringValue( int colIndex, String value ) {
+        setCellValue( colIndex, value ) ;
+    }
+    
+    /** Sets the value of an error cell, given its rendered error code. */
+    void setErrorValue( int colIndex, String errorCode ) {
+        setCellValue( colIndex, errorCode ) ;
+    }
+    
+    void setBlankValue( int colIndex ) {
+        setCellValue( colIndex, "" ) ;
+    }
+    
+    private void setCellValue( int colIndex, String cellValue ) {
+        int index = colIndex - startCol ;
+        while( rowValues.size() <= index ) {
+            rowValues.add( null ) ;
+        }
+        rowValues.set( index, cellValue ) ;
+    }
+    
+    /**
+     * Completes the current row. 
+     * 
+     * @return false if the row handler asked to stop reading.
+     */
+    boolean endRow() {
+        
+        if( rowIndex == startRow ) {
+            createSheetConfig() ;
+        }
+        else if( rowIndex > startRow ) {
+            if( sheetConfig == null ) {
+                throw new IllegalStateException( "Header row " + startRow + 
+                                                 " is empty." ) ;
+            }
+            
+            XLSRow row = new XLSRow( getRowValues(), sheetConfig ) ;
+            if( ( filter == null ) || filter.accept( row ) ) {
+                sheetConfig.updateColSize( row ) ;
+                return rowHandler.handleRow( row ) ;
+            }
+        }
+        return true ;
+    }
+    
+    private void createSheetConfig() {
+        
+        int numPhyCols = startCol + rowValues.size() ;
+        if( rowValues.isEmpty() ) {
+            throw new IllegalStateException( "Header row " + startRow + 
+                                             " is empty." ) ;
+        }
+        if( endCol == -1 || endCol > numPhyCols ) {
+            endCol = numPhyCols-1 ;
+        }
+        
+        List<String> headerValues = getRowValues() ;
+        sheetConfig = new XLSSheetConfig( sheetName, headerValues, startRow,
+                                          startCol, endCol, numRows ) ;
+    }
+    
+    private List<String> getRowValues() {
+        String[] values = new String[ endCol - startCol + 1 ] ;
+        for( int i=0; i<values.length && i<rowValues.size(); i++ ) {
+            values[i] = rowValues.get( i ) ;
+        }
+        return Arrays.asList( values ) ;
+    }
+}
@@ -0,0 +1,17 @@
+package com.sandy.common.xlsutil;
+
+/**
+ * Receives the rows of a sheet one at a time, as they are read by the 
+ * streaming methods of {@link XLSWrapper} and {@link XLReader}. The rows are
+ * not retained by the reader, so a handler which doesn't retain them either
+ * processes a sheet of any size in constant memory.
+ */
+public interface XLSRowHandler {
+    
+    /**
+     * Handles a row which passed the row filter, if any.
+     * 
+     * @return true to continue reading, false to stop reading the sheet.
+     */
+    boolean handleRow( XLSRow row ) ;
+}
@@ -0,0 +1,15 @@
+package com.sandy.common.xlsutil;
+
+import java.io.Closeable ;
+import java.util.Iterator ;
+
+/**
+ * A lazy iterator over the rows of a sheet, which reads the rows from the 
+ * file as they are asked for. The iterator holds the file open till all the
+ * rows have been read, hence an iterator abandoned midway should be closed.
+ */
+public interface XLSRowIterator extends Iterator<XLSRow>, Closeable {
+    
+    @Override
+    void close() ;
+}
@@ -21,18 +21,26 @@ public class XLSSheetConfig {
     private Map<String, Integer> colNameIndexMap = new HashMap<>() ;
 
     XLSSheetConfig( Sheet sheet, int startRow, int startCol, int endCol ) {
-        this.sheetName = sheet.getSheetName() ;
+        this( sheet.getSheetName(), 
+              XLSUtil.getCellValues( sheet.getRow( startRow ), startCol, endCol ), 
+              startRow, startCol, endCol, sheet.getLastRowNum() ) ;
+    }
+    
+    // Used by the streaming readers, which see the header row as cell values
+    // and the number of rows from the sheet metadata, without a Sheet.
+    XLSSheetConfig( String sheetName, List<String> headerValues, 
+                    int startRow, int startCol, int endCol, int numRows ) {
+        this.sheetName = sheetName ;
         this.startRow = startRow ;
         this.startCol = startCol ;
         this.endCol = endCol ;
         
-        populateColNames( sheet ) ;
-        this.numRows = sheet.getLastRowNum() ;
+        populateColNames( headerValues ) ;
+        this.numRows = numRows ;
     }
     
-    private void populateColNames( Sheet sheet ) {
-        this.colNames = XLSUtil.getCellValues( sheet.getRow( startRow ), 
-                                               startCol, endCol ) ;
+    private void populateColNames( List<String> headerValues ) {
+        this.colNames = new ArrayList<>( headerValues ) ;
         this.colNames.removeAll( java.util.Collections.singletonList( null ) ) ;
         this.numCols = this.colNames.size() ;
         
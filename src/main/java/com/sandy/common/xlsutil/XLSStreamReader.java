@@ -0,0 +1,461 @@
+package com.sandy.common.xlsutil;
+
+import java.io.File ;
+import java.io.IOException ;
+import java.io.InputStream ;
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.NoSuchElementException ;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener ;
+import org.apache.poi.hssf.eventusermodel.EventWorkbookBuilder.SheetRecordCollectingListener ;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory ;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest ;
+import org.apache.poi.hssf.model.HSSFFormulaParser ;
+import org.apache.poi.hssf.record.BOFRecord ;
+import org.apache.poi.hssf.record.BlankRecord ;
+import org.apache.poi.hssf.record.BoolErrRecord ;
+import org.apache.poi.hssf.record.BoundSheetRecord ;
+import org.apache.poi.hssf.record.CellValueRecordInterface ;
+import org.apache.poi.hssf.record.DimensionsRecord ;
+import org.apache.poi.hssf.record.EOFRecord ;
+import org.apache.poi.hssf.record.FormulaRecord ;
+import org.apache.poi.hssf.record.LabelRecord ;
+import org.apache.poi.hssf.record.LabelSSTRecord ;
+import org.apache.poi.hssf.record.NumberRecord ;
+import org.apache.poi.hssf.record.RKRecord ;
+import org.apache.poi.hssf.record.Record ;
+import org.apache.poi.hssf.record.RecordFactoryInputStream ;
+import org.apache.poi.hssf.record.SSTRecord ;
+import org.apache.poi.hssf.record.SharedFormulaRecord ;
+import org.apache.poi.hssf.record.StringRecord ;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook ;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem ;
+import org.apache.poi.ss.formula.ptg.Ptg ;
+
+/**
+ * Reads the rows of an xls sheet with the HSSF event model - the records of
+ * the workbook stream are processed one at a time, without building the 
+ * workbook in memory. The records of the workbook globals, which include the
+ * shared strings table and the sheet names, are held in memory to render the
+ * strings and formulas, but none of the sheet records are. Reading stops at 
+ * the end of the sheet.
+ * <p>
+ * The cell values are rendered as {@link XLSUtil#getCellValues} renders them,
+ * the formulas shared by a range of cells included. The exceptions are the
+ * rows without any cells, which are skipped, and shared formulas whose shared
+ * formula record is missing from the sheet, for which the cached result is 
+ * returned.
+ */
+class XLSStreamReader {
+    
+    private File xlsFile = null ;
+    
+    XLSStreamReader( File xlsFile ) {
+        this.xlsFile = xlsFile ;
+    }
+    
+    void readRows( String sheetName, XLSRowFilter filter, 
+                   int startRow, int startCol, int endCol,
+                   XLSRowHandler handler ) 
+        throws Exception {
+        
+        readRows( sheetName, new XLSRowAssembler( sheetName, filter, startRow, 
+                                                  startCol, endCol, handler ) ) ;
+    }
+    
+    /** Reads the cells of the sheet into the given assembler. */
+    void readRows( String sheetName, XLSRowAssembler assembler ) 
+        throws Exception {
+        
+        POIFSFileSystem fs = new POIFSFileSystem( xlsFile, true ) ;
+        try {
+            RecordListener listener = new RecordListener( sheetName, assembler ) ;
+            HSSFRequest request = new HSSFRequest() ;
+            request.addListenerForAllRecords( listener ) ;
+            new HSSFEventFactory().abortableProcessWorkbookEvents( request, fs ) ;
+            
+            if( !listener.sheetFound ) {
+                throw new Exception( "Sheet " + sheetName + " not found in " + 
+                                     xlsFile.getAbsolutePath() ) ;
+            }
+        }
+        finally {
+            fs.close() ;
+        }
+    }
+    
+    /**
+     * Returns a lazy iterator over the rows of the sheet. The records of the
+     * workbook stream are pulled only as far as needed to produce the next 
+     * row. The iterator keeps the file open till it is exhausted or closed.
+     */
+    XLSRowIterator iterateRows( String sheetName, XLSRowFilter filter, 
+                                int startRow, int startCol, int endCol ) 
+        throws Exception {
+        
+        POIFSFileSystem fs = new POIFSFileSystem( xlsFile, true ) ;
+        try {
+            InputStream is = fs.createDocumentInputStream( 
+                            HSSFWorkbook.getWorkbookDirEntryName( fs.getRoot() ) ) ;
+            
+            PullRowIterator iterator = new PullRowIterator( fs, is ) ;
+            iterator.listener = new RecordListener( sheetName, 
+                                    new XLSRowAssembler( sheetName, filter, startRow, 
+                                                         startCol, endCol, iterator ) ) ;
+            
+            // Reads up to the sheet, so that a missing sheet is reported now
+            while( !iterator.listener.inSheet && !iterator.closed ) {
+                iterator.pull() ;
+            }
+            if( !iterator.listener.sheetFound ) {
+                throw new Exception( "Sheet " + sheetName + " not found in " + 
+                                     xlsFile.getAbsolutePath() ) ;
+            }
+            return iterator ;
+        }
+        catch( Exception e ) {
+            fs.close() ;
+            throw e ;
+        }
+    }
+    
+    /**
+     * Feeds the records pulled from the workbook stream to the record 
+     * listener, collecting the rows it produces one at a time.
+     */
+    private static class PullRowIterator implements XLSRowIterator, XLSRowHandler {
+        
+        private POIFSFileSystem fs = null ;
+        private RecordFactoryInputStream recordStream = null ;
+        private RecordListener listener = null ;
+        
+        private XLSRow nextRow = null ;
+        private boolean closed = false ;
+        
+        PullRowIterator( POIFSFileSystem fs, InputStream is ) {
+            this.fs = fs ;
+            this.recordStream = new RecordFactoryInputStream( is, false ) ;
+        }
+        
+        public boolean handleRow( XLSRow row ) {
+            this.nextRow = row ;
+            return true ;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            try {
+                while( nextRow == null && !closed ) {
+                    pull() ;
+                }
+            }
+            catch( RuntimeException e ) {
+                // From the row assembler, the filter or POI
+                close() ;
+                throw e ;
+            }
+            return nextRow != null ;
+        }
+        
+        @Override
+        public XLSRow next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException() ;
+            }
+            XLSRow row = nextRow ;
+            nextRow = null ;
+            return row ;
+        }
+        
+        private void pull() {
+            
+            Record record = recordStream.nextRecord() ;
+            if( record == null || listener.abortableProcessRecord( record ) != 0 ) {
+                close() ;
+            }
+        }
+        
+        @Override
+        public void close() {
+            if( !closed ) {
+                closed = true ;
+                try {
+                    fs.close() ;
+                }
+                catch( IOException e ) {
+                    // The file was opened read only, nothing is lost
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tracks the sheet substreams of the workbook stream and renders the 
+     * cell records of the sheet being read. Returns a non zero code to abort
+     * the processing once the sheet has been read or the row handler asks to
+     * stop.
+     */
+    private static class RecordListener extends AbortableHSSFListener {
+        
+        private static final short CONTINUE = 0 ;
+        private static final short ABORT = 1 ;
+        
+        // The cell type codes of the cached formula results, the accessor of
+        // which on CellType is deprecated
+        private static final int CACHED_STRING  = 1 ;
+        private static final int CACHED_BOOLEAN = 4 ;
+        private static final int CACHED_ERROR = 5 ;
+        
+        private String sheetName = null ;
+        private XLSRowAssembler rowAssembler = null ;
+        
+        private SheetRecordCollectingListener workbookRecords = null ;
+        private HSSFWorkbook stubWorkbook = null ;
+        private SSTRecord sst = null ;
+        private List<String> sheetNames = new ArrayList<>() ;
+        
+        private int depth = 0 ;
+        private int sheetIndex = -1 ;
+        private int targetSheetIndex = -1 ;
+        private boolean sheetFound = false ;
+        private boolean inSheet = false ;
+        private boolean rowPending = false ;
+        private int stringResultCol = -1 ;
+        
+        private List<SharedFormulaRecord> sharedFormulas = new ArrayList<>() ;
+        private FormulaRecord pendingSharedFormula = null ;
+        
+        RecordListener( String sheetName, XLSRowAssembler rowAssembler ) {
+            
+            this.sheetName = sheetName ;
+            this.rowAssembler = rowAssembler ;
+            this.workbookRecords = new SheetRecordCollectingListener( record -> {} ) ;
+        }
+        
+        @Override
+        public short abortableProcessRecord( Record record ) {
+            
+            if( depth == 0 || sheetIndex < 0 ) {
+                // The workbook globals, needed to render formulas
+                workbookRecords.processRecord( record ) ;
+            }
+            
+            switch( record.getSid() ) {
+                case BOFRecord.sid:
+                    depth++ ;
+                    if( depth == 1 && 
+                        ( ( BOFRecord )record ).getType() != BOFRecord.TYPE_WORKBOOK ) {
+                        return sheetStarted() ;
+                    }
+                    return CONTINUE ;
+                    
+                case EOFRecord.sid:
+                    depth-- ;
+                    if( depth == 0 && inSheet ) {
+                        // The rest of the workbook is of no interest
+                        inSheet = false ;
+                        if( rowPending ) {
+                            rowAssembler.endRow() ;
+                        }
+                        return ABORT ;
+                    }
+                    return CONTINUE ;
+                    
+                case BoundSheetRecord.sid:
+                    sheetNames.add( ( ( BoundSheetRecord )record ).getSheetname() ) ;
+                    return CONTINUE ;
+                    
+                case SSTRecord.sid:
+                    sst = ( SSTRecord )record ;
+                    return CONTINUE ;
+                    
+                case DimensionsRecord.sid:
+                    if( inSheet && depth == 1 ) {
+                        rowAssembler.setNumRows( ( ( DimensionsRecord )record ).getLastRow() - 1 ) ;
+                    }
+                    return CONTINUE ;
+                    
+                case SharedFormulaRecord.sid:
+                    if( inSheet && depth == 1 ) {
+                        sharedFormulaRead( ( SharedFormulaRecord )record ) ;
+                    }
+                    return CONTINUE ;
+                    
+                case StringRecord.sid:
+                    if( inSheet && stringResultCol >= 0 ) {
+                        rowAssembler.setStringValue( stringResultCol, 
+                                                     ( ( StringRecord )record ).getString() ) ;
+                        stringResultCol = -1 ;
+                    }
+                    return CONTINUE ;
+                    
+                default:
+                    if( inSheet && depth == 1 && 
+                        record instanceof CellValueRecordInterface ) {
+                        return cellRead( ( CellValueRecordInterface )record ) ;
+                    }
+                    return CONTINUE ;
+            }
+        }
+        
+        private short sheetStarted() {
+            
+            sheetIndex++ ;
+            if( sheetIndex == 0 ) {
+                targetSheetIndex = ( sheetName == null ) ? 0 : sheetNames.indexOf( sheetName ) ;
+                if( targetSheetIndex < 0 || targetSheetIndex >= sheetNames.size() ) {
+                    return ABORT ;
+                }
+                if( sheetName == null ) {
+                    sheetName = sheetNames.get( 0 ) ;
+                }
+            }
+            if( sheetIndex == targetSheetIndex ) {
+                sheetFound = true ;
+                inSheet = true ;
+                rowAssembler.setSheetName( sheetName ) ;
+            }
+            return CONTINUE ;
+        }
+        
+        /**
+         * The shared formula record follows the first formula of its group,
+         * which is rendered again now that its tokens are known.
+         */
+        private void sharedFormulaRead( SharedFormulaRecord sharedFormula ) {
+            
+            sharedFormulas.add( sharedFormula ) ;
+            FormulaRecord formula = pendingSharedFormula ;
+            if( formula != null && 
+                sharedFormula.isInRange( formula.getRow(), formula.getColumn() ) ) {
+                rowAssembler.setStringValue( formula.getColumn(), toFormulaString( 
+                                     sharedFormula.getFormulaTokens( formula ) ) ) ;
+                
+                // A string result of the formula is no longer needed
+                stringResultCol = -1 ;
+                pendingSharedFormula = null ;
+            }
+        }
+        
+        private short cellRead( CellValueRecordInterface cell ) {
+            
+            pendingSharedFormula = null ;
+            if( !rowPending || cell.getRow() != rowAssembler.getRowIndex() ) {
+                if( rowPending && !rowAssembler.endRow() ) {
+                    return ABORT ;
+                }
+                rowAssembler.startRow( cell.getRow() ) ;
+                rowPending = true ;
+            }
+            
+            int colIndex = cell.getColumn() ;
+            if( rowAssembler.isCellUsed( colIndex ) ) {
+                setCellValue( cell ) ;
+            }
+            return CONTINUE ;
+        }
+        
+        private void setCellValue( CellValueRecordInterface cell ) {
+            
+            int col = cell.getColumn() ;
+            switch( ( ( Record )cell ).getSid() ) {
+                case NumberRecord.sid:
+                    rowAssembler.setNumericValue( col, ( ( NumberRecord )cell ).getValue() ) ;
+                    break ;
+                case RKRecord.sid:
+                    rowAssembler.setNumericValue( col, ( ( RKRecord )cell ).getRKNumber() ) ;
+                    break ;
+                case LabelSSTRecord.sid:
+                    rowAssembler.setStringValue( col, sst.getString( 
+                                   ( ( LabelSSTRecord )cell ).getSSTIndex() ).getString() ) ;
+                    break ;
+                case LabelRecord.sid:
+                    rowAssembler.setStringValue( col, ( ( LabelRecord )cell ).getValue() ) ;
+                    break ;
+                case BlankRecord.sid:
+                    rowAssembler.setBlankValue( col ) ;
+                    break ;
+                case BoolErrRecord.sid:
+                    BoolErrRecord boolErr = ( BoolErrRecord )cell ;
+                    if( boolErr.isBoolean() ) {
+                        rowAssembler.setBooleanValue( col, boolErr.getBooleanValue() ) ;
+                    }
+                    else {
+                        rowAssembler.setErrorValue( col, Byte.toString( boolErr.getErrorValue() ) ) ;
+                    }
+                    break ;
+                case FormulaRecord.sid:
+                    setFormulaValue( ( FormulaRecord )cell ) ;
+                    break ;
+                default:
+                    rowAssembler.setStringValue( col, "XXX" ) ;
+                    break ;
+            }
+        }
+        
+        private String toFormulaString( Ptg[] tokens ) {
+            if( stubWorkbook == null ) {
+                stubWorkbook = workbookRecords.getStubHSSFWorkbook() ;
+            }
+            return HSSFFormulaParser.toFormulaString( stubWorkbook, tokens ) ;
+        }
+        
+        private void setFormulaValue( FormulaRecord formula ) {
+            
+            if( rowAssembler.isFormulaTextUsed() ) {
+                Ptg[] tokens = getFormulaTokens( formula ) ;
+                if( tokens != null ) {
+                    rowAssembler.setStringValue( formula.getColumn(), 
+                                                 toFormulaString( tokens ) ) ;
+                    return ;
+                }
+                // The first formula of a group, till its shared formula is read
+                pendingSharedFormula = formula ;
+            }
+            
+            int col = formula.getColumn() ;
+            if( formula.hasCachedResultString() ) {
+                // The result follows in a string record
+                rowAssembler.setBlankValue( col ) ;
+                stringResultCol = col ;
+                return ;
+            }
+            
+            int resultType = formula.getCachedResultType() ;
+            if( resultType == CACHED_STRING ) {
+                // An empty string, which isn't followed by a string record
+                rowAssembler.setStringValue( col, "" ) ;
+            }
+            else if( resultType == CACHED_BOOLEAN ) {
+                rowAssembler.setBooleanValue( col, formula.getCachedBooleanValue() ) ;
+            }
+            else if( resultType == CACHED_ERROR ) {
+                rowAssembler.setErrorValue( col, Integer.toString( formula.getCachedErrorValue() ) ) ;
+            }
+            else {
+                rowAssembler.setNumericValue( col, formula.getValue() ) ;
+            }
+        }
+        
+        /** 
+         * Returns the tokens of the formula, or null for a shared formula 
+         * whose shared formula record hasn't been read.
+         */
+        private Ptg[] getFormulaTokens( FormulaRecord formula ) {
+            
+            if( !formula.isSharedFormula() ) {
+                return formula.getParsedExpression() ;
+            }
+            
+            int row = formula.getRow() ;
+            int col = formula.getColumn() ;
+            for( SharedFormulaRecord sharedFormula : sharedFormulas ) {
+                if( sharedFormula.isInRange( row, col ) ) {
+                    return sharedFormula.getFormulaTokens( formula ) ;
+                }
+            }
+            return null ;
+        }
+    }
+}
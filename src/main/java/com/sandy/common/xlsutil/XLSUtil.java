@@ -28,10 +28,7 @@ public class XLSUtil {
                 
                 switch( cellType ) {
                     case NUMERIC:
-                        cellValue = String.format( "%f", cell.getNumericCellValue() ) ;
-                        if( cellValue.endsWith( ".000000" ) ) {
-                            cellValue = cellValue.substring( 0, cellValue.length() - ".000000".length() ) ;
-                        }
+                        cellValue = formatNumericValue( cell.getNumericCellValue() ) ;
                         break ;
                     case STRING:
                         cellValue = cell.getStringCellValue() ;
@@ -61,6 +58,14 @@ public class XLSUtil {
         return cellValues ;
     }
     
+    static String formatNumericValue( double value ) {
+        String cellValue = String.format( "%f", value ) ;
+        if( cellValue.endsWith( ".000000" ) ) {
+            cellValue = cellValue.substring( 0, cellValue.length() - ".000000".length() ) ;
+        }
+        return cellValue ;
+    }
+    
     public static void printRows( List<XLSRow> rows ) {
         if( rows.size() > 0 ) {
             XLSSheetConfig config = rows.get( 0 ).getConfig() ;
@@ -4,6 +4,10 @@ import java.io.File ;
 import java.io.FileInputStream ;
 import java.util.ArrayList ;
 import java.util.List ;
+import java.util.Spliterator ;
+import java.util.Spliterators ;
+import java.util.stream.Stream ;
+import java.util.stream.StreamSupport ;
 
 import org.apache.poi.hssf.usermodel.HSSFWorkbook ;
 import org.apache.poi.ss.usermodel.Sheet ;
@@ -92,6 +96,124 @@ public class XLSWrapper {
         return rows ;
     }
     
+    public XLSColumnarSheet getColumnarSheet( int startRow, int startCol, int endCol ) 
+        throws Exception {
+        return this.getColumnarSheet( null, startRow, startCol, endCol ) ;
+    }
+    
+    /**
+     * Reads the sheet into a typed, column wise {@link XLSColumnarSheet}, 
+     * which holds the cells as native values and can be filtered and 
+     * aggregated without parsing them back from strings. The sheet is read 
+     * with the streaming readers of {@link #streamRows}, without building the
+     * workbook in memory.
+     */
+    public XLSColumnarSheet getColumnarSheet( String sheetName, 
+                                              int startRow, int startCol, int endCol ) 
+        throws Exception {
+        
+        XLSColumnAssembler assembler = new XLSColumnAssembler( startRow, startCol, endCol ) ;
+        if( xlsFile.getName().endsWith( ".xls" ) ) {
+            new XLSStreamReader( xlsFile ).readRows( sheetName, assembler ) ;
+        }
+        else {
+            new XLSXStreamReader( xlsFile ).readRows( sheetName, assembler ) ;
+        }
+        return assembler.getColumnarSheet() ;
+    }
+    
+    public void streamRows( int startRow, int startCol, int endCol,
+                            XLSRowHandler handler ) 
+        throws Exception {
+        this.streamRows( null, null, startRow, startCol, endCol, handler ) ;
+    }
+    
+    public void streamRows( XLSRowFilter filter, 
+                            int startRow, int startCol, int endCol,
+                            XLSRowHandler handler ) 
+        throws Exception {
+        this.streamRows( null, filter, startRow, startCol, endCol, handler ) ;
+    }
+    
+    public void streamRows( String sheetName, 
+                            int startRow, int startCol, int endCol,
+                            XLSRowHandler handler ) 
+        throws Exception {
+        this.streamRows( sheetName, null, startRow, startCol, endCol, handler ) ;
+    }
+    
+    /**
+     * Reads the same rows as {@link #getRows(String, XLSRowFilter, int, int, int)}
+     * but hands them over to the handler one at a time, without building the
+     * workbook in memory. Reading stops early if the handler returns false.
+     * <p>
+     * Both xls and xlsx files are parsed with the POI event models, see 
+     * {@link XLSStreamReader} and {@link XLSXStreamReader} for the 
+     * differences in the cell values.
+     */
+    public void streamRows( String sheetName, XLSRowFilter filter, 
+                            int startRow, int startCol, int endCol,
+                            XLSRowHandler handler ) 
+        throws Exception {
+        
+        if( xlsFile.getName().endsWith( ".xls" ) ) {
+            new XLSStreamReader( xlsFile ).readRows( sheetName, filter, startRow, 
+                                                     startCol, endCol, handler ) ;
+        }
+        else {
+            new XLSXStreamReader( xlsFile ).readRows( sheetName, filter, startRow, 
+                                                      startCol, endCol, handler ) ;
+        }
+    }
+    
+    public XLSRowIterator getRowIterator( int startRow, int startCol, int endCol ) 
+        throws Exception {
+        return this.getRowIterator( null, null, startRow, startCol, endCol ) ;
+    }
+    
+    /**
+     * Returns a lazy iterator over the rows which {@link #getRows(String, XLSRowFilter, int, int, int)}
+     * would return. The rows are read and filtered as the iterator advances,
+     * so that nothing beyond the next row is buffered. The iterator should be
+     * closed if it is not exhausted.
+     */
+    public XLSRowIterator getRowIterator( String sheetName, XLSRowFilter filter, 
+                                          int startRow, int startCol, int endCol ) 
+        throws Exception {
+        
+        if( xlsFile.getName().endsWith( ".xls" ) ) {
+            return new XLSStreamReader( xlsFile ).iterateRows( sheetName, filter, 
+                                                               startRow, startCol, 
+                                                               endCol ) ;
+        }
+        return new XLSXStreamReader( xlsFile ).iterateRows( sheetName, filter, 
+                                                            startRow, startCol, 
+                                                            endCol ) ;
+    }
+    
+    public Stream<XLSRow> getRowStream( int startRow, int startCol, int endCol ) 
+        throws Exception {
+        return this.getRowStream( null, null, startRow, startCol, endCol ) ;
+    }
+    
+    /**
+     * Returns a lazy, sequential stream of the rows, backed by 
+     * {@link #getRowIterator(String, XLSRowFilter, int, int, int)}. Short 
+     * circuiting operations like findFirst or limit stop reading the file
+     * early. The stream should be closed, preferably with a try with 
+     * resources block, to release the file if it is not fully consumed.
+     */
+    public Stream<XLSRow> getRowStream( String sheetName, XLSRowFilter filter, 
+                                        int startRow, int startCol, int endCol ) 
+        throws Exception {
+        
+        XLSRowIterator iterator = getRowIterator( sheetName, filter, startRow, 
+                                                  startCol, endCol ) ;
+        Spliterator<XLSRow> spliterator = Spliterators.spliteratorUnknownSize( 
+                              iterator, Spliterator.ORDERED | Spliterator.NONNULL ) ;
+        return StreamSupport.stream( spliterator, false ).onClose( iterator::close ) ;
+    }
+    
     private Sheet getSheet( Workbook workbook, String sheetName ) {
         
         Sheet sheet = null ;
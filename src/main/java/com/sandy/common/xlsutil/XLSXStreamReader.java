@@ -0,0 +1,423 @@
+package com.sandy.common.xlsutil;
+
+import java.io.File ;
+import java.io.IOException ;
+import java.io.InputStream ;
+import java.util.NoSuchElementException ;
+
+import javax.xml.stream.XMLInputFactory ;
+import javax.xml.stream.XMLStreamConstants ;
+import javax.xml.stream.XMLStreamException ;
+import javax.xml.stream.XMLStreamReader ;
+
+import org.apache.poi.ooxml.util.SAXHelper ;
+import org.apache.poi.openxml4j.opc.OPCPackage ;
+import org.apache.poi.openxml4j.opc.PackageAccess ;
+import org.apache.poi.ss.usermodel.FormulaError ;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable ;
+import org.apache.poi.xssf.eventusermodel.XSSFReader ;
+import org.xml.sax.Attributes ;
+import org.xml.sax.InputSource ;
+import org.xml.sax.SAXException ;
+import org.xml.sax.XMLReader ;
+import org.xml.sax.helpers.AttributesImpl ;
+import org.xml.sax.helpers.DefaultHandler ;
+
+/**
+ * Reads the rows of an xlsx sheet with the POI event model - the sheet XML is
+ * parsed with SAX straight out of the package, without building the workbook
+ * in memory. Only the shared strings table of the workbook is held in memory.
+ * <p>
+ * The cell values are rendered as {@link XLSUtil#getCellValues} renders them.
+ * The exceptions are the cells of shared formulas, other than the first, for
+ * which the sheet XML doesn't carry the formula text and the cached result is
+ * returned instead, and the rows missing from the sheet, which are skipped.
+ */
+class XLSXStreamReader {
+    
+    private File xlsxFile = null ;
+    
+    XLSXStreamReader( File xlsxFile ) {
+        this.xlsxFile = xlsxFile ;
+    }
+    
+    void readRows( String sheetName, XLSRowFilter filter, 
+                   int startRow, int startCol, int endCol,
+                   XLSRowHandler handler ) 
+        throws Exception {
+        
+        readRows( sheetName, new XLSRowAssembler( sheetName, filter, startRow, 
+                                                  startCol, endCol, handler ) ) ;
+    }
+    
+    /** Reads the cells of the sheet into the given assembler. */
+    void readRows( String sheetName, XLSRowAssembler assembler ) 
+        throws Exception {
+        
+        OPCPackage  pkg = OPCPackage.open( xlsxFile, PackageAccess.READ ) ;
+        InputStream sheetIs = null ;
+        
+        try {
+            XSSFReader.SheetIterator sheets = findSheet( pkg, sheetName ) ;
+            sheetIs = sheets.next() ;
+            assembler.setSheetName( sheets.getSheetName() ) ;
+            
+            SheetHandler sheetHandler = new SheetHandler( 
+                                    new ReadOnlySharedStringsTable( pkg ), 
+                                    assembler ) ;
+            
+            XMLReader parser = SAXHelper.newXMLReader() ;
+            parser.setContentHandler( sheetHandler ) ;
+            try {
+                parser.parse( new InputSource( sheetIs ) ) ;
+            }
+            catch( SAXException e ) {
+                if( !sheetHandler.stopped ) {
+                    throw e ;
+                }
+            }
+        }
+        finally {
+            if( sheetIs != null ) {
+                sheetIs.close() ;
+            }
+            pkg.revert() ;
+        }
+    }
+    
+    /**
+     * Returns a lazy iterator over the rows of the sheet. The sheet XML is 
+     * pulled with StAX only as far as needed to produce the next row, so at
+     * most one row is held by the iterator at any time. The iterator keeps 
+     * the file open till it is exhausted or closed.
+     */
+    XLSRowIterator iterateRows( String sheetName, XLSRowFilter filter, 
+                                int startRow, int startCol, int endCol ) 
+        throws Exception {
+        
+        OPCPackage pkg = OPCPackage.open( xlsxFile, PackageAccess.READ ) ;
+        try {
+            XSSFReader.SheetIterator sheets = findSheet( pkg, sheetName ) ;
+            InputStream sheetIs = sheets.next() ;
+            
+            PullRowIterator iterator = new PullRowIterator( pkg, sheetIs ) ;
+            iterator.sheetHandler = new SheetHandler( 
+                                    new ReadOnlySharedStringsTable( pkg ), 
+                                    new XLSRowAssembler( sheets.getSheetName(), 
+                                                         filter, startRow, startCol, 
+                                                         endCol, iterator ) ) ;
+            return iterator ;
+        }
+        catch( Exception e ) {
+            pkg.revert() ;
+            throw e ;
+        }
+    }
+    
+    /** 
+     * Returns the sheet iterator of the package positioned such that its 
+     * next sheet is the one with the given name, or the first sheet if the 
+     * name is null.
+     */
+    private XSSFReader.SheetIterator findSheet( OPCPackage pkg, String sheetName ) 
+        throws Exception {
+        
+        XSSFReader reader = new XSSFReader( pkg ) ;
+        XSSFReader.SheetIterator sheets = null ;
+        
+        // The sheet iterator can't peek, hence the sheets before the one
+        // asked for are skipped with a second iterator.
+        XSSFReader.SheetIterator names = ( XSSFReader.SheetIterator )reader.getSheetsData() ;
+        sheets = ( XSSFReader.SheetIterator )reader.getSheetsData() ;
+        while( names.hasNext() ) {
+            names.next().close() ;
+            if( sheetName == null || sheetName.equals( names.getSheetName() ) ) {
+                return sheets ;
+            }
+            sheets.next().close() ;
+        }
+        throw new Exception( "Sheet " + sheetName + " not found in " + 
+                             xlsxFile.getAbsolutePath() ) ;
+    }
+    
+    static int getColIndex( String cellRef ) {
+        int colIndex = 0 ;
+        for( int i=0; i<cellRef.length(); i++ ) {
+            char c = cellRef.charAt( i ) ;
+            if( c < 'A' || c > 'Z' ) {
+                break ;
+            }
+            colIndex = colIndex*26 + ( c - 'A' + 1 ) ;
+        }
+        return colIndex - 1 ;
+    }
+    
+    /**
+     * Drives the sheet handler with the events pulled from a StAX reader, 
+     * collecting the rows the handler produces one at a time.
+     */
+    private static class PullRowIterator implements XLSRowIterator, XLSRowHandler {
+        
+        private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance() ;
+        static {
+            XML_INPUT_FACTORY.setProperty( XMLInputFactory.SUPPORT_DTD, false ) ;
+            XML_INPUT_FACTORY.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false ) ;
+        }
+        
+        private OPCPackage pkg = null ;
+        private InputStream sheetIs = null ;
+        private XMLStreamReader xmlReader = null ;
+        private SheetHandler sheetHandler = null ;
+        private AttributesImpl attributes = new AttributesImpl() ;
+        
+        private XLSRow nextRow = null ;
+        private boolean closed = false ;
+        
+        PullRowIterator( OPCPackage pkg, InputStream sheetIs ) 
+            throws XMLStreamException {
+            this.pkg = pkg ;
+            this.sheetIs = sheetIs ;
+            this.xmlReader = XML_INPUT_FACTORY.createXMLStreamReader( sheetIs ) ;
+        }
+        
+        public boolean handleRow( XLSRow row ) {
+            this.nextRow = row ;
+            return true ;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            try {
+                while( nextRow == null && !closed ) {
+                    if( xmlReader.hasNext() ) {
+                        pull() ;
+                    }
+                    else {
+                        close() ;
+                    }
+                }
+            }
+            catch( XMLStreamException | SAXException e ) {
+                close() ;
+                throw new IllegalStateException( "Could not read the sheet.", e ) ;
+            }
+            catch( RuntimeException e ) {
+                // From the row assembler, the filter or POI
+                close() ;
+                throw e ;
+            }
+            return nextRow != null ;
+        }
+        
+        @Override
+        public XLSRow next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException() ;
+            }
+            XLSRow row = nextRow ;
+            nextRow = null ;
+            return row ;
+        }
+        
+        private void pull() throws XMLStreamException, SAXException {
+            
+            switch( xmlReader.next() ) {
+                case XMLStreamConstants.START_ELEMENT:
+                    attributes.clear() ;
+                    for( int i=0; i<xmlReader.getAttributeCount(); i++ ) {
+                        String name = xmlReader.getAttributeLocalName( i ) ;
+                        attributes.addAttribute( "", name, name, "CDATA", 
+                                                 xmlReader.getAttributeValue( i ) ) ;
+                    }
+                    sheetHandler.startElement( "", xmlReader.getLocalName(), 
+                                               xmlReader.getLocalName(), attributes ) ;
+                    break ;
+                    
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    sheetHandler.characters( xmlReader.getTextCharacters(), 
+                                             xmlReader.getTextStart(), 
+                                             xmlReader.getTextLength() ) ;
+                    break ;
+                    
+                case XMLStreamConstants.END_ELEMENT:
+                    sheetHandler.endElement( "", xmlReader.getLocalName(), 
+                                             xmlReader.getLocalName() ) ;
+                    break ;
+                    
+                default:
+                    break ;
+            }
+        }
+        
+        @Override
+        public void close() {
+            if( !closed ) {
+                closed = true ;
+                try {
+                    xmlReader.close() ;
+                    sheetIs.close() ;
+                }
+                catch( XMLStreamException | IOException e ) {
+                    // The sheet was read from, nothing is lost on a failed close
+                }
+                finally {
+                    pkg.revert() ;
+                }
+            }
+        }
+    }
+    
+    private static class SheetHandler extends DefaultHandler {
+        
+        private ReadOnlySharedStringsTable sharedStrings = null ;
+        private XLSRowAssembler rowAssembler = null ;
+        
+        private int colIndex = -1 ;
+        private String cellType = null ;
+        private boolean cellHasValue = false ;
+        private StringBuilder value = new StringBuilder() ;
+        private StringBuilder formula = new StringBuilder() ;
+        private StringBuilder inlineText = new StringBuilder() ;
+        private StringBuilder text = null ;
+        
+        private boolean stopped = false ;
+        
+        SheetHandler( ReadOnlySharedStringsTable sharedStrings, 
+                      XLSRowAssembler rowAssembler ) {
+            this.sharedStrings = sharedStrings ;
+            this.rowAssembler = rowAssembler ;
+        }
+        
+        @Override
+        public void startElement( String uri, String localName, String qName,
+                                  Attributes attrs ) throws SAXException {
+            
+            switch( localName ) {
+                case "dimension":
+                    String ref = attrs.getValue( "ref" ) ;
+                    if( ref != null ) {
+                        String lastCell = ref.substring( ref.indexOf( ':' ) + 1 ) ;
+                        rowAssembler.setNumRows( Integer.parseInt( 
+                                    lastCell.replaceAll( "[A-Z$]", "" ) ) - 1 ) ;
+                    }
+                    break ;
+                    
+                case "row":
+                    String r = attrs.getValue( "r" ) ;
+                    rowAssembler.startRow( ( r != null ) ? Integer.parseInt( r ) - 1 : 
+                                                           rowAssembler.getRowIndex() + 1 ) ;
+                    colIndex = -1 ;
+                    break ;
+                    
+                case "c":
+                    String cellRef = attrs.getValue( "r" ) ;
+                    colIndex = ( cellRef != null ) ? getColIndex( cellRef ) : colIndex + 1 ;
+                    cellType = attrs.getValue( "t" ) ;
+                    cellHasValue = false ;
+                    value.setLength( 0 ) ;
+                    formula.setLength( 0 ) ;
+                    inlineText.setLength( 0 ) ;
+                    break ;
+                    
+                case "v":
+                    cellHasValue = true ;
+                    text = value ;
+                    break ;
+                    
+                case "f":
+                    text = formula ;
+                    break ;
+                    
+                case "t":
+                    // Text runs of an inline string, possibly rich text
+                    cellHasValue = true ;
+                    text = inlineText ;
+                    break ;
+                    
+                default:
+                    break ;
+            }
+        }
+        
+        @Override
+        public void characters( char[] ch, int start, int length ) {
+            if( text != null ) {
+                text.append( ch, start, length ) ;
+            }
+        }
+        
+        @Override
+        public void endElement( String uri, String localName, String qName )
+            throws SAXException {
+            
+            switch( localName ) {
+                case "v":
+                case "f":
+                case "t":
+                    text = null ;
+                    break ;
+                    
+                case "c":
+                    if( rowAssembler.isCellUsed( colIndex ) ) {
+                        setCellValue() ;
+                    }
+                    break ;
+                    
+                case "row":
+                    if( !rowAssembler.endRow() ) {
+                        stopped = true ;
+                        throw new SAXException( "Reading stopped by the row handler." ) ;
+                    }
+                    break ;
+                    
+                default:
+                    break ;
+            }
+        }
+        
+        private void setCellValue() {
+            
+            if( formula.length() > 0 && rowAssembler.isFormulaTextUsed() ) {
+                rowAssembler.setStringValue( colIndex, formula.toString() ) ;
+                return ;
+            }
+            else if( !cellHasValue ) {
+                rowAssembler.setBlankValue( colIndex ) ;
+                return ;
+            }
+            
+            String v = value.toString() ;
+            if( cellType == null || cellType.equals( "n" ) ) {
+                rowAssembler.setNumericValue( colIndex, Double.parseDouble( v ) ) ;
+                return ;
+            }
+            
+            switch( cellType ) {
+                case "s":
+                    rowAssembler.setStringValue( colIndex, 
+                           sharedStrings.getItemAt( Integer.parseInt( v ) ).getString() ) ;
+                    break ;
+                case "inlineStr":
+                    rowAssembler.setStringValue( colIndex, inlineText.toString() ) ;
+                    break ;
+                case "b":
+                    rowAssembler.setBooleanValue( colIndex, v.equals( "1" ) ) ;
+                    break ;
+                case "e":
+                    try {
+                        rowAssembler.setErrorValue( colIndex, 
+                                 Byte.toString( FormulaError.forString( v ).getCode() ) ) ;
+                    }
+                    catch( IllegalArgumentException e ) {
+                        rowAssembler.setErrorValue( colIndex, v ) ;
+                    }
+                    break ;
+                default:
+                    rowAssembler.setStringValue( colIndex, v ) ;
+                    break ;
+            }
+        }
+    }
+}
@@ -1,10 +1,46 @@
 package com.sandy.common.junit.bus;
 
+import java.io.File ;
+import java.lang.management.ManagementFactory ;
+import java.time.Duration ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Collections ;
+import java.util.HashSet ;
+import java.util.List ;
+import java.util.Set ;
+import java.util.concurrent.CompletableFuture ;
+import java.util.concurrent.ExecutionException ;
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+import javax.management.MBeanServer ;
+import javax.management.ObjectName ;
+
 import junit.framework.TestCase;
 
 import org.apache.log4j.Logger;
 
+import com.sandy.common.bus.AsyncDispatchPolicy ;
+import com.sandy.common.bus.AsyncDispatcher ;
+import com.sandy.common.bus.BatchEventSubscriber ;
+import com.sandy.common.bus.ConflatingDispatchPolicy ;
+import com.sandy.common.bus.Event ;
 import com.sandy.common.bus.EventBus ;
+import com.sandy.common.bus.EventBusMetrics ;
+import com.sandy.common.bus.EventDeliveryException ;
+import com.sandy.common.bus.EventJournal ;
+import com.sandy.common.bus.EventKeyExtractor ;
+import com.sandy.common.bus.EventPayloadCodec ;
+import com.sandy.common.bus.EventSubscriber ;
+import com.sandy.common.bus.KeyedParallelDispatchPolicy ;
+import com.sandy.common.bus.MappedFileEventBridge ;
+import com.sandy.common.bus.PriorityDispatchPolicy ;
+import com.sandy.common.bus.ReusableEventSubscriber ;
+import com.sandy.common.bus.RingBufferDispatchPolicy ;
+import com.sandy.common.bus.Subscribe ;
+import com.sandy.common.bus.SubscriberMetrics ;
+import com.sandy.common.junit.bus.helper.BlockingEventSubscriber ;
 import com.sandy.common.junit.bus.helper.MockEventSubscriber ;
 
 /**
@@ -22,6 +58,10 @@ public class EventBusTestCase extends TestCase {
 
     public void setUp() throws Exception {
         BUS.clear() ;
+        BUS.setLockFreePublish( false ) ;
+        BUS.setAsyncDispatcher( AsyncDispatcher.dedicatedThreads() ) ;
+        BUS.setMetricsEnabled( false ) ;
+        BUS.setJournal( null ) ;
     }
 
     /**
@@ -72,4 +112,1100 @@ public class EventBusTestCase extends TestCase {
         assertEquals( 1, subs.getEvents( TEST_EVENT_1 ).size() ) ;
         BUS.clear() ;
     }
-}
\ No newline at end of file
+
+    /**
+     * FEATURE: In lock free mode, publishers running concurrently with 
+     *          registration changes always see a consistent set of subscribers
+     */
+    public void testLockFreePublishWhileRegistering() 
+        throws Exception {
+        
+        final AtomicInteger count = new AtomicInteger() ;
+        final EventSubscriber subs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                count.incrementAndGet() ;
+            }
+        } ;
+        
+        BUS.setLockFreePublish( true ) ;
+        BUS.addSubscriberForEventTypes( subs, false, TEST_EVENT_1 ) ;
+        
+        final MockEventSubscriber transientSubs = new MockEventSubscriber() ;
+        Thread[] publishers = new Thread[4] ;
+        for( int i=0; i<publishers.length; i++ ) {
+            publishers[i] = new Thread() {
+                public void run() {
+                    for( int j=0; j<1000; j++ ) {
+                        BUS.publishEvent( TEST_EVENT_1, j ) ;
+                    }
+                }
+            } ;
+            publishers[i].start() ;
+        }
+        
+        for( int i=0; i<100; i++ ) {
+            BUS.addSubscriberForEventTypes( transientSubs, true, TEST_EVENT_1 ) ;
+            BUS.removeSubscriber( transientSubs, TEST_EVENT_1 ) ;
+        }
+        
+        for( Thread publisher : publishers ) {
+            publisher.join() ;
+        }
+        assertEquals( 4000, count.get() ) ;
+        assertEquals( 1, BUS.getSubscribersForEvent( TEST_EVENT_1 ).size() ) ;
+    }
+
+    /**
+     * FEATURE: Overlapping range registrations are resolved along with the
+     *          specific and ALL_EVENTS registrations, without duplicates
+     */
+    public void testOverlappingRangeSubscriptions() {
+        
+        final MockEventSubscriber subsA = new MockEventSubscriber() ;
+        final MockEventSubscriber subsB = new MockEventSubscriber() ;
+        final MockEventSubscriber subsC = new MockEventSubscriber() ;
+        
+        BUS.addSubscriberForEventRange( subsA, false, 10, 20 ) ;
+        BUS.addSubscriberForEventRange( subsB, false, 15, 30 ) ;
+        BUS.addSubscriberForEventRange( subsB, false, 15, 30 ) ;
+        BUS.addSubscriberForEventTypes( subsC, false ) ;
+        BUS.addSubscriberForEventTypes( subsA, false, 17 ) ;
+        
+        assertEquals( 2, BUS.getSubscribersForEvent( 12 ).size() ) ;
+        assertEquals( 3, BUS.getSubscribersForEvent( 17 ).size() ) ;
+        assertEquals( 2, BUS.getSubscribersForEvent( 30 ).size() ) ;
+        assertEquals( 1, BUS.getSubscribersForEvent( 31 ).size() ) ;
+        assertEquals( 1, BUS.getSubscribersForEvent( 9 ).size() ) ;
+        
+        BUS.publishEvent( 17, "Test" ) ;
+        BUS.publishEvent( 25, "Test" ) ;
+        assertEquals( 1, subsA.getEvents( 17 ).size() ) ;
+        assertEquals( 1, subsB.getEvents( 17 ).size() ) ;
+        assertEquals( 0, subsA.getEvents( 25 ).size() ) ;
+        assertEquals( 1, subsB.getEvents( 25 ).size() ) ;
+        assertEquals( 2, subsC.getEvents( 17 ).size() + subsC.getEvents( 25 ).size() ) ;
+        
+        BUS.removeSubscriber( subsB ) ;
+        assertEquals( 2, BUS.getSubscribersForEvent( 17 ).size() ) ;
+        assertEquals( 1, BUS.getSubscribersForEvent( 25 ).size() ) ;
+    }
+    
+    /**
+     * FEATURE: Range subscribers honour the asynchronous dispatch preference
+     */
+    public void testAsyncRangeSubscription() 
+        throws Exception {
+        
+        final MockEventSubscriber subs = new MockEventSubscriber() ;
+        BUS.addSubscriberForEventRange( subs, true, 100, 200 ) ;
+        BUS.publishEvent( 150, "Test" ) ;
+        
+        Thread.sleep( 100 ) ;
+        assertEquals( 1, subs.getEvents( 150 ).size() ) ;
+        assertEquals( 1, BUS.getRegisteredEventRangesForSubscriber( subs ).size() ) ;
+        
+        BUS.removeSubscriber( subs ) ;
+        assertEquals( 0, BUS.getRegisteredEventRangesForSubscriber( subs ).size() ) ;
+    }
+
+    /**
+     * FEATURE: A bounded asynchronous subscriber drops the newest or the 
+     *          oldest events on overflow, as per its dispatch policy
+     */
+    public void testBoundedAsyncOverflow() 
+        throws Exception {
+        
+        BlockingEventSubscriber dropNewest = new BlockingEventSubscriber() ;
+        BlockingEventSubscriber dropOldest = new BlockingEventSubscriber() ;
+        
+        BUS.addSubscriberForEventTypes( dropNewest, 
+                new AsyncDispatchPolicy( 2, AsyncDispatchPolicy.DROP_NEWEST ), 
+                TEST_EVENT_1 ) ;
+        BUS.addSubscriberForEventTypes( dropOldest, 
+                new AsyncDispatchPolicy( 2, AsyncDispatchPolicy.DROP_OLDEST ), 
+                TEST_EVENT_1 ) ;
+        
+        BUS.publishEvent( TEST_EVENT_1, 0 ) ;
+        dropNewest.awaitFirstEvent() ;
+        dropOldest.awaitFirstEvent() ;
+        
+        for( int i=1; i<=5; i++ ) {
+            BUS.publishEvent( TEST_EVENT_1, i ) ;
+        }
+        
+        assertEquals( 2, BUS.getQueueDepth( dropNewest ) ) ;
+        assertEquals( 3, BUS.getNumDroppedEvents( dropNewest ) ) ;
+        assertEquals( 3, BUS.getNumDroppedEvents( dropOldest ) ) ;
+        
+        dropNewest.release() ;
+        dropOldest.release() ;
+        Thread.sleep( 100 ) ;
+        
+        assertEquals( "[0, 1, 2]", dropNewest.getValues().toString() ) ;
+        assertEquals( "[0, 4, 5]", dropOldest.getValues().toString() ) ;
+    }
+    
+    /**
+     * FEATURE: A conflating subscriber only receives the latest queued event
+     *          of each event type
+     */
+    public void testConflatingAsyncSubscriber() 
+        throws Exception {
+        
+        BlockingEventSubscriber subs = new BlockingEventSubscriber() ;
+        BUS.addSubscriberForEventTypes( subs, 
+                new AsyncDispatchPolicy( 10, AsyncDispatchPolicy.CONFLATE ) ) ;
+        
+        BUS.publishEvent( 1, "1-0" ) ;
+        subs.awaitFirstEvent() ;
+        
+        BUS.publishEvent( 1, "1-1" ) ;
+        BUS.publishEvent( 2, "2-1" ) ;
+        BUS.publishEvent( 1, "1-2" ) ;
+        BUS.publishEvent( 2, "2-2" ) ;
+        
+        assertEquals( 2, BUS.getQueueDepth( subs ) ) ;
+        subs.release() ;
+        Thread.sleep( 100 ) ;
+        
+        assertEquals( "[1-0, 1-2, 2-2]", subs.getValues().toString() ) ;
+    }
+
+    /**
+     * FEATURE: Asynchronous subscribers sharing a thread pool receive their
+     *          events in order, on no more threads than the pool size
+     */
+    public void testSharedPoolDispatch() 
+        throws Exception {
+        
+        final Set<String> threadNames = Collections.synchronizedSet( new HashSet<String>() ) ;
+        final List<List<Object>> received = new ArrayList<List<Object>>() ;
+        
+        AsyncDispatcher dispatcher = AsyncDispatcher.sharedPool( 2 ) ;
+        BUS.setAsyncDispatcher( dispatcher ) ;
+        
+        for( int i=0; i<50; i++ ) {
+            final List<Object> values = Collections.synchronizedList( new ArrayList<Object>() ) ;
+            received.add( values ) ;
+            BUS.addSubscriberForEventTypes( new EventSubscriber() {
+                public void handleEvent( Event event ) {
+                    threadNames.add( Thread.currentThread().getName() ) ;
+                    values.add( event.getValue() ) ;
+                }
+            }, true, TEST_EVENT_1 ) ;
+        }
+        
+        for( int i=0; i<100; i++ ) {
+            BUS.publishEvent( TEST_EVENT_1, i ) ;
+        }
+        Thread.sleep( 500 ) ;
+        
+        for( List<Object> values : received ) {
+            assertEquals( 100, values.size() ) ;
+            for( int i=0; i<100; i++ ) {
+                assertEquals( i, values.get( i ) ) ;
+            }
+        }
+        assertTrue( threadNames.size() <= 2 ) ;
+        
+        BUS.clear() ;
+        dispatcher.shutdown() ;
+    }
+
+    /**
+     * FEATURE: A ring buffer backed subscriber receives all the events in
+     *          order, with the publisher blocking on a full ring
+     */
+    public void testRingBufferDispatch() 
+        throws Exception {
+        
+        final List<Object> values = Collections.synchronizedList( new ArrayList<Object>() ) ;
+        final EventSubscriber subs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                values.add( event.getValue() ) ;
+            }
+        } ;
+        
+        BUS.addSubscriberForEventTypes( subs, 
+                new RingBufferDispatchPolicy( 8, AsyncDispatchPolicy.BLOCK ), 
+                TEST_EVENT_1 ) ;
+        
+        for( int i=0; i<10000; i++ ) {
+            BUS.publishEvent( TEST_EVENT_1, i ) ;
+        }
+        
+        for( int i=0; i<50 && values.size() < 10000; i++ ) {
+            Thread.sleep( 20 ) ;
+        }
+        assertEquals( 10000, values.size() ) ;
+        for( int i=0; i<10000; i++ ) {
+            assertEquals( i, values.get( i ) ) ;
+        }
+        assertEquals( 0, BUS.getNumDroppedEvents( subs ) ) ;
+    }
+
+    /**
+     * FEATURE: A batch publish is delivered in a single call to batch aware 
+     *          subscribers and event by event to the others
+     */
+    public void testBatchPublish() 
+        throws Exception {
+        
+        final List<Integer> syncBatchSizes = new ArrayList<Integer>() ;
+        final List<Object> asyncValues = Collections.synchronizedList( new ArrayList<Object>() ) ;
+        final MockEventSubscriber plainSubs = new MockEventSubscriber() ;
+        
+        BUS.addSubscriberForEventTypes( new BatchEventSubscriber() {
+            public void handleEvent( Event event ) {
+                syncBatchSizes.add( 1 ) ;
+            }
+            public void handleEvents( List<Event> events ) {
+                syncBatchSizes.add( events.size() ) ;
+            }
+        }, false, TEST_EVENT_1 ) ;
+        
+        BUS.addSubscriberForEventTypes( new BatchEventSubscriber() {
+            public void handleEvent( Event event ) {
+                asyncValues.add( event.getValue() ) ;
+            }
+            public void handleEvents( List<Event> events ) {
+                for( Event event : events ) {
+                    asyncValues.add( event.getValue() ) ;
+                }
+            }
+        }, true, TEST_EVENT_1 ) ;
+        
+        BUS.addSubscriberForEventTypes( plainSubs, false, TEST_EVENT_1 ) ;
+        
+        BUS.publishEvents( TEST_EVENT_1, Arrays.asList( 1, 2, 3, 4, 5 ) ) ;
+        Thread.sleep( 100 ) ;
+        
+        assertEquals( "[5]", syncBatchSizes.toString() ) ;
+        assertEquals( "[1, 2, 3, 4, 5]", asyncValues.toString() ) ;
+        assertEquals( 5, plainSubs.getEvents( TEST_EVENT_1 ).size() ) ;
+    }
+
+    /**
+     * FEATURE: With metrics enabled, the bus counts the published events and
+     *          records the deliveries and failures of each subscriber. The
+     *          snapshot is not affected by the subsequent publishes.
+     */
+    public void testDispatchMetrics() 
+        throws Exception {
+        
+        final MockEventSubscriber syncSubs = new MockEventSubscriber() ;
+        final EventSubscriber asyncSubs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                if( event.getValue() == null ) {
+                    throw new IllegalArgumentException( "Null value" ) ;
+                }
+            }
+        } ;
+        
+        BUS.addSubscriberForEventTypes( asyncSubs, true, TEST_EVENT_1 ) ;
+        BUS.setMetricsEnabled( true ) ;
+        BUS.addSubscriberForEventTypes( syncSubs, false, TEST_EVENT_1 ) ;
+        
+        for( int i=0; i<10; i++ ) {
+            BUS.publishEvent( TEST_EVENT_1, ( i == 5 ) ? null : i ) ;
+        }
+        BUS.publishEvent( 2, "Unsubscribed" ) ;
+        
+        EventBusMetrics metrics = BUS.getMetrics() ;
+        SubscriberMetrics asyncMetrics = metrics.getSubscriberMetrics( asyncSubs ) ;
+        for( int i=0; i<50 && asyncMetrics.getNumDelivered() < 9; i++ ) {
+            Thread.sleep( 20 ) ;
+        }
+        
+        EventBusMetrics snapshot = metrics.snapshot() ;
+        BUS.publishEvent( TEST_EVENT_1, "After snapshot" ) ;
+        
+        assertEquals( 10, snapshot.getNumPublished( TEST_EVENT_1 ) ) ;
+        assertEquals( 11, snapshot.getNumPublished() ) ;
+        assertEquals( 11, metrics.getNumPublished( TEST_EVENT_1 ) ) ;
+        
+        SubscriberMetrics syncMetrics = snapshot.getSubscriberMetrics( syncSubs ) ;
+        assertEquals( 10, syncMetrics.getNumDelivered() ) ;
+        assertEquals( 10, syncMetrics.getHandlerTime().getCount() ) ;
+        assertEquals( 0, syncMetrics.getQueueWaitTime().getCount() ) ;
+        
+        asyncMetrics = snapshot.getSubscriberMetrics( asyncSubs ) ;
+        assertEquals( 9, asyncMetrics.getNumDelivered() ) ;
+        assertEquals( 1, asyncMetrics.getNumFailures() ) ;
+        assertEquals( 10, asyncMetrics.getQueueWaitTime().getCount() ) ;
+    }
+
+    /**
+     * FEATURE: Disabling the metrics unregisters the MBean of the discarded
+     *          metrics, so that no stale MBean is left behind
+     */
+    public void testMetricsMBeanUnregisteredOnDisable() 
+        throws Exception {
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer() ;
+        ObjectName name = new ObjectName( EventBusMetrics.MBEAN_DOMAIN + 
+                                          ":type=EventBus,name=" + 
+                                          ObjectName.quote( "metricsTestBus" ) ) ;
+        
+        BUS.setMetricsEnabled( true ) ;
+        BUS.getMetrics().registerMBean( "metricsTestBus" ) ;
+        assertTrue( server.isRegistered( name ) ) ;
+        
+        BUS.setMetricsEnabled( false ) ;
+        assertFalse( server.isRegistered( name ) ) ;
+        
+        // The fresh metrics can be registered under the same name
+        BUS.setMetricsEnabled( true ) ;
+        BUS.getMetrics().registerMBean( "metricsTestBus" ) ;
+        assertTrue( server.isRegistered( name ) ) ;
+        BUS.setMetricsEnabled( false ) ;
+        assertFalse( server.isRegistered( name ) ) ;
+    }
+
+    /**
+     * FEATURE: Subscribers registered for widely spread event ids, which
+     *          are not held in a direct array, receive only their events
+     */
+    public void testSparseEventIds() {
+        
+        final int[] eventIds = { -7, 3, 1000, 1 << 20, Integer.MAX_VALUE } ;
+        final MockEventSubscriber[] subs = new MockEventSubscriber[eventIds.length] ;
+        
+        for( int i=0; i<eventIds.length; i++ ) {
+            subs[i] = new MockEventSubscriber() ;
+            BUS.addSubscriberForEventTypes( subs[i], false, eventIds[i] ) ;
+        }
+        
+        for( int eventId : eventIds ) {
+            BUS.publishEvent( eventId, "Test" ) ;
+            BUS.publishEvent( eventId + 1, "Unsubscribed" ) ;
+        }
+        
+        for( int i=0; i<eventIds.length; i++ ) {
+            assertEquals( 1, subs[i].getEvents( eventIds[i] ).size() ) ;
+            assertEquals( 0, subs[i].getEvents( eventIds[i] + 1 ).size() ) ;
+        }
+    }
+
+    /**
+     * FEATURE: A subscriber registered asynchronously for an event type, a
+     *          covering range and all events receives each event only once
+     */
+    public void testAsyncSubscriberNotDuplicated() 
+        throws Exception {
+        
+        final AtomicInteger numEvents = new AtomicInteger() ;
+        final EventSubscriber subs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                numEvents.incrementAndGet() ;
+            }
+        } ;
+        
+        BUS.addSubscriberForEventTypes( subs, true, TEST_EVENT_1 ) ;
+        BUS.addSubscriberForEventRange( subs, true, 0, 10 ) ;
+        BUS.addSubscriberForEventTypes( subs, true ) ;
+        
+        assertEquals( 1, BUS.getSubscribersForEvent( TEST_EVENT_1 ).size() ) ;
+        assertEquals( 1, BUS.getSubscribersForEvent( 5 ).size() ) ;
+        
+        BUS.publishEvent( TEST_EVENT_1, "Test" ) ;
+        BUS.publishEvent( 5, "Test" ) ;
+        Thread.sleep( 100 ) ;
+        
+        assertEquals( 2, numEvents.get() ) ;
+    }
+
+    /**
+     * FEATURE: Topic subscribers receive the events published on topics 
+     *          matching their patterns, including the wildcard patterns
+     */
+    public void testTopicSubscriptions() {
+        
+        final MockEventSubscriber filledSubs = new MockEventSubscriber() ;
+        final MockEventSubscriber orderSubs  = new MockEventSubscriber() ;
+        final MockEventSubscriber exactSubs  = new MockEventSubscriber() ;
+        
+        BUS.addSubscriberForTopics( filledSubs, false, "orders.*.filled" ) ;
+        BUS.addSubscriberForTopics( orderSubs, false, "orders.#", "#.filled" ) ;
+        BUS.addSubscriberForTopics( exactSubs, false, "orders.equity.filled" ) ;
+        
+        BUS.publishEvent( "orders.equity.filled", "E1" ) ;
+        BUS.publishEvent( "orders.fx.filled", "F1" ) ;
+        BUS.publishEvent( "orders.fx.spot.filled", "F2" ) ;
+        BUS.publishEvent( "orders", "O1" ) ;
+        BUS.publishEvent( "trades.equity", "T1" ) ;
+        BUS.publishEvent( TEST_EVENT_1, "Not a topic" ) ;
+        
+        assertEquals( 2, filledSubs.getEvents( EventBus.TOPIC_EVENT ).size() ) ;
+        assertEquals( 4, orderSubs.getEvents( EventBus.TOPIC_EVENT ).size() ) ;
+        assertEquals( 1, exactSubs.getEvents( EventBus.TOPIC_EVENT ).size() ) ;
+        assertEquals( "orders.equity.filled", 
+                      exactSubs.getEvents( EventBus.TOPIC_EVENT ).get( 0 ).getTopic() ) ;
+        assertEquals( 0, orderSubs.getEvents( TEST_EVENT_1 ).size() ) ;
+        
+        BUS.removeSubscriberFromTopics( orderSubs, "orders.#" ) ;
+        assertEquals( 2, BUS.getSubscribersForTopic( "orders.fx.filled" ).size() ) ;
+        assertEquals( 0, BUS.getSubscribersForTopic( "orders" ).size() ) ;
+        
+        try {
+            BUS.addSubscriberForTopics( exactSubs, false, "orders.fx*" ) ;
+            fail( "Partial segment wildcard should be rejected" ) ;
+        }
+        catch( IllegalArgumentException e ) {
+            // Expected
+        }
+    }
+
+    /**
+     * FEATURE: Null and malformed topics are rejected on publish, whether or
+     *          not any topic subscriber is registered
+     */
+    public void testInvalidTopicsRejected() {
+        
+        assertInvalidTopicRejected( null ) ;
+        assertInvalidTopicRejected( "a..b" ) ;
+        
+        final MockEventSubscriber subs = new MockEventSubscriber() ;
+        BUS.addSubscriberForTopics( subs, false, "#" ) ;
+        assertInvalidTopicRejected( null ) ;
+        assertInvalidTopicRejected( "a..b" ) ;
+        assertInvalidTopicRejected( ".a" ) ;
+        assertInvalidTopicRejected( "a." ) ;
+        assertInvalidTopicRejected( "" ) ;
+        
+        BUS.publishEvent( "a.b", "Valid" ) ;
+        BUS.publishEvent( "a.b", "Cached" ) ;
+        assertEquals( 2, subs.getEvents( EventBus.TOPIC_EVENT ).size() ) ;
+    }
+    
+    private void assertInvalidTopicRejected( String topic ) {
+        try {
+            BUS.publishEvent( topic, "Invalid" ) ;
+            fail( "Topic " + topic + " should be rejected" ) ;
+        }
+        catch( IllegalArgumentException e ) {
+            // Expected
+        }
+    }
+
+    /**
+     * FEATURE: The @Subscribe methods of an annotated subscriber receive the
+     *          events whose values are instances of their parameter types
+     */
+    public void testAnnotatedSubscriber() {
+        
+        final List<String> received = new ArrayList<String>() ;
+        final Object subs = new Object() {
+            @Subscribe
+            public void onString( String value ) {
+                received.add( "String:" + value ) ;
+            }
+            @Subscribe
+            public void onNumber( Number value ) {
+                received.add( "Number:" + value ) ;
+            }
+            @Subscribe
+            public void onInteger( Integer value ) {
+                received.add( "Integer:" + value ) ;
+            }
+        } ;
+        
+        BUS.addAnnotatedSubscriber( subs, false, TEST_EVENT_1 ) ;
+        BUS.publishEvent( TEST_EVENT_1, "A" ) ;
+        BUS.publishEvent( TEST_EVENT_1, 2.5 ) ;
+        BUS.publishEvent( TEST_EVENT_1, new Object() ) ;
+        BUS.publishEvent( TEST_EVENT_1, null ) ;
+        
+        assertEquals( "[String:A, Number:2.5]", received.toString() ) ;
+        
+        received.clear() ;
+        BUS.publishEvent( TEST_EVENT_1, 7 ) ;
+        Collections.sort( received ) ;
+        assertEquals( "[Integer:7, Number:7]", received.toString() ) ;
+        
+        BUS.removeAnnotatedSubscriber( subs ) ;
+        assertEquals( 0, BUS.getSubscribersForEvent( TEST_EVENT_1 ).size() ) ;
+    }
+
+    /**
+     * FEATURE: Events published on a bus bridged through a mapped file are
+     *          republished on the peer bus, exactly once and without being
+     *          echoed back to the publishing bus
+     */
+    public void testMappedFileBridge() 
+        throws Exception {
+        
+        File ringFile = File.createTempFile( "eventbridge", ".ring" ) ;
+        ringFile.delete() ;
+        ringFile.deleteOnExit() ;
+        
+        EventBus peerBus = new EventBus() ;
+        MockEventSubscriber localSubs = new MockEventSubscriber() ;
+        MockEventSubscriber peerSubs  = new MockEventSubscriber() ;
+        BUS.addSubscriberForEventTypes( localSubs, false ) ;
+        peerBus.addSubscriberForEventTypes( peerSubs, false ) ;
+        peerBus.addSubscriberForTopics( peerSubs, false, "#" ) ;
+        
+        MappedFileEventBridge localBridge = null ;
+        MappedFileEventBridge peerBridge = null ;
+        localBridge = new MappedFileEventBridge( BUS, ringFile, 1024, 
+                                                 EventPayloadCodec.STRING ) ;
+        peerBridge  = new MappedFileEventBridge( peerBus, ringFile, 1024, 
+                                                 EventPayloadCodec.STRING ) ;
+        localBridge.bridgeEventTypes() ;
+        localBridge.bridgeTopics( "#" ) ;
+        peerBridge.bridgeEventTypes() ;
+        localBridge.start() ;
+        peerBridge.start() ;
+        
+        try {
+            // Enough events to wrap the ring around several times
+            for( int i=0; i<200; i++ ) {
+                BUS.publishEvent( TEST_EVENT_1, "Event-" + i ) ;
+                for( int j=0; j<100 && peerSubs.getEvents( TEST_EVENT_1 ).size() <= i; j++ ) {
+                    Thread.sleep( 1 ) ;
+                }
+            }
+            BUS.publishEvent( "orders.filled", "Topic" ) ;
+            Thread.sleep( 100 ) ;
+            
+            List<Event> peerEvents = peerSubs.getEvents( TEST_EVENT_1 ) ;
+            assertEquals( 200, peerEvents.size() ) ;
+            assertEquals( "Event-199", peerEvents.get( 199 ).getValue() ) ;
+            assertEquals( "orders.filled", 
+                          peerSubs.getEvents( EventBus.TOPIC_EVENT ).get( 0 ).getTopic() ) ;
+            assertEquals( 200, localSubs.getEvents( TEST_EVENT_1 ).size() ) ;
+            assertEquals( 0, peerBridge.getNumSkippedBytes() ) ;
+        }
+        finally {
+            localBridge.close() ;
+            peerBridge.close() ;
+        }
+    }
+
+    /**
+     * FEATURE: Events which a synchronous subscriber publishes while handling
+     *          a bridged event are bridged back, while the bridged event
+     *          itself is not echoed
+     */
+    public void testMappedFileBridgeRepublishingSubscriber()
+        throws Exception {
+
+        File ringFile = File.createTempFile( "eventbridge", ".ring" ) ;
+        ringFile.delete() ;
+        ringFile.deleteOnExit() ;
+
+        final int REPLY_EVENT = 2 ;
+        final EventBus peerBus = new EventBus() ;
+        MockEventSubscriber localSubs = new MockEventSubscriber() ;
+        BUS.addSubscriberForEventTypes( localSubs, false ) ;
+
+        // Registered ahead of the bridge, so it replies before the bridge
+        // sees the bridged event
+        peerBus.addSubscriberForEventTypes( new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                peerBus.publishEvent( REPLY_EVENT, "Reply-" + event.getValue() ) ;
+            }
+        }, false, TEST_EVENT_1 ) ;
+
+        MappedFileEventBridge localBridge = null ;
+        MappedFileEventBridge peerBridge = null ;
+        localBridge = new MappedFileEventBridge( BUS, ringFile, 1024,
+                                                 EventPayloadCodec.STRING ) ;
+        peerBridge  = new MappedFileEventBridge( peerBus, ringFile, 1024,
+                                                 EventPayloadCodec.STRING ) ;
+        localBridge.bridgeEventTypes( TEST_EVENT_1 ) ;
+        peerBridge.bridgeEventTypes() ;
+        localBridge.start() ;
+        peerBridge.start() ;
+
+        try {
+            for( int i=0; i<3; i++ ) {
+                BUS.publishEvent( TEST_EVENT_1, "Event-" + i ) ;
+            }
+            for( int j=0; j<1000 && localSubs.getEvents( REPLY_EVENT ).size() < 3; j++ ) {
+                Thread.sleep( 1 ) ;
+            }
+            Thread.sleep( 50 ) ;
+
+            List<Event> replies = localSubs.getEvents( REPLY_EVENT ) ;
+            assertEquals( 3, replies.size() ) ;
+            assertEquals( "Reply-Event-2", replies.get( 2 ).getValue() ) ;
+            assertEquals( 3, localSubs.getEvents( TEST_EVENT_1 ).size() ) ;
+        }
+        finally {
+            localBridge.close() ;
+            peerBridge.close() ;
+        }
+    }
+
+    /**
+     * FEATURE: Events too large for the ring and topics too long for their
+     *          length field are rejected, without corrupting the records
+     *          not yet read by the peers
+     */
+    public void testMappedFileBridgeRejectsOversizeEvents()
+        throws Exception {
+
+        File ringFile = File.createTempFile( "eventbridge", ".ring" ) ;
+        ringFile.delete() ;
+        ringFile.deleteOnExit() ;
+
+        EventBus peerBus = new EventBus() ;
+        MockEventSubscriber peerSubs = new MockEventSubscriber() ;
+        peerBus.addSubscriberForEventTypes( peerSubs, false ) ;
+        peerBus.addSubscriberForTopics( peerSubs, false, "#" ) ;
+
+        MappedFileEventBridge localBridge = null ;
+        MappedFileEventBridge peerBridge = null ;
+        localBridge = new MappedFileEventBridge( BUS, ringFile, 1 << 16,
+                                                 EventPayloadCodec.STRING ) ;
+        peerBridge  = new MappedFileEventBridge( peerBus, ringFile, 1 << 16,
+                                                 EventPayloadCodec.STRING ) ;
+        localBridge.bridgeEventTypes() ;
+        localBridge.bridgeTopics( "#" ) ;
+
+        char[] chars = new char[ 1 << 16 ] ;
+        Arrays.fill( chars, 'x' ) ;
+        String oversize = new String( chars ) ;
+
+        try {
+            // Appended while the peer isn't tailing, so that the rejected
+            // events would overwrite records the peer has yet to read
+            for( int i=0; i<5; i++ ) {
+                BUS.publishEvent( TEST_EVENT_1, "Event-" + i ) ;
+            }
+            BUS.publishEvent( TEST_EVENT_1, oversize ) ;
+            BUS.publishEvent( oversize.substring( 0, Short.MAX_VALUE + 1 ), "Long" ) ;
+            BUS.publishEvent( TEST_EVENT_1, "Event-5" ) ;
+
+            peerBridge.start() ;
+            for( int j=0; j<1000 && peerSubs.getEvents( TEST_EVENT_1 ).size() < 6; j++ ) {
+                Thread.sleep( 1 ) ;
+            }
+            Thread.sleep( 50 ) ;
+
+            List<Event> peerEvents = peerSubs.getEvents( TEST_EVENT_1 ) ;
+            assertEquals( 6, peerEvents.size() ) ;
+            for( int i=0; i<6; i++ ) {
+                assertEquals( "Event-" + i, peerEvents.get( i ).getValue() ) ;
+            }
+            assertTrue( peerSubs.getEvents( EventBus.TOPIC_EVENT ).isEmpty() ) ;
+            assertEquals( 0, peerBridge.getNumSkippedBytes() ) ;
+        }
+        finally {
+            localBridge.close() ;
+            peerBridge.close() ;
+        }
+    }
+
+    /**
+     * FEATURE: Events published on a journaled bus can be replayed from an
+     *          offset after the journal is reopened, across rolled segments
+     */
+    public void testJournalReplay() 
+        throws Exception {
+        
+        File journalDir = File.createTempFile( "eventjournal", "" ) ;
+        journalDir.delete() ;
+        
+        EventJournal journal = new EventJournal( journalDir, EventPayloadCodec.STRING,
+                                                 EventJournal.SYNC, 256, 10 ) ;
+        BUS.setJournal( journal ) ;
+        for( int i=0; i<20; i++ ) {
+            BUS.publishEvent( TEST_EVENT_1, "Event-" + i ) ;
+        }
+        BUS.publishEvent( "orders.filled", "Topic" ) ;
+        BUS.setJournal( null ) ;
+        journal.close() ;
+        
+        assertTrue( journalDir.listFiles().length > 1 ) ;
+        
+        journal = new EventJournal( journalDir, EventPayloadCodec.STRING, 
+                                    EventJournal.SYNC, 256, 10 ) ;
+        try {
+            assertEquals( 21, journal.getNextOffset() ) ;
+            
+            MockEventSubscriber subs = new MockEventSubscriber() ;
+            assertEquals( 21, journal.replay( 5, subs ) ) ;
+            
+            List<Event> events = subs.getEvents( TEST_EVENT_1 ) ;
+            assertEquals( 15, events.size() ) ;
+            assertEquals( "Event-5", events.get( 0 ).getValue() ) ;
+            assertEquals( "Event-19", events.get( 14 ).getValue() ) ;
+            assertEquals( "orders.filled", 
+                          subs.getEvents( EventBus.TOPIC_EVENT ).get( 0 ).getTopic() ) ;
+            
+            assertEquals( 21, journal.append( TEST_EVENT_1, null, "After reopen", 0 ) ) ;
+        }
+        finally {
+            journal.close() ;
+            for( File file : journalDir.listFiles() ) {
+                file.delete() ;
+            }
+            journalDir.delete() ;
+        }
+    }
+
+    /**
+     * FEATURE: A rate limited conflating subscriber receives a few of the 
+     *          intermediate values per key but always the latest one, on
+     *          dedicated as well as pooled dispatch threads
+     */
+    public void testRateLimitedConflation() 
+        throws Exception {
+        
+        final EventKeyExtractor keyExtractor = new EventKeyExtractor() {
+            public Object getKey( Event event ) {
+                return event.getValue().toString().split( ":" )[0] ;
+            }
+        } ;
+        
+        AsyncDispatcher[] dispatchers = { AsyncDispatcher.dedicatedThreads(), 
+                                          AsyncDispatcher.sharedPool( 2 ) } ;
+        for( AsyncDispatcher dispatcher : dispatchers ) {
+            
+            final List<Object> values = Collections.synchronizedList( new ArrayList<Object>() ) ;
+            final EventSubscriber subs = new EventSubscriber() {
+                public void handleEvent( Event event ) {
+                    values.add( event.getValue() ) ;
+                }
+            } ;
+            
+            BUS.clear() ;
+            BUS.setAsyncDispatcher( dispatcher ) ;
+            BUS.addSubscriberForEventTypes( subs, 
+                    new ConflatingDispatchPolicy( 16, keyExtractor, 10 ), 
+                    TEST_EVENT_1 ) ;
+            
+            for( int i=0; i<1000; i++ ) {
+                BUS.publishEvent( TEST_EVENT_1, "A:" + i ) ;
+                BUS.publishEvent( TEST_EVENT_1, "B:" + i ) ;
+                if( i % 100 == 0 ) {
+                    Thread.sleep( 10 ) ;
+                }
+            }
+            Thread.sleep( 300 ) ;
+            
+            assertTrue( values.size() < 50 ) ;
+            assertTrue( values.contains( "A:999" ) ) ;
+            assertTrue( values.contains( "B:999" ) ) ;
+            
+            BUS.clear() ;
+            dispatcher.shutdown() ;
+        }
+    }
+
+    /**
+     * FEATURE: High priority events overtake the low priority events queued
+     *          before them, while each lane retains the publishing order
+     */
+    public void testPriorityDispatch() 
+        throws Exception {
+        
+        final int DATA_EVENT = 2 ;
+        final int CONTROL_EVENT = 3 ;
+        BlockingEventSubscriber subs = new BlockingEventSubscriber() ;
+        
+        BUS.addSubscriberForEventTypes( subs, 
+                new PriorityDispatchPolicy( 100, AsyncDispatchPolicy.BLOCK, 
+                                            CONTROL_EVENT ), 
+                DATA_EVENT, CONTROL_EVENT ) ;
+        
+        BUS.publishEvent( DATA_EVENT, "D0" ) ;
+        subs.awaitFirstEvent() ;
+        
+        BUS.publishEvent( DATA_EVENT, "D1" ) ;
+        BUS.publishEvent( DATA_EVENT, "D2" ) ;
+        BUS.publishEvent( CONTROL_EVENT, "C1" ) ;
+        BUS.publishEvent( DATA_EVENT, "D3" ) ;
+        BUS.publishEvent( CONTROL_EVENT, "C2" ) ;
+        
+        subs.release() ;
+        Thread.sleep( 100 ) ;
+        
+        assertEquals( "[D0, C1, C2, D1, D2, D3]", subs.getValues().toString() ) ;
+    }
+
+    /**
+     * FEATURE: Keyed parallel lanes deliver the events of a subscriber on
+     *          multiple threads, retaining the publishing order per key
+     */
+    public void testKeyedParallelDispatch() 
+        throws Exception {
+        
+        final int NUM_KEYS = 8 ;
+        final int NUM_EVENTS_PER_KEY = 500 ;
+        
+        EventKeyExtractor keyExtractor = new EventKeyExtractor() {
+            public Object getKey( Event event ) {
+                return event.getValue().toString().split( ":" )[0] ;
+            }
+        } ;
+        
+        final List<Object> values = Collections.synchronizedList( new ArrayList<Object>() ) ;
+        final Set<Thread> threads = Collections.synchronizedSet( new HashSet<Thread>() ) ;
+        final EventSubscriber subs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                threads.add( Thread.currentThread() ) ;
+                values.add( event.getValue() ) ;
+            }
+        } ;
+        
+        BUS.addSubscriberForEventTypes( subs, 
+                new KeyedParallelDispatchPolicy( 100, AsyncDispatchPolicy.BLOCK, 
+                                                 4, keyExtractor ), 
+                TEST_EVENT_1 ) ;
+        
+        for( int i=0; i<NUM_EVENTS_PER_KEY; i++ ) {
+            for( int key=0; key<NUM_KEYS; key++ ) {
+                BUS.publishEvent( TEST_EVENT_1, key + ":" + i ) ;
+            }
+        }
+        
+        for( int i=0; i<100 && values.size() < NUM_KEYS*NUM_EVENTS_PER_KEY; i++ ) {
+            Thread.sleep( 20 ) ;
+        }
+        assertEquals( NUM_KEYS*NUM_EVENTS_PER_KEY, values.size() ) ;
+        assertTrue( threads.size() > 1 ) ;
+        
+        int[] lastSeq = new int[NUM_KEYS] ;
+        Arrays.fill( lastSeq, -1 ) ;
+        synchronized( values ) {
+            for( Object value : values ) {
+                String[] parts = value.toString().split( ":" ) ;
+                int key = Integer.parseInt( parts[0] ) ;
+                int seq = Integer.parseInt( parts[1] ) ;
+                assertEquals( lastSeq[key] + 1, seq ) ;
+                lastSeq[key] = seq ;
+            }
+        }
+        assertEquals( 0, BUS.getQueueDepth( subs ) ) ;
+    }
+
+    /**
+     * FEATURE: Shutdown rejects new publishes, drains the asynchronous queues
+     *          within the deadline and reports the undelivered events
+     */
+    public void testShutdownWithDeadline() 
+        throws Exception {
+        
+        EventBus bus = new EventBus() ;
+        final List<Object> values = Collections.synchronizedList( new ArrayList<Object>() ) ;
+        EventSubscriber slowSubs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                try {
+                    Thread.sleep( 1 ) ;
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt() ;
+                }
+                values.add( event.getValue() ) ;
+            }
+        } ;
+        BlockingEventSubscriber blockedSubs = new BlockingEventSubscriber() ;
+        
+        final int BLOCKED_EVENT = 2 ;
+        bus.addSubscriberForEventTypes( slowSubs, true, TEST_EVENT_1 ) ;
+        bus.addSubscriberForEventTypes( blockedSubs, true, BLOCKED_EVENT ) ;
+        
+        for( int i=0; i<50; i++ ) {
+            bus.publishEvent( TEST_EVENT_1, i ) ;
+        }
+        for( int i=0; i<10; i++ ) {
+            bus.publishEvent( BLOCKED_EVENT, i ) ;
+        }
+        blockedSubs.awaitFirstEvent() ;
+        
+        // The blocked subscriber holds one event in flight and nine queued
+        assertEquals( 10, bus.shutdown( Duration.ofSeconds( 2 ) ) ) ;
+        assertEquals( 50, values.size() ) ;
+        assertTrue( bus.isShutdown() ) ;
+        assertTrue( bus.getSubscribersForEvent( TEST_EVENT_1 ).isEmpty() ) ;
+        
+        try {
+            bus.publishEvent( TEST_EVENT_1, "late" ) ;
+            fail( "Publish should be rejected after shutdown" ) ;
+        }
+        catch( IllegalStateException e ) {
+            // Expected
+        }
+        blockedSubs.release() ;
+    }
+
+    /**
+     * FEATURE: Reusable subscribers receive pooled carriers stamped with the
+     *          nano time, which are not clobbered by nested publishes
+     */
+    public void testReusableEventCarriers() 
+        throws Exception {
+        
+        final int NESTED_EVENT = 2 ;
+        final List<Event> carriers = new ArrayList<Event>() ;
+        final List<Event> copies = new ArrayList<Event>() ;
+        final List<Object> valuesAfterNesting = new ArrayList<Object>() ;
+        
+        ReusableEventSubscriber subs = new ReusableEventSubscriber() {
+            public void handleEvent( Event event ) {
+                carriers.add( event ) ;
+                copies.add( event.copy() ) ;
+                if( event.getEventType() == TEST_EVENT_1 ) {
+                    BUS.publishEvent( NESTED_EVENT, "nested" ) ;
+                    valuesAfterNesting.add( event.getValue() ) ;
+                }
+            }
+        } ;
+        BUS.addSubscriberForEventTypes( subs, false, TEST_EVENT_1, NESTED_EVENT ) ;
+        
+        long startNanos = System.nanoTime() ;
+        BUS.publishEvent( TEST_EVENT_1, "first" ) ;
+        BUS.publishEvent( TEST_EVENT_1, "second" ) ;
+        
+        assertEquals( 4, carriers.size() ) ;
+        assertSame( carriers.get( 0 ), carriers.get( 2 ) ) ;
+        assertNotSame( carriers.get( 0 ), carriers.get( 1 ) ) ;
+        assertEquals( Arrays.asList( "first", "second" ), valuesAfterNesting ) ;
+        
+        assertEquals( "first", copies.get( 0 ).getValue() ) ;
+        assertEquals( "nested", copies.get( 1 ).getValue() ) ;
+        assertEquals( "second", copies.get( 2 ).getValue() ) ;
+        assertTrue( copies.get( 0 ).getEventNanoTime() >= startNanos ) ;
+        assertTrue( copies.get( 2 ).getEventNanoTime() >= 
+                    copies.get( 0 ).getEventNanoTime() ) ;
+        
+        // The carriers are cleared once delivered
+        assertNull( carriers.get( 0 ).getValue() ) ;
+    }
+
+    /**
+     * FEATURE: Asynchronous publish returns a future which completes once all
+     *          the subscribers are done, carrying the failures per subscriber
+     */
+    public void testPublishEventAsync() 
+        throws Exception {
+        
+        final List<Object> values = Collections.synchronizedList( new ArrayList<Object>() ) ;
+        EventSubscriber syncSubs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                values.add( "sync:" + event.getValue() ) ;
+            }
+        } ;
+        EventSubscriber failingSubs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                if( "bad".equals( event.getValue() ) ) {
+                    throw new IllegalArgumentException( "bad value" ) ;
+                }
+                values.add( "async:" + event.getValue() ) ;
+            }
+        } ;
+        EventSubscriber ringSubs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                try {
+                    Thread.sleep( 20 ) ;
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt() ;
+                }
+                values.add( "ring:" + event.getValue() ) ;
+            }
+        } ;
+        
+        BUS.addSubscriberForEventTypes( syncSubs, false, TEST_EVENT_1 ) ;
+        BUS.addSubscriberForEventTypes( failingSubs, true, TEST_EVENT_1 ) ;
+        BUS.addSubscriberForEventTypes( ringSubs, 
+                new RingBufferDispatchPolicy( 8, AsyncDispatchPolicy.BLOCK ), 
+                TEST_EVENT_1 ) ;
+        
+        BUS.publishEventAsync( TEST_EVENT_1, "ok" ).get( 2, TimeUnit.SECONDS ) ;
+        assertEquals( 3, values.size() ) ;
+        assertTrue( values.contains( "ring:ok" ) ) ;
+        
+        CompletableFuture<Void> future = BUS.publishEventAsync( TEST_EVENT_1, "bad" ) ;
+        try {
+            future.get( 2, TimeUnit.SECONDS ) ;
+            fail( "The failure of the subscriber should fail the future" ) ;
+        }
+        catch( ExecutionException e ) {
+            EventDeliveryException de = ( EventDeliveryException )e.getCause() ;
+            assertEquals( 1, de.getFailures().size() ) ;
+            assertTrue( de.getFailures().get( failingSubs ) 
+                                        instanceof IllegalArgumentException ) ;
+            assertEquals( "bad", de.getEvent().getValue() ) ;
+        }
+        assertTrue( values.contains( "ring:bad" ) ) ;
+        
+        assertTrue( BUS.publishEventAsync( TEST_EVENT_1 + 1, "none" ).isDone() ) ;
+    }
+
+    /**
+     * FEATURE: Asynchronous publishes racing with the removal of the 
+     *          subscriber or the shutdown of the bus neither block the 
+     *          publishers nor leave their futures incomplete
+     */
+    public void testPublishRacingSubscriberRemoval() 
+        throws Exception {
+        
+        for( int round=0; round<50; round++ ) {
+            EventBus bus = new EventBus() ;
+            bus.setLockFreePublish( true ) ;
+            publishWhileStopping( bus, ( round % 2 == 0 ) ) ;
+        }
+    }
+    
+    private void publishWhileStopping( final EventBus bus, boolean shutdown ) 
+        throws Exception {
+        
+        EventSubscriber subs = new EventSubscriber() {
+            public void handleEvent( Event event ) {
+                Thread.yield() ;
+            }
+        } ;
+        bus.addSubscriberForEventTypes( subs, 
+                new AsyncDispatchPolicy( 4, AsyncDispatchPolicy.BLOCK ), 
+                TEST_EVENT_1 ) ;
+        
+        final List<CompletableFuture<Void>> futures = 
+                Collections.synchronizedList( new ArrayList<CompletableFuture<Void>>() ) ;
+        Thread[] publishers = new Thread[4] ;
+        for( int i=0; i<publishers.length; i++ ) {
+            publishers[i] = new Thread( new Runnable() {
+                public void run() {
+                    try {
+                        for( int j=0; j<200; j++ ) {
+                            futures.add( bus.publishEventAsync( TEST_EVENT_1, j ) ) ;
+                        }
+                    }
+                    catch( IllegalStateException e ) {
+                        // Publish rejected after shutdown
+                    }
+                }
+            } ) ;
+            publishers[i].start() ;
+        }
+        
+        while( futures.size() < 100 ) {
+            Thread.yield() ;
+        }
+        if( shutdown ) {
+            bus.shutdown( Duration.ZERO ) ;
+        }
+        else {
+            bus.removeSubscriber( subs ) ;
+        }
+        
+        for( Thread publisher : publishers ) {
+            publisher.join( 2000 ) ;
+            assertFalse( "Publisher blocked", publisher.isAlive() ) ;
+        }
+        synchronized( futures ) {
+            for( CompletableFuture<Void> future : futures ) {
+                try {
+                    future.get( 2, TimeUnit.SECONDS ) ;
+                }
+                catch( ExecutionException e ) {
+                    // Dropped when the subscriber was stopped
+                }
+            }
+        }
+    }
+}
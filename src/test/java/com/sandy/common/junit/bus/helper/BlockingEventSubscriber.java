@@ -0,0 +1,50 @@
+package com.sandy.common.junit.bus.helper;
+
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.concurrent.CountDownLatch ;
+import java.util.concurrent.TimeUnit ;
+
+import com.sandy.common.bus.Event ;
+import com.sandy.common.bus.EventSubscriber ;
+
+/**
+ * A subscriber which blocks on receiving its first event, till released by
+ * the test case. Used to back up the asynchronous dispatch queues.
+ *
+ * @author Sandeep Deb [deb.sandeep@gmail.com]
+ */
+public class BlockingEventSubscriber implements EventSubscriber {
+
+    private final CountDownLatch firstEventLatch = new CountDownLatch( 1 ) ;
+    private final CountDownLatch releaseLatch = new CountDownLatch( 1 ) ;
+    private final List<Object> values = new ArrayList<Object>() ;
+
+    public void handleEvent( final Event event ) {
+        firstEventLatch.countDown() ;
+        try {
+            releaseLatch.await() ;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt() ;
+        }
+        synchronized( values ) {
+            values.add( event.getValue() ) ;
+        }
+    }
+
+    /** Waits till the first event has been received by this subscriber. */
+    public void awaitFirstEvent() throws InterruptedException {
+        firstEventLatch.await( 1, TimeUnit.SECONDS ) ;
+    }
+
+    public void release() {
+        releaseLatch.countDown() ;
+    }
+
+    public List<Object> getValues() {
+        synchronized( values ) {
+            return new ArrayList<Object>( values ) ;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.sandy.common.junit.xlsutil;
+
+import static org.junit.Assert.* ;
+
+import java.io.File ;
+import java.io.FileWriter ;
+import java.util.Arrays ;
+import java.util.Collections ;
+import java.util.List ;
+import java.util.Set ;
+import java.util.TreeSet ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.TimeUnit ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+import org.junit.Test ;
+
+import com.sandy.common.xlsutil.XLSBatchJob ;
+import com.sandy.common.xlsutil.XLSBatchListener ;
+import com.sandy.common.xlsutil.XLSBatchReader ;
+import com.sandy.common.xlsutil.XLSRow ;
+import com.sandy.common.xlsutil.XLSWrapper ;
+
+public class XLSBatchReaderTestCase {
+
+    private static class CountingListener implements XLSBatchListener {
+
+        private AtomicInteger numStarted = new AtomicInteger() ;
+        private Set<Integer> numsJobsDone = Collections.synchronizedSet( new TreeSet<>() ) ;
+        private Set<Integer> numsJobs = Collections.synchronizedSet( new TreeSet<>() ) ;
+
+        public void jobStarted( XLSBatchJob job ) {
+            numStarted.incrementAndGet() ;
+        }
+
+        public void jobFinished( XLSBatchJob job, int numJobsDone, int numJobs ) {
+            numsJobsDone.add( numJobsDone ) ;
+            numsJobs.add( numJobs ) ;
+        }
+    }
+
+    private File createBadFile() throws Exception {
+        File file = File.createTempFile( "batch-test", ".xlsx" ) ;
+        file.deleteOnExit() ;
+        try( FileWriter writer = new FileWriter( file ) ) {
+            writer.write( "Not a workbook" ) ;
+        }
+        return file ;
+    }
+
+    @Test
+    public void failedJobsAreIsolated() throws Exception {
+
+        File xlsxFile = XLSWrapperTestCase.getTestFile( "stream-test.xlsx" ) ;
+        File xlsFile = XLSWrapperTestCase.getTestFile( "stream-test.xls" ) ;
+
+        XLSBatchReader reader = new XLSBatchReader( 2 ) ;
+        XLSBatchJob xlsxJob    = reader.addSheet( xlsxFile, "Data", 1, 1, -1 ) ;
+        XLSBatchJob badJob     = reader.addSheet( createBadFile(), "Data", 1, 1, -1 ) ;
+        XLSBatchJob noSheetJob = reader.addSheet( xlsFile, "Missing", 1, 1, -1 ) ;
+        XLSBatchJob xlsJob     = reader.addSheet( xlsFile, "Data", 1, 1, -1 ) ;
+
+        CountingListener listener = new CountingListener() ;
+        reader.setListener( listener ) ;
+
+        List<XLSRow> rows = reader.readRows() ;
+
+        assertFalse( xlsxJob.isFailed() ) ;
+        assertFalse( xlsJob.isFailed() ) ;
+        assertTrue( badJob.isFailed() ) ;
+        assertTrue( noSheetJob.getError().getMessage().startsWith( "Sheet Missing not found" ) ) ;
+        assertEquals( 6, xlsxJob.getNumRows() ) ;
+        assertEquals( 6, xlsJob.getNumRows() ) ;
+
+        // The rows of the good jobs, in the order the jobs were added
+        List<XLSRow> xlsxRows = new XLSWrapper( xlsxFile ).getRows( "Data", 1, 1, -1 ) ;
+        List<XLSRow> xlsRows = new XLSWrapper( xlsFile ).getRows( "Data", 1, 1, -1 ) ;
+        assertEquals( 12, rows.size() ) ;
+        XLSWrapperTestCase.assertSameRows( xlsxRows, rows.subList( 0, 6 ) ) ;
+        XLSWrapperTestCase.assertSameRows( xlsRows, rows.subList( 6, 12 ) ) ;
+
+        assertEquals( 4, listener.numStarted.get() ) ;
+        assertEquals( new TreeSet<>( Arrays.asList( 1, 2, 3, 4 ) ),
+                      listener.numsJobsDone ) ;
+        assertEquals( Collections.singleton( 4 ), listener.numsJobs ) ;
+    }
+
+    @Test
+    public void failedListenerAbortsBatch() throws Exception {
+
+        File xlsxFile = XLSWrapperTestCase.getTestFile( "stream-test.xlsx" ) ;
+        ExecutorService executor = Executors.newFixedThreadPool( 2 ) ;
+        try {
+            XLSBatchReader reader = new XLSBatchReader( executor ) ;
+            for( int i=0; i<20; i++ ) {
+                reader.addSheet( xlsxFile, "Data", 1, 1, -1 ) ;
+            }
+            reader.setListener( new XLSBatchListener() {
+                public void jobStarted( XLSBatchJob job ) {
+                }
+                public void jobFinished( XLSBatchJob job, int numJobsDone, int numJobs ) {
+                    throw new IllegalStateException( "Listener failure" ) ;
+                }
+            } ) ;
+
+            AtomicInteger numRows = new AtomicInteger() ;
+            try {
+                reader.streamRows( ( job, row ) -> numRows.incrementAndGet() > 0 ) ;
+                fail( "Expected the listener failure to abort the batch" ) ;
+            }
+            catch( Exception e ) {
+                assertEquals( "Batch read aborted.", e.getMessage() ) ;
+                assertEquals( "Listener failure", e.getCause().getMessage() ) ;
+            }
+
+            // No job carries on once the batch has been aborted
+            int numRowsOnAbort = numRows.get() ;
+            executor.shutdown() ;
+            assertTrue( executor.awaitTermination( 5, TimeUnit.SECONDS ) ) ;
+            assertEquals( numRowsOnAbort, numRows.get() ) ;
+            assertTrue( numRowsOnAbort < 20 * 6 ) ;
+        }
+        finally {
+            executor.shutdownNow() ;
+        }
+    }
+}
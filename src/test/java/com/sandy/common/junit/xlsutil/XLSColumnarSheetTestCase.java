@@ -0,0 +1,320 @@
+package com.sandy.common.junit.xlsutil;
+
+import static org.junit.Assert.* ;
+
+import java.io.File ;
+import java.io.FileOutputStream ;
+import java.util.Arrays ;
+import java.util.BitSet ;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook ;
+import org.apache.poi.ss.usermodel.Row ;
+import org.apache.poi.ss.usermodel.Sheet ;
+import org.apache.poi.ss.usermodel.Workbook ;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook ;
+import org.junit.Test ;
+
+import com.sandy.common.xlsutil.XLSColumn ;
+import com.sandy.common.xlsutil.XLSColumnarSheet ;
+import com.sandy.common.xlsutil.XLSWrapper ;
+import com.sandy.common.xlsutil.filter.NumFilter ;
+
+public class XLSColumnarSheetTestCase {
+
+    private static final long MAX_EXACT_LONG = ( 1L << 53 ) - 1 ;
+    private static final double DELTA = 1e-9 ;
+
+    private static final String[] COL_NAMES = {
+        "Id", "Amount", "Big", "Huge", "Name", "Flag", "Mixed", "MixedStr",
+        "Formula", "Blank"
+    } ;
+
+    /**
+     * Writes a workbook whose Data sheet has a header at row 0 and data rows
+     * 1 to 6, row 4 being missing. Row 5 of Amount is an error, and the
+     * formulas are evaluated so that they carry cached results.
+     */
+    private File createWorkbook( boolean xlsx ) throws Exception {
+
+        File file = File.createTempFile( "columnar-test", xlsx ? ".xlsx" : ".xls" ) ;
+        file.deleteOnExit() ;
+
+        try( Workbook workbook = xlsx ? new XSSFWorkbook() : new HSSFWorkbook() ) {
+            workbook.createSheet( "Other" ).createRow( 0 ).createCell( 0 ).setCellValue( "x" ) ;
+
+            Sheet sheet = workbook.createSheet( "Data" ) ;
+            Row header = sheet.createRow( 0 ) ;
+            for( int c=0; c<COL_NAMES.length; c++ ) {
+                header.createCell( c ).setCellValue( COL_NAMES[c] ) ;
+            }
+
+            Row row = sheet.createRow( 1 ) ;
+            row.createCell( 0 ).setCellValue( 1 ) ;
+            row.createCell( 1 ).setCellValue( 1.0 ) ;
+            row.createCell( 2 ).setCellValue( MAX_EXACT_LONG ) ;
+            row.createCell( 3 ).setCellValue( 1 ) ;
+            row.createCell( 4 ).setCellValue( "a" ) ;
+            row.createCell( 5 ).setCellValue( true ) ;
+            row.createCell( 6 ).setCellValue( 1 ) ;
+            row.createCell( 7 ).setCellValue( 2 ) ;
+            row.createCell( 8 ).setCellFormula( "A2*2" ) ;
+            row.createCell( 9 ) ;
+
+            row = sheet.createRow( 2 ) ;
+            row.createCell( 0 ).setCellValue( 2 ) ;
+            row.createCell( 1 ).setCellValue( 2.5 ) ;
+            row.createCell( 2 ).setCellValue( 5 ) ;
+            row.createCell( 3 ).setCellValue( MAX_EXACT_LONG + 1 ) ;
+            row.createCell( 4 ).setCellValue( "b" ) ;
+            row.createCell( 5 ).setCellValue( false ) ;
+            row.createCell( 6 ).setCellValue( true ) ;
+            row.createCell( 7 ).setCellValue( "x" ) ;
+            row.createCell( 8 ).setCellFormula( "A3*2" ) ;
+
+            row = sheet.createRow( 3 ) ;
+            row.createCell( 0 ).setCellValue( 3 ) ;
+            row.createCell( 2 ).setCellValue( 7 ) ;
+            row.createCell( 3 ).setCellValue( 3 ) ;
+            row.createCell( 4 ).setCellValue( "a" ) ;
+            row.createCell( 6 ).setCellValue( 2.5 ) ;
+            row.createCell( 7 ).setCellValue( 3 ) ;
+            row.createCell( 8 ).setCellFormula( "A4*2" ) ;
+            row.createCell( 9 ).setCellValue( "" ) ;
+
+            row = sheet.createRow( 5 ) ;
+            row.createCell( 0 ).setCellValue( 5 ) ;
+            row.createCell( 1 ).setCellFormula( "1/0" ) ;
+            row.createCell( 2 ).setCellValue( 9 ) ;
+            row.createCell( 3 ).setCellValue( 5 ) ;
+            row.createCell( 4 ).setCellValue( "c" ) ;
+            row.createCell( 5 ).setCellValue( true ) ;
+            row.createCell( 8 ).setCellFormula( "A6*2" ) ;
+
+            row = sheet.createRow( 6 ) ;
+            row.createCell( 0 ).setCellValue( 6 ) ;
+            row.createCell( 1 ).setCellValue( -4 ) ;
+            row.createCell( 2 ).setCellValue( 11 ) ;
+            row.createCell( 3 ).setCellValue( 6 ) ;
+            row.createCell( 4 ).setCellFormula( "LOWER(\"A\")" ) ;
+            row.createCell( 5 ).setCellValue( false ) ;
+            row.createCell( 8 ).setCellFormula( "A7*2" ) ;
+            row.createCell( 9 ).setCellFormula( "\"\"" ) ;
+
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll() ;
+            try( FileOutputStream os = new FileOutputStream( file ) ) {
+                workbook.write( os ) ;
+            }
+        }
+        return file ;
+    }
+
+    private XLSColumnarSheet getColumnarSheet( boolean xlsx ) throws Exception {
+        return new XLSWrapper( createWorkbook( xlsx ) ).getColumnarSheet( "Data", 0, 0, -1 ) ;
+    }
+
+    private static BitSet bits( int... indexes ) {
+        BitSet bits = new BitSet() ;
+        for( int index : indexes ) {
+            bits.set( index ) ;
+        }
+        return bits ;
+    }
+
+    @Test
+    public void xlsxColumnsAreTyped() throws Exception {
+        checkTypes( getColumnarSheet( true ) ) ;
+    }
+
+    @Test
+    public void xlsColumnsAreTyped() throws Exception {
+        checkTypes( getColumnarSheet( false ) ) ;
+    }
+
+    private void checkTypes( XLSColumnarSheet sheet ) {
+
+        assertEquals( 6, sheet.getNumRows() ) ;
+        assertEquals( COL_NAMES.length, sheet.getNumCols() ) ;
+        assertEquals( Arrays.asList( COL_NAMES ), sheet.getConfig().getColNames() ) ;
+
+        XLSColumn id = sheet.getColumn( "Id" ) ;
+        assertEquals( XLSColumn.TYPE_LONG, id.getType() ) ;
+        assertEquals( 6, id.getNumRows() ) ;
+        assertEquals( 5, id.getLong( 4 ) ) ;
+
+        // Fractional numbers make a double column
+        assertEquals( XLSColumn.TYPE_DOUBLE, sheet.getColumn( "Amount" ).getType() ) ;
+        assertEquals( 2.5, sheet.getColumn( "Amount" ).getDouble( 1 ), DELTA ) ;
+
+        // Whole numbers from 2^53 on are not exact, hence kept as doubles
+        XLSColumn big = sheet.getColumn( "Big" ) ;
+        assertEquals( XLSColumn.TYPE_LONG, big.getType() ) ;
+        assertEquals( MAX_EXACT_LONG, big.getLong( 0 ) ) ;
+        XLSColumn huge = sheet.getColumn( "Huge" ) ;
+        assertEquals( XLSColumn.TYPE_DOUBLE, huge.getType() ) ;
+        assertEquals( MAX_EXACT_LONG + 1, huge.getDouble( 1 ), DELTA ) ;
+        assertEquals( 1.0, huge.getDouble( 0 ), DELTA ) ;
+
+        XLSColumn flag = sheet.getColumn( "Flag" ) ;
+        assertEquals( XLSColumn.TYPE_BOOLEAN, flag.getType() ) ;
+        assertTrue( flag.getBoolean( 0 ) ) ;
+        assertFalse( flag.getBoolean( 1 ) ) ;
+
+        // Numbers mixed with booleans or strings make a string column
+        XLSColumn mixed = sheet.getColumn( "Mixed" ) ;
+        assertEquals( XLSColumn.TYPE_STRING, mixed.getType() ) ;
+        assertEquals( Arrays.asList( "1", "true", "2.500000", null, null, null ),
+                      Arrays.asList( mixed.getString( 0 ), mixed.getString( 1 ),
+                                     mixed.getString( 2 ), mixed.getString( 3 ),
+                                     mixed.getString( 4 ), mixed.getString( 5 ) ) ) ;
+        XLSColumn mixedStr = sheet.getColumn( "MixedStr" ) ;
+        assertEquals( XLSColumn.TYPE_STRING, mixedStr.getType() ) ;
+        assertEquals( Arrays.asList( "2", "x", "3" ), mixedStr.getDictionary() ) ;
+
+        // Formulas contribute their cached results
+        XLSColumn formula = sheet.getColumn( "Formula" ) ;
+        assertEquals( XLSColumn.TYPE_LONG, formula.getType() ) ;
+        assertEquals( 12, formula.getLong( 5 ) ) ;
+        assertEquals( 2.0, formula.sum( bits( 0 ) ), DELTA ) ;
+
+        // A column without values is a string column of nulls
+        XLSColumn blank = sheet.getColumn( "Blank" ) ;
+        assertEquals( XLSColumn.TYPE_STRING, blank.getType() ) ;
+        assertTrue( blank.getDictionary().isEmpty() ) ;
+        assertEquals( 0, blank.count( null ) ) ;
+
+        try {
+            sheet.getColumn( "Name" ).getLong( 0 ) ;
+            fail( "Expected a type mismatch" ) ;
+        }
+        catch( IllegalStateException e ) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void xlsxNullsAndDictionary() throws Exception {
+        checkNullsAndDictionary( getColumnarSheet( true ) ) ;
+    }
+
+    @Test
+    public void xlsNullsAndDictionary() throws Exception {
+        checkNullsAndDictionary( getColumnarSheet( false ) ) ;
+    }
+
+    private void checkNullsAndDictionary( XLSColumnarSheet sheet ) {
+
+        // Missing cells, the missing row 4 and the error cell are nulls
+        XLSColumn amount = sheet.getColumn( "Amount" ) ;
+        assertFalse( amount.isNull( 0 ) ) ;
+        assertTrue( amount.isNull( 2 ) ) ;
+        assertTrue( amount.isNull( 3 ) ) ;
+        assertTrue( amount.isNull( 4 ) ) ;
+        assertNull( amount.getString( 4 ) ) ;
+        assertTrue( sheet.getColumn( "Flag" ).isNull( 2 ) ) ;
+        for( int c=0; c<sheet.getNumCols(); c++ ) {
+            assertTrue( sheet.getColumn( c ).isNull( 3 ) ) ;
+        }
+
+        // Blank cells and empty strings are nulls
+        XLSColumn blank = sheet.getColumn( "Blank" ) ;
+        for( int i=0; i<sheet.getNumRows(); i++ ) {
+            assertTrue( blank.isNull( i ) ) ;
+        }
+
+        // Each distinct string is held once, the string formula included
+        XLSColumn name = sheet.getColumn( "Name" ) ;
+        assertEquals( XLSColumn.TYPE_STRING, name.getType() ) ;
+        assertEquals( Arrays.asList( "a", "b", "c" ), name.getDictionary() ) ;
+        assertEquals( "a", name.getString( 5 ) ) ;
+        assertEquals( bits( 0, 2, 5 ), name.selectEquals( "a" ) ) ;
+        assertTrue( name.selectEquals( "z" ).isEmpty() ) ;
+
+        assertEquals( "b", sheet.getRow( 1 ).getCellValue( "Name" ) ) ;
+        assertEquals( "2", sheet.getRow( 1 ).getCellValue( "Id" ) ) ;
+    }
+
+    @Test
+    public void xlsxSelectAndAggregate() throws Exception {
+        checkSelectAndAggregate( getColumnarSheet( true ) ) ;
+    }
+
+    @Test
+    public void xlsSelectAndAggregate() throws Exception {
+        checkSelectAndAggregate( getColumnarSheet( false ) ) ;
+    }
+
+    private void checkSelectAndAggregate( XLSColumnarSheet sheet ) {
+
+        XLSColumn id = sheet.getColumn( "Id" ) ;
+        XLSColumn amount = sheet.getColumn( "Amount" ) ;
+
+        assertEquals( bits( 2, 4, 5 ), id.select( NumFilter.GT, 2 ) ) ;
+        assertEquals( bits( 1 ), id.select( NumFilter.EQ, 2 ) ) ;
+        assertEquals( bits( 0, 1 ), id.select( NumFilter.LTE, 2 ) ) ;
+
+        // The nulls hold 0, but are never selected
+        assertEquals( bits( 0, 1, 5 ), amount.select( NumFilter.LTE, 2.5 ) ) ;
+        assertEquals( bits( 5 ), amount.select( NumFilter.LT, 0 ) ) ;
+
+        assertEquals( bits( 1 ), id.selectEquals( "2" ) ) ;
+        assertEquals( bits( 0, 4 ), sheet.getColumn( "Flag" ).selectEquals( "true" ) ) ;
+
+        try {
+            sheet.getColumn( "Name" ).select( NumFilter.GT, 0 ) ;
+            fail( "Expected a non numeric column to fail" ) ;
+        }
+        catch( IllegalStateException e ) {
+            // Expected
+        }
+
+        // A null set of rows stands for all the rows
+        assertEquals( 5, id.count( null ) ) ;
+        assertEquals( 17, id.sum( null ), DELTA ) ;
+        assertEquals( 3.4, id.mean( null ), DELTA ) ;
+        assertEquals( 1, id.min( null ), DELTA ) ;
+        assertEquals( 6, id.max( null ), DELTA ) ;
+        assertEquals( 3, amount.count( null ) ) ;
+        assertEquals( -0.5, amount.sum( null ), DELTA ) ;
+
+        // The nulls of the selected rows are left out
+        BitSet rows = id.select( NumFilter.GT, 1 ) ;
+        assertEquals( 2, amount.count( rows ) ) ;
+        assertEquals( -1.5, amount.sum( rows ), DELTA ) ;
+        assertEquals( -0.75, amount.mean( rows ), DELTA ) ;
+        assertEquals( -4, amount.min( rows ), DELTA ) ;
+        assertEquals( 2.5, amount.max( rows ), DELTA ) ;
+
+        BitSet noValues = bits( 2, 3, 4 ) ;
+        assertEquals( 0, amount.count( noValues ) ) ;
+        assertEquals( 0, amount.sum( noValues ), DELTA ) ;
+        assertTrue( Double.isNaN( amount.mean( noValues ) ) ) ;
+        assertTrue( Double.isNaN( amount.min( noValues ) ) ) ;
+        assertTrue( Double.isNaN( amount.max( noValues ) ) ) ;
+
+        // Rows beyond the end of the sheet are ignored
+        BitSet outOfRange = bits( 5, 6, 100 ) ;
+        assertEquals( 1, id.count( outOfRange ) ) ;
+        assertEquals( 6, id.sum( outOfRange ), DELTA ) ;
+        assertEquals( 6, id.max( outOfRange ), DELTA ) ;
+        assertEquals( 1, sheet.getRows( outOfRange ).size() ) ;
+        assertEquals( "6", sheet.getRows( outOfRange ).get( 0 ).getCellValue( "Id" ) ) ;
+    }
+
+    @Test
+    public void columnRangeAndMissingHeader() throws Exception {
+
+        XLSWrapper wrapper = new XLSWrapper( createWorkbook( true ) ) ;
+        XLSColumnarSheet sheet = wrapper.getColumnarSheet( "Data", 0, 1, 2 ) ;
+        assertEquals( Arrays.asList( "Amount", "Big" ), sheet.getConfig().getColNames() ) ;
+        assertEquals( 2, sheet.getNumCols() ) ;
+        assertEquals( 6, sheet.getNumRows() ) ;
+
+        try {
+            wrapper.getColumnarSheet( "Data", 10, 0, -1 ) ;
+            fail( "Expected a missing header to fail" ) ;
+        }
+        catch( IllegalStateException e ) {
+            assertEquals( "Header row 10 is empty.", e.getMessage() ) ;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.sandy.common.junit.xlsutil;
+
+import static org.junit.Assert.* ;
+
+import java.io.File ;
+import java.nio.file.Files ;
+import java.nio.file.Path ;
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.Optional ;
+import java.util.concurrent.atomic.AtomicInteger ;
+import java.util.stream.Collectors ;
+import java.util.stream.Stream ;
+
+import org.junit.Assume ;
+import org.junit.Test ;
+
+import com.sandy.common.util.ReflectionUtil ;
+import com.sandy.common.xlsutil.XLSRow ;
+import com.sandy.common.xlsutil.XLSRowFilter ;
+import com.sandy.common.xlsutil.XLSRowIterator ;
+import com.sandy.common.xlsutil.XLSWrapper ;
+
+public class XLSWrapperTestCase {
+
+    private static final XLSRowFilter FLAG_FILTER = row -> row.getCellValue( "Flag" ).equals( "true" ) ;
+
+    static File getTestFile( String name ) throws Exception {
+        return new File( ReflectionUtil.getTestConfigResource(
+                                   XLSWrapperTestCase.class, name ).toURI() ) ;
+    }
+
+    static void assertSameRows( List<XLSRow> expected, List<XLSRow> actual ) {
+
+        assertEquals( expected.size(), actual.size() ) ;
+        for( int i=0; i<expected.size(); i++ ) {
+            XLSRow expectedRow = expected.get( i ) ;
+            XLSRow actualRow = actual.get( i ) ;
+            assertEquals( expectedRow.getConfig().getColNames(),
+                          actualRow.getConfig().getColNames() ) ;
+            assertEquals( expectedRow.getConfig().getNumRows(),
+                          actualRow.getConfig().getNumRows() ) ;
+            for( int c=0; c<expectedRow.getConfig().getNumCols(); c++ ) {
+                assertEquals( "Row " + i + ", col " + c,
+                              expectedRow.getRawCellValue( c ),
+                              actualRow.getRawCellValue( c ) ) ;
+            }
+        }
+    }
+
+    /** Returns true if this process holds the file open, on Linux. */
+    static boolean isOpen( File file ) throws Exception {
+
+        File fdDir = new File( "/proc/self/fd" ) ;
+        Assume.assumeTrue( fdDir.isDirectory() ) ;
+
+        Path path = file.getCanonicalFile().toPath() ;
+        File[] fds = fdDir.listFiles() ;
+        for( File fd : ( fds == null ) ? new File[0] : fds ) {
+            try {
+                if( Files.readSymbolicLink( fd.toPath() ).equals( path ) ) {
+                    return true ;
+                }
+            }
+            catch( Exception e ) {
+                // The descriptor was closed while listing
+            }
+        }
+        return false ;
+    }
+
+    private List<XLSRow> streamRows( XLSWrapper wrapper, String sheetName,
+                                     XLSRowFilter filter, int startRow,
+                                     int startCol, int endCol )
+        throws Exception {
+
+        List<XLSRow> rows = new ArrayList<>() ;
+        wrapper.streamRows( sheetName, filter, startRow, startCol, endCol,
+                            row -> rows.add( row ) ) ;
+        return rows ;
+    }
+
+    @Test
+    public void streamedXlsxRowsMatchLoadedRows() throws Exception {
+
+        XLSWrapper wrapper = new XLSWrapper( getTestFile( "stream-test.xlsx" ) ) ;
+
+        List<XLSRow> expected = wrapper.getRows( "Data", 1, 1, -1 ) ;
+        assertEquals( 6, expected.size() ) ;
+        assertSameRows( expected, streamRows( wrapper, "Data", null, 1, 1, -1 ) ) ;
+
+        // Shared and inline strings, numbers, booleans, errors and formulas
+        XLSRow row = expected.get( 1 ) ;
+        assertEquals( "gamma & delta", row.getRawCellValue( "Name" ) ) ;
+        assertEquals( "1234567.891000", row.getRawCellValue( "Amount" ) ) ;
+        assertEquals( "false", row.getRawCellValue( "Flag" ) ) ;
+        assertEquals( "C4&\"x\"", row.getRawCellValue( "Formula" ) ) ;
+        assertEquals( "7", expected.get( 0 ).getRawCellValue( "Error" ) ) ;
+        assertNull( expected.get( 3 ).getRawCellValue( "Name" ) ) ;
+    }
+
+    @Test
+    public void streamedXlsxRowsApplyColumnRangeAndFilter() throws Exception {
+
+        XLSWrapper wrapper = new XLSWrapper( getTestFile( "stream-test.xlsx" ) ) ;
+
+        List<XLSRow> expected = wrapper.getRows( "Data", 1, 2, 4 ) ;
+        List<XLSRow> streamed = streamRows( wrapper, "Data", null, 1, 2, 4 ) ;
+        assertEquals( 3, streamed.get( 0 ).getConfig().getNumCols() ) ;
+        assertSameRows( expected, streamed ) ;
+
+        expected = wrapper.getRows( "Data", FLAG_FILTER, 1, 1, -1 ) ;
+        assertEquals( 4, expected.size() ) ;
+        assertSameRows( expected, streamRows( wrapper, "Data", FLAG_FILTER, 1, 1, -1 ) ) ;
+
+        // The first sheet, when no sheet name is given
+        assertSameRows( wrapper.getRows( 0, 0, -1 ),
+                        streamRows( wrapper, null, null, 0, 0, -1 ) ) ;
+    }
+
+    @Test
+    public void streamedXlsxRowsSkipMissingRows() throws Exception {
+
+        XLSWrapper wrapper = new XLSWrapper( getTestFile( "stream-test.xlsx" ) ) ;
+
+        List<XLSRow> rows = streamRows( wrapper, "Gaps", null, 0, 0, -1 ) ;
+        assertEquals( 2, rows.size() ) ;
+        assertEquals( "first", rows.get( 0 ).getRawCellValue( "Key" ) ) ;
+        assertEquals( "third", rows.get( 1 ).getRawCellValue( "Key" ) ) ;
+        assertEquals( "3", rows.get( 1 ).getRawCellValue( "Value" ) ) ;
+    }
+
+    @Test
+    public void streamingStopsWhenHandlerReturnsFalse() throws Exception {
+
+        XLSWrapper wrapper = new XLSWrapper( getTestFile( "stream-test.xlsx" ) ) ;
+
+        List<XLSRow> rows = new ArrayList<>() ;
+        wrapper.streamRows( "Data", 1, 1, -1, row -> {
+            rows.add( row ) ;
+            return rows.size() < 2 ;
+        } ) ;
+        assertEquals( 2, rows.size() ) ;
+        assertEquals( "2", rows.get( 1 ).getRawCellValue( "Id" ) ) ;
+    }
+
+    @Test
+    public void streamingMissingSheetFails() throws Exception {
+
+        XLSWrapper wrapper = new XLSWrapper( getTestFile( "stream-test.xlsx" ) ) ;
+        try {
+            wrapper.streamRows( "Missing", 0, 0, -1, row -> true ) ;
+            fail( "Expected a missing sheet to be reported" ) ;
+        }
+        catch( Exception e ) {
+            assertTrue( e.getMessage().startsWith( "Sheet Missing not found" ) ) ;
+        }
+    }
+
+    @Test
+    public void rowStreamStopsEarlyAndReleasesFile() throws Exception {
+
+        File file = getTestFile( "stream-test.xlsx" ) ;
+        XLSWrapper wrapper = new XLSWrapper( file ) ;
+        AtomicInteger numFiltered = new AtomicInteger() ;
+        XLSRowFilter countingFilter = row -> numFiltered.incrementAndGet() > 0 ;
+
+        try( Stream<XLSRow> rows = wrapper.getRowStream( "Data", countingFilter, 1, 1, -1 ) ) {
+            Optional<XLSRow> first = rows.findFirst() ;
+            assertEquals( "1", first.get().getRawCellValue( "Id" ) ) ;
+            assertEquals( 1, numFiltered.get() ) ;
+            assertTrue( isOpen( file ) ) ;
+        }
+        assertFalse( isOpen( file ) ) ;
+
+        numFiltered.set( 0 ) ;
+        try( Stream<XLSRow> rows = wrapper.getRowStream( "Data", countingFilter, 1, 1, -1 ) ) {
+            List<String> ids = rows.limit( 2 )
+                                   .map( row -> row.getRawCellValue( "Id" ) )
+                                   .collect( Collectors.toList() ) ;
+            assertEquals( 2, ids.size() ) ;
+            assertEquals( "2", ids.get( 1 ) ) ;
+            assertEquals( 2, numFiltered.get() ) ;
+        }
+        assertFalse( isOpen( file ) ) ;
+
+        // An exhausted iterator releases the file without being closed
+        XLSRowIterator iterator = wrapper.getRowIterator( "Data", null, 1, 1, -1 ) ;
+        int numRows = 0 ;
+        while( iterator.hasNext() ) {
+            iterator.next() ;
+            numRows++ ;
+        }
+        assertEquals( 6, numRows ) ;
+        assertFalse( isOpen( file ) ) ;
+    }
+
+    @Test
+    public void rowIteratorReleasesFileOnFailure() throws Exception {
+
+        File file = getTestFile( "stream-test.xlsx" ) ;
+        XLSWrapper wrapper = new XLSWrapper( file ) ;
+
+        // Row 0 has no cells from column 1 on, hence an empty header
+        XLSRowIterator iterator = wrapper.getRowIterator( "Data", null, 0, 1, -1 ) ;
+        try {
+            iterator.hasNext() ;
+            fail( "Expected the empty header to be reported" ) ;
+        }
+        catch( IllegalStateException e ) {
+            assertEquals( "Header row 0 is empty.", e.getMessage() ) ;
+        }
+        assertFalse( isOpen( file ) ) ;
+
+        XLSRowFilter failingFilter = row -> {
+            throw new IllegalArgumentException( "Bad row" ) ;
+        } ;
+        iterator = wrapper.getRowIterator( "Data", failingFilter, 1, 1, -1 ) ;
+        try {
+            iterator.hasNext() ;
+            fail( "Expected the filter failure to be propagated" ) ;
+        }
+        catch( IllegalArgumentException e ) {
+            assertEquals( "Bad row", e.getMessage() ) ;
+        }
+        assertFalse( isOpen( file ) ) ;
+    }
+
+    @Test
+    public void streamedXlsRowsMatchLoadedRows() throws Exception {
+
+        XLSWrapper wrapper = new XLSWrapper( getTestFile( "stream-test.xls" ) ) ;
+
+        List<XLSRow> expected = wrapper.getRows( "Data", 1, 1, -1 ) ;
+        assertEquals( 6, expected.size() ) ;
+        assertSameRows( expected, streamRows( wrapper, "Data", null, 1, 1, -1 ) ) ;
+
+        List<XLSRow> iterated = new ArrayList<>() ;
+        try( XLSRowIterator iterator = wrapper.getRowIterator( "Data", null, 1, 1, -1 ) ) {
+            iterator.forEachRemaining( iterated::add ) ;
+        }
+        assertSameRows( expected, iterated ) ;
+
+        // String formulas followed by their string records, shared formulas,
+        // and the label and RK records of the last row
+        XLSRow row = expected.get( 1 ) ;
+        assertEquals( "C4&\"x\"", row.getRawCellValue( "Formula" ) ) ;
+        assertEquals( "B4*2", row.getRawCellValue( "Shared" ) ) ;
+        assertEquals( "", row.getRawCellValue( "Error" ) ) ;
+        assertEquals( "rich", expected.get( 5 ).getRawCellValue( "Name" ) ) ;
+        assertEquals( "6", expected.get( 5 ).getRawCellValue( "Id" ) ) ;
+
+        expected = wrapper.getRows( "Data", FLAG_FILTER, 1, 2, 6 ) ;
+        assertEquals( 3, expected.size() ) ;
+        assertSameRows( expected, streamRows( wrapper, "Data", FLAG_FILTER, 1, 2, 6 ) ) ;
+    }
+
+    @Test
+    public void streamedXlsRowsStopAtEndOfSheet() throws Exception {
+
+        XLSWrapper wrapper = new XLSWrapper( getTestFile( "stream-test.xls" ) ) ;
+
+        // The first sheet is followed by the data sheet, which is not read
+        List<XLSRow> rows = streamRows( wrapper, null, null, 0, 0, -1 ) ;
+        assertEquals( 1, rows.size() ) ;
+        assertSameRows( wrapper.getRows( 0, 0, -1 ), rows ) ;
+        assertSameRows( wrapper.getRows( "Other", 0, 0, -1 ),
+                        streamRows( wrapper, "Other", null, 0, 0, -1 ) ) ;
+
+        List<XLSRow> handled = new ArrayList<>() ;
+        wrapper.streamRows( "Data", 1, 1, -1, row -> {
+            handled.add( row ) ;
+            return handled.size() < 2 ;
+        } ) ;
+        assertEquals( 2, handled.size() ) ;
+
+        try {
+            wrapper.getRowIterator( "Missing", null, 0, 0, -1 ) ;
+            fail( "Expected a missing sheet to be reported" ) ;
+        }
+        catch( Exception e ) {
+            assertTrue( e.getMessage().startsWith( "Sheet Missing not found" ) ) ;
+        }
+    }
+
+    @Test
+    public void streamedXlsOrphanSharedFormulasFallBackToCachedResults() 
+        throws Exception {
+
+        XLSWrapper wrapper = new XLSWrapper( getTestFile( "orphan-shared-formulas.xls" ) ) ;
+
+        List<XLSRow> rows = streamRows( wrapper, "Data", null, 1, 1, -1 ) ;
+        assertEquals( 6, rows.size() ) ;
+        assertEquals( "alphax", rows.get( 0 ).getRawCellValue( "Formula" ) ) ;
+        assertEquals( "gamma & deltax", rows.get( 1 ).getRawCellValue( "Formula" ) ) ;
+        assertEquals( "2", rows.get( 0 ).getRawCellValue( "Shared" ) ) ;
+        assertEquals( "12", rows.get( 5 ).getRawCellValue( "Shared" ) ) ;
+    }
+
+    @Test
+    public void xlsRowStreamStopsEarlyAndReleasesFile() throws Exception {
+
+        File file = getTestFile( "stream-test.xls" ) ;
+        XLSWrapper wrapper = new XLSWrapper( file ) ;
+
+        try( Stream<XLSRow> rows = wrapper.getRowStream( "Data", null, 1, 1, -1 ) ) {
+            assertEquals( "1", rows.findFirst().get().getRawCellValue( "Id" ) ) ;
+            assertTrue( isOpen( file ) ) ;
+        }
+        assertFalse( isOpen( file ) ) ;
+
+        XLSRowIterator iterator = wrapper.getRowIterator( "Data", null, 0, 1, -1 ) ;
+        try {
+            iterator.hasNext() ;
+            fail( "Expected the empty header to be reported" ) ;
+        }
+        catch( IllegalStateException e ) {
+            assertEquals( "Header row 0 is empty.", e.getMessage() ) ;
+        }
+        assertFalse( isOpen( file ) ) ;
+    }
+}